@@ -0,0 +1,95 @@
+package org.nextstate.statemachine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.nextstate.statemachine.ATMStateMachine.*;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A cycle of ATM events given to {@value #INSTANCES} instances, one {@link MachineInstance} each or stepped together
+ * by a {@link BulkEngine} on the calling thread and on the common pool. Results are per event of an instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkEngineBenchmark {
+    private static final int INSTANCES = 100_000;
+    private static final Event[] ATM_CYCLE = {new TurnedOn(), new TestedOk(), new CardInserted(),
+            new Authenticated(), new TransactionSelected(), new CardInserted(), new Canceled(), new TurnedOff()};
+
+    private MachineInstance[] instances;
+    private BulkEngine sequential;
+    private BulkEngine parallel;
+    private BulkEngine batchedActions;
+    private Event[][] steps;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        instances = new MachineInstance[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            instances[i] = definition.newInstance();
+        }
+        sequential = BulkEngine.bulkEngine(definition).instances(INSTANCES).pool(null).build();
+        parallel = BulkEngine.bulkEngine(definition).instances(INSTANCES).pool(ForkJoinPool.commonPool()).build();
+        batchedActions = BulkEngine.bulkEngine(definition).instances(INSTANCES).actions(new BulkActions() {
+        }).build();
+        steps = new Event[ATM_CYCLE.length][INSTANCES];
+        for (int step = 0; step < ATM_CYCLE.length; step++) {
+            Arrays.fill(steps[step], ATM_CYCLE[step]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES * 8)
+    public MachineInstance[] machineInstances() {
+        for (Event event : ATM_CYCLE) {
+            for (MachineInstance instance : instances) {
+                instance.execute(event);
+            }
+        }
+        return instances;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES * 8)
+    public long bulkEngineSequential() {
+        return cycle(sequential);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES * 8)
+    public long bulkEngineParallel() {
+        return cycle(parallel);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES * 8)
+    public long bulkEngineParallelWithActions() {
+        return cycle(batchedActions);
+    }
+
+    private long cycle(BulkEngine engine) {
+        long taken = 0;
+        for (Event[] events : steps) {
+            taken += engine.step(events);
+        }
+        return taken;
+    }
+}
@@ -0,0 +1,85 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Executing an event handled by the innermost state of {@link NestedStateMachine}, so it is dispatched through every
+ * level of Composite States, and an event handled by the outermost Composite State after checking every level. The
+ * sealed State Machine walks the levels in a loop instead of nested calls, see {@link StateMachine#seal()}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompositeNestingBenchmark {
+    private static final Event NEXT = new Event(NestedStateMachine.NEXT);
+    private static final Event UNHANDLED = new Event("Unhandled");
+
+    @Param({"1", "4", "16"})
+    private int depth;
+
+    @Param({"2", "8"})
+    private int fanOut;
+
+    private StateMachine stateMachine;
+    private StateMachine sealedStateMachine;
+    private MachineInstance instance;
+
+    @Setup
+    public void setUp() {
+        stateMachine = new NestedStateMachine(depth, fanOut);
+        sealedStateMachine = new NestedStateMachine(depth, fanOut);
+        sealedStateMachine.seal();
+        instance = MachineDefinition.of(new NestedStateMachine(depth, fanOut)).newInstance();
+    }
+
+    @Benchmark
+    public StateMachine innermostTransition() {
+        stateMachine.execute(NEXT);
+        return stateMachine;
+    }
+
+    @Benchmark
+    public StateMachine innermostTransitionSealed() {
+        sealedStateMachine.execute(NEXT);
+        return sealedStateMachine;
+    }
+
+    @Benchmark
+    public MachineInstance innermostTransitionInstance() {
+        instance.execute(NEXT);
+        return instance;
+    }
+
+    @Benchmark
+    public StateMachine noTransition() {
+        stateMachine.execute(UNHANDLED);
+        return stateMachine;
+    }
+
+    @Benchmark
+    public StateMachine noTransitionSealed() {
+        sealedStateMachine.execute(UNHANDLED);
+        return sealedStateMachine;
+    }
+
+    @Benchmark
+    public MachineInstance noTransitionInstance() {
+        instance.execute(UNHANDLED);
+        return instance;
+    }
+}
@@ -0,0 +1,118 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Restoring and reading the active state configuration and producing the DOT notation, for the ATM State Machine and
+ * for {@link NestedStateMachine} of different depth.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Atm {
+        final List<String> configuration = asList(ATMStateMachine.SERVING_CUSTOMER,
+                ATMStateMachine.SELECTING_TRANSACTION);
+        StateMachine stateMachine;
+        MachineInstance instance;
+
+        @Setup
+        public void setUp() {
+            stateMachine = new ATMStateMachine();
+            stateMachine.activeStateConfiguration(configuration);
+            instance = MachineDefinition.of(new ATMStateMachine()).newInstance();
+            instance.activeStateConfiguration(configuration);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Nested {
+        @Param({"1", "4", "16"})
+        int depth;
+
+        List<String> configuration;
+        StateMachine stateMachine;
+        MachineInstance instance;
+
+        @Setup
+        public void setUp() {
+            NestedStateMachine nested = new NestedStateMachine(depth, 4);
+            configuration = nested.innermostConfiguration();
+            stateMachine = nested;
+            instance = MachineDefinition.of(new NestedStateMachine(depth, 4)).newInstance();
+        }
+    }
+
+    @Benchmark
+    public StateMachine restoreAtm(Atm atm) {
+        atm.stateMachine.activeStateConfiguration(atm.configuration);
+        return atm.stateMachine;
+    }
+
+    @Benchmark
+    public MachineInstance restoreAtmInstance(Atm atm) {
+        atm.instance.activeStateConfiguration(atm.configuration);
+        return atm.instance;
+    }
+
+    @Benchmark
+    public List<String> activeConfigurationAtm(Atm atm) {
+        return atm.stateMachine.getActiveStateConfiguration();
+    }
+
+    @Benchmark
+    public List<String> activeConfigurationAtmInstance(Atm atm) {
+        return atm.instance.getActiveStateConfiguration();
+    }
+
+    @Benchmark
+    public String toDotAtm(Atm atm) {
+        return atm.stateMachine.toDot(true);
+    }
+
+    @Benchmark
+    public StateMachine restoreNested(Nested nested) {
+        nested.stateMachine.activeStateConfiguration(nested.configuration);
+        return nested.stateMachine;
+    }
+
+    @Benchmark
+    public MachineInstance restoreNestedInstance(Nested nested) {
+        nested.instance.activeStateConfiguration(nested.configuration);
+        return nested.instance;
+    }
+
+    @Benchmark
+    public List<String> activeConfigurationNested(Nested nested) {
+        return nested.stateMachine.getActiveStateConfiguration();
+    }
+
+    @Benchmark
+    public List<String> activeConfigurationNestedInstance(Nested nested) {
+        return nested.instance.getActiveStateConfiguration();
+    }
+
+    @Benchmark
+    public String toDotNested(Nested nested) {
+        return nested.stateMachine.toDot(true);
+    }
+}
@@ -0,0 +1,137 @@
+package org.nextstate.statemachine;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.nextstate.statemachine.ATMStateMachine.*;
+import org.nextstate.statemachine.PhoneStateMachine.*;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link StateMachine#execute(Event)} and {@link MachineInstance#execute(Event)}, interpreted and compiled by
+ * {@link MachineCompiler}, and the batched executeAll, on the Phone and ATM State Machines from the tests. Each invocation runs a cycle of events back to the initial state, results are per event.
+ * <br>
+ * The Phone actions print to System.out, which is replaced by a discarding stream during the benchmark.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecuteBenchmark {
+    private static final Event[] PHONE_CYCLE = {new CallDialed(), new CallConnected(), new PlacedOnHold(),
+            new TookOffHold(), new MessageLeft(), new CallDialed(), new HungUp(), new HungUp()};
+    private static final Event[] ATM_CYCLE = {new TurnedOn(), new TestedOk(), new CardInserted(),
+            new Authenticated(), new TransactionSelected(), new CardInserted(), new Canceled(), new TurnedOff()};
+
+    private final PrintStream out = System.out;
+
+    private StateMachine phone;
+    private MachineInstance phoneInstance;
+    private MachineInstance compiledPhoneInstance;
+    private StateMachine atm;
+    private MachineInstance atmInstance;
+    private MachineInstance compiledAtmInstance;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write(int b) {
+            }
+
+            @Override public void write(byte[] b, int off, int len) {
+            }
+        }));
+        phone = new PhoneStateMachine();
+        phoneInstance = MachineDefinition.of(new PhoneStateMachine()).newInstance();
+        atm = new ATMStateMachine();
+        compiledPhoneInstance = MachineCompiler.compile(new PhoneStateMachine()).newInstance();
+        atmInstance = MachineDefinition.of(new ATMStateMachine()).newInstance();
+        compiledAtmInstance = MachineCompiler.compile(new ATMStateMachine()).newInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public StateMachine phoneStateMachine() {
+        for (Event event : PHONE_CYCLE) {
+            phone.execute(event);
+        }
+        return phone;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public MachineInstance phoneMachineInstance() {
+        for (Event event : PHONE_CYCLE) {
+            phoneInstance.execute(event);
+        }
+        return phoneInstance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public MachineInstance phoneCompiledInstance() {
+        for (Event event : PHONE_CYCLE) {
+            compiledPhoneInstance.execute(event);
+        }
+        return compiledPhoneInstance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public StateMachine atmStateMachine() {
+        for (Event event : ATM_CYCLE) {
+            atm.execute(event);
+        }
+        return atm;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public MachineInstance atmMachineInstance() {
+        for (Event event : ATM_CYCLE) {
+            atmInstance.execute(event);
+        }
+        return atmInstance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public MachineInstance atmCompiledInstance() {
+        for (Event event : ATM_CYCLE) {
+            compiledAtmInstance.execute(event);
+        }
+        return compiledAtmInstance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public BatchResult atmStateMachineBatch() {
+        return atm.executeAll(ATM_CYCLE, 0, ATM_CYCLE.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public BatchResult atmMachineInstanceBatch() {
+        return atmInstance.executeAll(ATM_CYCLE, 0, ATM_CYCLE.length);
+    }
+}
@@ -0,0 +1,84 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a State Machine of Composite States of ten states each from its textual definition, parsed or from the
+ * binary cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MachineLoaderBenchmark {
+    @Param({"100", "1000"})
+    int states;
+
+    MachineLoader loader;
+    Path directory;
+    Path source;
+    Path cache;
+
+    @Setup
+    public void setUp() throws IOException {
+        loader = MachineLoader.machineLoader().action("log", () -> { }).build();
+        directory = Files.createTempDirectory("machine-loader");
+        source = directory.resolve("generated.machine");
+        cache = directory.resolve("generated.machine.bin");
+        Files.write(source, definition(states / 10).getBytes(StandardCharsets.UTF_8));
+        loader.load(source, cache);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(cache);
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public StateMachine parse() {
+        return loader.load(source);
+    }
+
+    @Benchmark
+    public StateMachine cached() {
+        return loader.load(source, cache);
+    }
+
+    private static String definition(int composites) {
+        StringBuilder sb = new StringBuilder("machine Generated\ninitial C0\n");
+        for (int c = 0; c < composites; c++) {
+            sb.append("composite C").append(c).append("\n  initial S").append(c).append("_0\n  states");
+            for (int s = 0; s < 9; s++) {
+                sb.append(" S").append(c).append('_').append(s);
+            }
+            sb.append("\n  transition Next on Next to C").append((c + 1) % composites).append('\n');
+            for (int s = 0; s < 9; s++) {
+                sb.append("state S").append(c).append('_').append(s).append("\n  onEntry log\n");
+                sb.append("  transition Step on Step to S").append(c).append('_').append((s + 1) % 9)
+                        .append(" onTransition log\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State Machine of nested Composite States used by the benchmarks.
+ * <br>
+ * Every Composite State has fanOut inner states. The first inner state is the next Composite State, the others are
+ * simple states. The innermost Composite State holds a ring of fanOut simple states, moving to the next one on
+ * {@link #NEXT}. Every Composite State also has a transition on {@link #LEAVE} to check on the way up, to the next
+ * state of its level, or to itself when it is the only one. The simple states of a level are reached from the
+ * Composite State one after the other on {@link #SIDEWAYS}, so the State Machine can be sealed.
+ */
+class NestedStateMachine extends StateMachine {
+    static final String NEXT = "Next";
+    static final String LEAVE = "Leave";
+    static final String SIDEWAYS = "Sideways";
+
+    private final List<String> innermostConfiguration = new ArrayList<>();
+
+    NestedStateMachine(int depth, int fanOut) {
+        State outside = state("Outside").build();
+        State top = composite(0, depth, fanOut, outside);
+
+        addStates(asList(top, outside));
+        activeState(top);
+        validate();
+    }
+
+    /**
+     * @return names of the active states with the first state of the ring active
+     */
+    List<String> innermostConfiguration() {
+        return Collections.unmodifiableList(innermostConfiguration);
+    }
+
+    /**
+     * @param leaveTarget state of the same level the Composite State leaves to, or null to leave to itself
+     */
+    private State composite(int level, int depth, int fanOut, State leaveTarget) {
+        String name = "Composite" + level;
+        innermostConfiguration.add(name);
+
+        List<State> inner = new ArrayList<>();
+        if (level == depth - 1) {
+            inner.addAll(ring(level, fanOut));
+            innermostConfiguration.add(inner.get(0).getName());
+        } else {
+            List<State> sideways = new ArrayList<>();
+            for (int i = 1; i < fanOut; i++) {
+                sideways.add(state(name + "_" + i).build());
+            }
+            inner.add(composite(level + 1, depth, fanOut, sideways.isEmpty() ? null : sideways.get(0)));
+            for (State state : sideways) {
+                ((AbstractState) inner.get(inner.size() - 1)).addTransition(new Transition(SIDEWAYS, null, state,
+                        SIDEWAYS, null));
+                inner.add(state);
+            }
+        }
+        AbstractState composite = (AbstractState) compositeState(name)
+                .initialTransition(singleTransition("Initialize").to(inner.get(0)))
+                .internalStates(inner)
+                .build();
+        composite.addTransition(new Transition(LEAVE, null, leaveTarget == null ? composite : leaveTarget, LEAVE,
+                null));
+        return composite;
+    }
+
+    private static List<State> ring(int level, int fanOut) {
+        List<SimpleState> ring = new ArrayList<>();
+        for (int i = 0; i < fanOut; i++) {
+            ring.add(state("Leaf" + level + "_" + i).build());
+        }
+        for (int i = 0; i < fanOut; i++) {
+            ring.get(i).addTransitions(Transition.transitions()
+                    .transition(NEXT).on(NEXT)
+                    .to(ring.get((i + 1) % fanOut))
+                    .build());
+        }
+        return new ArrayList<>(ring);
+    }
+}
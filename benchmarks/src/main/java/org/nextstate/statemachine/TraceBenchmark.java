@@ -0,0 +1,88 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nextstate.statemachine.ATMStateMachine.*;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link StateMachine#execute(Event)} on the ATM State Machine not traced, traced to a sink consuming the records and
+ * traced to the logging sink with debug disabled, as configured for the benchmarks. Each invocation runs a cycle of
+ * events back to the initial state, results are per event.
+ * <br>
+ * {@link #eagerDebugMessage()} adds the debug messages built before the log level is checked, one per state given an
+ * event as logged before the trace hook, the cost no longer paid when not tracing.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(TraceBenchmark.class);
+    private static final Event[] ATM_CYCLE = {new TurnedOn(), new TestedOk(), new CardInserted(),
+            new Authenticated(), new TransactionSelected(), new CardInserted(), new Canceled(), new TurnedOff()};
+
+    private StateMachine notTraced;
+    private StateMachine traced;
+    private StateMachine logged;
+    private StateMachine eager;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        notTraced = new ATMStateMachine();
+        traced = new ATMStateMachine();
+        traced.trace(blackhole::consume);
+        logged = new ATMStateMachine();
+        logged.trace(Tracer.logging());
+        eager = new ATMStateMachine();
+        eager.trace(record -> log.debug("execute - " + record.getState().getName() + " event: "
+                + record.getEvent().getName() + (record.isTransition() ? " transition to state: "
+                + record.getTarget().getName() : " no transition match")));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public StateMachine notTraced() {
+        return cycle(notTraced);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public StateMachine traced() {
+        return cycle(traced);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public StateMachine loggingDebugDisabled() {
+        return cycle(logged);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public StateMachine eagerDebugMessage() {
+        return cycle(eager);
+    }
+
+    private static StateMachine cycle(StateMachine stateMachine) {
+        for (Event event : ATM_CYCLE) {
+            stateMachine.execute(event);
+        }
+        return stateMachine;
+    }
+}
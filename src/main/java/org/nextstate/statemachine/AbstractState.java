@@ -3,18 +3,24 @@ package org.nextstate.statemachine;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.stream.Collectors;
 
 public abstract class AbstractState implements State {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     protected Optional<Action> entry = Optional.empty();
     protected Optional<Action> exit = Optional.empty();
 
     protected final String name;
     protected final List<Transition> transitions = new ArrayList<>();
+    protected final List<EventType> deferredEvents = new ArrayList<>();
+    private TransitionTable transitionTable;
+    // Set by StateMachine#trace(Tracer), null when not traced
+    private Tracer tracer;
+    private StateMachine tracedStateMachine;
+    // Set by seal(), the transitions and deferred events can not change and the following are precomputed
+    private boolean sealed;
+    private boolean completesToFinalState;
+    private String dotId;
 
     public AbstractState(String name) {
         this.name = name;
@@ -25,11 +31,43 @@ public abstract class AbstractState implements State {
     }
 
     public void addTransition(Transition transition) {
+        checkNotSealed();
         this.transitions.add(transition);
+        this.transitionTable = null;
     }
 
     public void addTransitions(List<Transition> transitionList) {
+        checkNotSealed();
         this.transitions.addAll(transitionList);
+        this.transitionTable = null;
+    }
+
+    /**
+     * Defer the event while the state is active, see {@link MachineInstance#getDeferredCount()}.
+     */
+    public void defer(String event) {
+        checkNotSealed();
+        EventType type = EventType.of(event);
+        if (!deferredEvents.contains(type)) {
+            deferredEvents.add(type);
+        }
+    }
+
+    /**
+     * @return names of the events deferred while the state is active
+     */
+    public List<String> getDeferredEvents() {
+        return deferredEvents.stream().map(EventType::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * The index of the transitions is built on first use and rebuilt if transitions are added, built when sealed.
+     */
+    TransitionTable transitionTable() {
+        if (transitionTable == null || transitionTable.size() != transitions.size()) {
+            transitionTable = new TransitionTable(transitions);
+        }
+        return transitionTable;
     }
 
     @Override public void onEntry() {
@@ -41,40 +79,108 @@ public abstract class AbstractState implements State {
     }
 
     public Optional<State> stateTransition(Event event) {
+        return Optional.ofNullable(fireTransition(event));
+    }
 
-        Optional<Transition> matchedTransition = transitions.stream().filter(t -> t.guard.test(event))
-                .findFirst();
+    /**
+     * Same as {@link #stateTransition(Event)} without allocating.
+     *
+     * @param event the event
+     * @return target state of the matched transition or null if no transition match
+     */
+    protected State fireTransition(Event event) {
+        TransitionTable table = transitionTable();
+        int index = table.match(event);
+
+        if (index < 0) {
+            if (tracer != null) {
+                tracer.trace(new TraceRecord(tracedStateMachine, this, null, event, null));
+            }
+            return null;
+        }
 
-        log.debug("execute - {} event: {} ", name, event.getName(), (matchedTransition.isPresent() ?
-                " transition to state: " + matchedTransition.get().getTargetState().getName() :
-                " no transition match."));
+        Transition transition = table.get(index);
+        if (tracer != null) {
+            tracer.trace(new TraceRecord(tracedStateMachine, this, transition.getTargetState(), event,
+                    transition.getName()));
+        }
+        transition.onTransition.ifPresent(Action::perform);
+        return transition.getTargetState();
+    }
 
-        if (!matchedTransition.isPresent()) {
-            log.debug("execute - No transition match event: {} in state: {}", event.getName(), name);
-            return Optional.empty();
+    /**
+     * Same as {@link #fire(Event)}, counting the transitions taken by the event in the state and its inner states.
+     *
+     * @param taken the count is added to its first element
+     */
+    State fire(Event event, int[] taken) {
+        State target = fire(event);
+        if (target != null) {
+            taken[0]++;
         }
+        return target;
+    }
 
-        Transition transition = matchedTransition.get();
-        transition.onTransition.ifPresent(Action::perform);
-        return Optional.ofNullable(transition.getTargetState());
+    /**
+     * Same as {@link #fire(Event, int[])} for any state, one transition counted for a state of another package.
+     */
+    static State fire(State state, Event event, int[] taken) {
+        if (state instanceof AbstractState) {
+            return ((AbstractState) state).fire(event, taken);
+        }
+        State target = state.fire(event);
+        if (target != null) {
+            taken[0]++;
+        }
+        return target;
     }
 
-    public boolean transitionToFinalState() {
-        Optional<Transition> transition = transitions.stream().filter(
-                t -> t.guard.test(new Event(FinalState.FINAL_EVENT))).findFirst();
+    void trace(StateMachine stateMachine, Tracer tracer) {
+        this.tracedStateMachine = tracer == null ? null : stateMachine;
+        this.tracer = tracer;
+    }
 
-        if (transition.isPresent()) {
-            return (transition.get().getTargetState() instanceof FinalState);
+    /**
+     * Build the index of the transitions and precompute {@link #transitionToFinalState()} and the DOT identifier, then
+     * reject any change to the transitions. Called by {@link StateMachine#seal()}.
+     */
+    void seal() {
+        if (sealed) {
+            return;
         }
-        return false;
+        transitionTable = new TransitionTable(transitions);
+        completesToFinalState = matchFinalState();
+        dotId = dotId(name);
+        sealed = true;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    void checkNotSealed() {
+        if (sealed) {
+            throw new IllegalStateException("State " + name + " is sealed");
+        }
+    }
+
+    public boolean transitionToFinalState() {
+        return sealed ? completesToFinalState : matchFinalState();
+    }
+
+    private boolean matchFinalState() {
+        TransitionTable table = transitionTable();
+        int index = table.match(FinalState.FINAL);
+
+        return index >= 0 && table.get(index).getTargetState() instanceof FinalState;
     }
 
     @Override public void toDot(StringBuilder sb) {
 
         for (Transition t : transitions) {
-            sb.append(name.replaceAll("\\s+", "_"));
+            sb.append(dotId(this));
             sb.append(" -> ");
-            sb.append(t.getTargetState().getName().replaceAll("\\s+", "_"));
+            sb.append(dotId(t.getTargetState()));
             if (t.getName() != null) {
                 sb.append(" [label=\"");
                 sb.append(t.getName());
@@ -83,4 +189,19 @@ public abstract class AbstractState implements State {
             sb.append(System.lineSeparator());
         }
     }
+
+    /**
+     * @return the name of the state with the whitespace replaced, as identifier in the DOT graph, precomputed when
+     * sealed
+     */
+    static String dotId(State state) {
+        if (state instanceof AbstractState && ((AbstractState) state).sealed) {
+            return ((AbstractState) state).dotId;
+        }
+        return dotId(state.getName());
+    }
+
+    static String dotId(String name) {
+        return name.replaceAll("\\s+", "_");
+    }
 }
@@ -0,0 +1,65 @@
+package org.nextstate.statemachine;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of executing a sequence of events in one call, see {@link StateMachine#executeAll(Iterable)} and
+ * {@link MachineInstance#executeAll(Iterable)}.
+ */
+public final class BatchResult {
+    private final int processed;
+    private final long transitions;
+    private final int unhandled;
+    private final boolean stopped;
+    private final List<String> activeStateConfiguration;
+
+    BatchResult(int processed, long transitions, int unhandled, boolean stopped,
+            List<String> activeStateConfiguration) {
+        this.processed = processed;
+        this.transitions = transitions;
+        this.unhandled = unhandled;
+        this.stopped = stopped;
+        this.activeStateConfiguration = Collections.unmodifiableList(activeStateConfiguration);
+    }
+
+    /**
+     * @return number of events of the sequence processed, all of them unless stopped
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return number of transitions taken, at every nesting level and also for the events executed by actions
+     */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * @return number of events of the sequence that triggered no transition
+     */
+    public int getUnhandled() {
+        return unhandled;
+    }
+
+    /**
+     * @return true if processing stopped on an event that triggered no transition, the last one processed
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return the active state configuration after the last event processed
+     */
+    public List<String> getActiveStateConfiguration() {
+        return activeStateConfiguration;
+    }
+
+    @Override public String toString() {
+        return "processed " + processed + " events, " + transitions + " transitions, " + unhandled + " unhandled"
+                + (stopped ? ", stopped" : "") + " - " + activeStateConfiguration;
+    }
+}
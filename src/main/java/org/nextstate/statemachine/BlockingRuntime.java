@@ -0,0 +1,347 @@
+package org.nextstate.statemachine;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts machine instances of one {@link MachineDefinition}, keyed by id, for actions that block on I/O.
+ * <br>
+ * Each instance has a mailbox of submitted events, processed in order by one task at the time, so the events of an
+ * instance are never processed concurrently. A mailbox only exists while it has events, the instance is kept. The tasks run on virtual threads when the Java runtime has them, Java 21
+ * and later, so a blocked action does not hold an OS thread. On older runtimes they run on a fixed pool with one
+ * platform thread per concurrent instance.
+ * <br>
+ * The number of instances processing events at the same time is bounded, which also bounds the connections or files
+ * used by the actions.
+ * <pre>
+ * BlockingRuntime&lt;String&gt; orders = BlockingRuntime.&lt;String&gt;blockingRuntime(definition)
+ *         .maxConcurrentInstances(10_000).build();
+ * orders.submit(orderId, new OrderPlaced());
+ * </pre>
+ *
+ * @param <K> type of the instance ids
+ */
+public final class BlockingRuntime<K> implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BlockingRuntime.class);
+    private static final int DEFAULT_VIRTUAL_INSTANCES = 10_000;
+    private static final int DEFAULT_PLATFORM_THREADS_PER_CORE = 16;
+
+    private final MachineDefinition definition;
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int maxConcurrentInstances;
+    private final Semaphore permits;
+    private final int batchSize;
+    private final ConcurrentHashMap<K, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, MachineInstance> instances = new ConcurrentHashMap<>();
+    // Submits that may have seen the runtime running, closing waits for them
+    private final AtomicInteger submitting = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean running = true;
+
+    private BlockingRuntime(MachineDefinition definition, int maxConcurrentInstances, int batchSize,
+            boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? virtualThreadExecutor() : null;
+        this.virtual = virtualExecutor != null;
+        if (maxConcurrentInstances == 0) {
+            maxConcurrentInstances = virtual ? DEFAULT_VIRTUAL_INSTANCES :
+                    Runtime.getRuntime().availableProcessors() * DEFAULT_PLATFORM_THREADS_PER_CORE;
+        }
+
+        this.definition = definition;
+        this.maxConcurrentInstances = maxConcurrentInstances;
+        this.permits = new Semaphore(maxConcurrentInstances);
+        this.batchSize = batchSize;
+        this.executor = virtual ? virtualExecutor : platformThreadExecutor(definition.getName(),
+                maxConcurrentInstances);
+        log.debug("{} - running instances on {} threads", definition.getName(), virtual ? "virtual" : "platform");
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return true if the instances run on virtual threads, false if on a pool of platform threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Queue the event for the instance with the id, created on its first event.
+     *
+     * @throws IllegalStateException if the runtime is closed
+     */
+    public void submit(K id, Event event) {
+        add(id, event);
+    }
+
+    /**
+     * Get the active state configuration of the instance with the id, after the events submitted before.
+     *
+     * @return the configuration, empty if the instance has not received any event
+     */
+    public CompletableFuture<List<String>> getActiveStateConfiguration(K id) {
+        CompletableFuture<List<String>> configuration = new CompletableFuture<>();
+        add(id, configuration);
+        return configuration;
+    }
+
+    /**
+     * @return number of events processed, including failed ones
+     */
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * @return number of events where execute threw an exception
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return number of instances processing events now
+     */
+    public int getActiveInstances() {
+        return maxConcurrentInstances - permits.availablePermits();
+    }
+
+    /**
+     * @return number of instances with events not yet processed
+     */
+    int getMailboxes() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Stop accepting events and wait until the events already submitted are processed.
+     */
+    @Override public void close() {
+        running = false;
+        // Mailboxes reschedule themselves until empty and removed, so wait for them before shutting down the executor
+        try {
+            while (submitting.get() > 0 || !mailboxes.isEmpty()) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void add(K id, Object message) {
+        submitting.incrementAndGet();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Runtime is closed");
+            }
+            // A mailbox removed since it was looked up refuses the message, the next one is created
+            while (true) {
+                Mailbox mailbox = mailboxes.get(id);
+                if (mailbox == null) {
+                    mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
+                }
+                if (mailbox.add(message)) {
+                    return;
+                }
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Looked up by reflection since the build targets Java 8.
+     *
+     * @return executor starting a virtual thread per task, or null if the runtime has no virtual threads
+     */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // Preview feature not enabled on Java 19 and 20
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                return null;
+            }
+            throw new IllegalStateException("Failed to create virtual thread executor", e.getCause());
+        }
+    }
+
+    private static ExecutorService platformThreadExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, name + "-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Events and configuration queries of one instance. Scheduled on the executor while not empty, by at most one task
+     * at the time, and removed once empty.
+     */
+    private final class Mailbox implements Runnable {
+        private final K id;
+        private final Queue<Object> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Guarded by this
+        private boolean removed;
+        private MachineInstance instance;
+
+        Mailbox(K id) {
+            this.id = id;
+        }
+
+        /**
+         * @return false if the mailbox is removed
+         */
+        boolean add(Object message) {
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                messages.add(message);
+            }
+            schedule();
+            return true;
+        }
+
+        private void schedule() {
+            if (!messages.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override public void run() {
+            permits.acquireUninterruptibly();
+            try {
+                // Let other instances have the permit after a batch
+                for (int i = 0; i < batchSize; i++) {
+                    Object message = messages.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    process(message);
+                }
+            } finally {
+                permits.release();
+            }
+            // Removed while still scheduled, so the next mailbox of the id cannot run before this one is done
+            synchronized (this) {
+                if (messages.isEmpty()) {
+                    removed = true;
+                    mailboxes.remove(id, this);
+                    return;
+                }
+            }
+            scheduled.set(false);
+            schedule();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void process(Object message) {
+            if (instance == null) {
+                instance = instances.get(id);
+            }
+            if (message instanceof CompletableFuture) {
+                ((CompletableFuture<List<String>>) message).complete(instance == null ?
+                        Collections.<String>emptyList() : instance.getActiveStateConfiguration());
+                return;
+            }
+            Event event = (Event) message;
+            try {
+                if (instance == null) {
+                    instance = definition.newInstance();
+                    instances.put(id, instance);
+                }
+                instance.execute(event);
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.warn("Failed to execute {} for {}", event.getName(), id, e);
+            }
+            processed.increment();
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static <K> BlockingRuntimeBuilder<K> blockingRuntime(MachineDefinition definition) {
+        return new BlockingRuntimeBuilder<>(definition);
+    }
+
+    public static <K> BlockingRuntimeBuilder<K> blockingRuntime(StateMachine stateMachine) {
+        return new BlockingRuntimeBuilder<>(MachineDefinition.of(stateMachine));
+    }
+
+    public static class BlockingRuntimeBuilder<K> {
+        private final MachineDefinition definition;
+        private int maxConcurrentInstances;
+        private int batchSize = 64;
+        private boolean virtualThreads = true;
+
+        BlockingRuntimeBuilder(MachineDefinition definition) {
+            this.definition = definition;
+        }
+
+        /**
+         * @param maxConcurrentInstances maximum number of instances processing events at the same time, and the size
+         *                               of the thread pool without virtual threads. By default 10 000 on virtual
+         *                               threads, else 16 per available processor.
+         */
+        public BlockingRuntimeBuilder<K> maxConcurrentInstances(int maxConcurrentInstances) {
+            if (maxConcurrentInstances < 1) {
+                throw new IllegalStateException("At least one concurrent instance is needed");
+            }
+            this.maxConcurrentInstances = maxConcurrentInstances;
+            return this;
+        }
+
+        /**
+         * @param batchSize maximum number of events processed for an instance before letting other instances run
+         */
+        public BlockingRuntimeBuilder<K> batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Use a pool of platform threads even if the runtime has virtual threads.
+         */
+        public BlockingRuntimeBuilder<K> platformThreads() {
+            this.virtualThreads = false;
+            return this;
+        }
+
+        public BlockingRuntime<K> build() {
+            if (batchSize < 1) {
+                throw new IllegalStateException("Batch size must be positive");
+            }
+            return new BlockingRuntime<>(definition, maxConcurrentInstances, batchSize, virtualThreads);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.nextstate.statemachine;
+
+/**
+ * Actions of the instances stepped by a {@link BulkEngine}, called once per state or transition with every instance
+ * it applies to rather than once per instance.
+ * <br>
+ * The instances are given as indexes in the engine, in increasing order, in the first {@code count} elements of an
+ * array reused for the next call: copy them to keep them. Called on the thread stepping the engine once all the
+ * instances have been stepped, so an implementation does not need to be thread safe. The actions of the
+ * {@link Transition}s and states, as performed by {@link MachineInstance}, are not performed.
+ */
+public interface BulkActions {
+
+    /**
+     * The transition was taken by the instances.
+     *
+     * @param source state the transition leaves
+     */
+    default void transitionTaken(State source, Transition transition, int[] instances, int count) {
+    }
+
+    /**
+     * The state was exited by the instances, as the source of a transition or as an active inner state of an exited
+     * Composite State, made inactive without exit action.
+     */
+    default void stateExited(State state, int[] instances, int count) {
+    }
+
+    /**
+     * The state was entered by the instances, as the target of a transition or as the initial inner state of an
+     * entered Composite State. Both a Composite State and its initial inner state are made active without entry
+     * action, as {@link CompositeState#onEntry()}.
+     */
+    default void stateEntered(State state, int[] instances, int count) {
+    }
+}
@@ -0,0 +1,527 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a large number of instances of one {@link MachineDefinition} together, each given its own event, in parallel
+ * on a {@link ForkJoinPool}.
+ * <br>
+ * The active state configurations are kept in primitive arrays, one array of state ordinals per nesting level indexed
+ * by instance, instead of a {@link MachineInstance} per instance. The instances are stepped in batches of consecutive
+ * indexes, a batch by one task, with the same semantics as {@link StateMachine#execute(Event)}. The guards are tested
+ * for each instance and must be thread safe. The actions are not performed per instance, the exits, transitions and
+ * entries of a step are given to the {@link BulkActions} once each, with every instance they apply to in all the
+ * batches, once the step is done.
+ * <br>
+ * The instances start in the initial active state configuration of the definition, without entry action. The
+ * listener of the definition is not notified and no timer is armed: timeout events can be given as any other event.
+ * Deferred events are not supported.
+ * <br>
+ * A step is not atomic. If a guard throws for an instance, the instance keeps the changes made before, as
+ * {@link StateMachine#execute(Event)} keeps the inner transitions taken before the guard of a Composite State throws,
+ * and every other instance is stepped. The actions of all the changes made are delivered, then the exception of the
+ * first failing instance is thrown, with the others suppressed.
+ * <pre>
+ * BulkEngine sessions = BulkEngine.bulkEngine(phone).instances(1_000_000).actions(billing).build();
+ * for (Event[] events : simulation) {
+ *     sessions.step(events);
+ * }
+ * </pre>
+ */
+public final class BulkEngine {
+    private final MachineDefinition definition;
+    private final int count;
+    private final int batchSize;
+    private final ForkJoinPool pool;
+    private final BulkActions actions;
+
+    // Indexed by state ordinal, copied from the definition
+    private final State[] states;
+    private final boolean[] composite;
+    private final int[] initialInnerState;
+    private final boolean[] completesToFinalState;
+    private final TransitionTable[] transitions;
+    private final int[][] transitionTargets;
+    // Action code of the first transition of each state, exits and entries are coded after the transitions
+    private final int[] transitionCodes;
+    private final Transition[] transitionsByCode;
+    private final State[] sourcesByCode;
+
+    // State ordinal of each instance at each level, and nesting depth of each instance
+    private final int[][] levels;
+    private final int[] depths;
+
+    private BulkEngine(MachineDefinition definition, int count, int batchSize, ForkJoinPool pool,
+            BulkActions actions) {
+        this.definition = definition;
+        this.count = count;
+        this.batchSize = batchSize;
+        this.pool = pool;
+        this.actions = actions;
+
+        int stateCount = definition.stateCount();
+        this.states = new State[stateCount];
+        this.composite = new boolean[stateCount];
+        this.initialInnerState = new int[stateCount];
+        this.completesToFinalState = new boolean[stateCount];
+        this.transitions = new TransitionTable[stateCount];
+        this.transitionTargets = new int[stateCount][];
+        this.transitionCodes = new int[stateCount];
+        List<Transition> transitionList = new ArrayList<>();
+        List<State> sourceList = new ArrayList<>();
+        for (int ordinal = 0; ordinal < stateCount; ordinal++) {
+            states[ordinal] = definition.state(ordinal);
+            composite[ordinal] = definition.isComposite(ordinal);
+            initialInnerState[ordinal] = definition.initialInnerState(ordinal);
+            completesToFinalState[ordinal] = definition.completesToFinalState(ordinal);
+            transitions[ordinal] = definition.transitionTable(ordinal);
+            transitionTargets[ordinal] = new int[transitions[ordinal].size()];
+            transitionCodes[ordinal] = transitionList.size();
+            for (int index = 0; index < transitions[ordinal].size(); index++) {
+                transitionTargets[ordinal][index] = definition.transitionTarget(ordinal, index);
+                transitionList.add(transitions[ordinal].get(index));
+                sourceList.add(states[ordinal]);
+            }
+        }
+        this.transitionsByCode = transitionList.toArray(new Transition[transitionList.size()]);
+        this.sourcesByCode = sourceList.toArray(new State[sourceList.size()]);
+
+        this.levels = new int[definition.maxDepth()][count];
+        this.depths = new int[count];
+        reset();
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return number of instances
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Set every instance back to the initial active state configuration of the definition, without performing any
+     * action.
+     */
+    public void reset() {
+        int level = 0;
+        int state = definition.initialState();
+        while (true) {
+            Arrays.fill(levels[level], state);
+            if (!composite[state]) {
+                break;
+            }
+            state = initialInnerState[state];
+            if (state < 0) {
+                throw new IllegalStateException("No initial transition in Composite State: "
+                        + states[levels[level][0]].getName());
+            }
+            level++;
+        }
+        Arrays.fill(depths, level + 1);
+    }
+
+    /**
+     * Give each instance its event.
+     *
+     * @param events the event of each instance by index, null for an instance not given any event
+     * @return number of transitions taken by the instances, inner ones included
+     * @throws IllegalStateException if there is not one event per instance
+     * @throws RuntimeException      thrown by a guard, once the other instances are stepped and the actions delivered
+     */
+    public long step(Event[] events) {
+        if (events.length != count) {
+            throw new IllegalStateException("Expected " + count + " events, one per instance, but got "
+                    + events.length);
+        }
+        return step(events, null);
+    }
+
+    /**
+     * Give the event to every instance.
+     *
+     * @return number of transitions taken by the instances, inner ones included
+     * @throws RuntimeException thrown by a guard, once the other instances are stepped and the actions delivered
+     */
+    public long step(Event event) {
+        return step(null, event);
+    }
+
+    private long step(Event[] events, Event event) {
+        int batches = (count + batchSize - 1) / batchSize;
+        Batch[] stepped = new Batch[batches];
+        if (pool == null || batches <= 1) {
+            for (int batch = 0; batch < batches; batch++) {
+                stepped[batch] = step(events, event, batch);
+            }
+        } else {
+            pool.invoke(new StepTask(events, event, stepped, 0, batches));
+        }
+
+        long taken = 0;
+        RuntimeException failure = null;
+        for (Batch batch : stepped) {
+            taken += batch.taken;
+            if (failure == null) {
+                failure = batch.failure;
+            } else if (batch.failure != null) {
+                failure.addSuppressed(batch.failure);
+            }
+        }
+        if (actions != null) {
+            deliver(stepped);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return taken;
+    }
+
+    private Batch step(Event[] events, Event event, int batch) {
+        Batch stepped = new Batch(actions != null);
+        int to = Math.min(count, (batch + 1) * batchSize);
+        for (int instance = batch * batchSize; instance < to; instance++) {
+            Event instanceEvent = events == null ? event : events[instance];
+            if (instanceEvent != null) {
+                try {
+                    step(instance, instanceEvent, stepped);
+                } catch (RuntimeException e) {
+                    // Kept to throw once every instance is stepped, an exception would cancel the other batches
+                    stepped.fail(e);
+                }
+            }
+        }
+        return stepped;
+    }
+
+    // =================
+    //      Execution
+    // =================
+    // Same steps as the definition executing a MachineInstance, on the arrays of the instance
+
+    private void step(int instance, Event event, Batch batch) {
+        int target = dispatch(instance, 0, event, batch);
+        if (target >= 0) {
+            batch.taken++;
+            exit(instance, 0, batch);
+            enter(instance, 0, target, batch);
+        }
+    }
+
+    private int dispatch(int instance, int level, Event event, Batch batch) {
+        int state = levels[level][instance];
+        if (composite[state]) {
+            int target = dispatch(instance, level + 1, event, batch);
+            if (target >= 0) {
+                batch.taken++;
+                exit(instance, level + 1, batch);
+                enter(instance, level + 1, target, batch);
+
+                // If next state is of type Final State then execute the final transition on the Composite State.
+                if (completesToFinalState[target]) {
+                    return transition(instance, state, FinalState.FINAL, batch);
+                }
+            }
+        }
+        return transition(instance, state, event, batch);
+    }
+
+    private int transition(int instance, int state, Event event, Batch batch) {
+        int index = transitions[state].match(event);
+        if (index < 0) {
+            return -1;
+        }
+        if (batch.recording) {
+            batch.record(transitionCodes[state] + index, instance);
+        }
+        return transitionTargets[state][index];
+    }
+
+    /**
+     * Make the state active at the level. A Composite State does not perform its entry action but sets the target of
+     * its initial transition as inner active state, as {@link CompositeState#onEntry()}, without entry action either.
+     * Every state made active is reported as entered.
+     */
+    private void enter(int instance, int level, int state, Batch batch) {
+        while (true) {
+            levels[level][instance] = state;
+            if (batch.recording) {
+                batch.record(transitionsByCode.length + states.length + state, instance);
+            }
+            if (!composite[state]) {
+                depths[instance] = level + 1;
+                return;
+            }
+            int inner = initialInnerState[state];
+            if (inner < 0) {
+                throw new IllegalStateException("No initial transition in Composite State: " + states[state].getName());
+            }
+            state = inner;
+            level++;
+        }
+    }
+
+    /**
+     * Report the active state at the level as exited, after its active inner states, innermost first, deactivated
+     * without exit action.
+     */
+    private void exit(int instance, int level, Batch batch) {
+        if (batch.recording) {
+            for (int inner = depths[instance] - 1; inner >= level; inner--) {
+                batch.record(transitionsByCode.length + levels[inner][instance], instance);
+            }
+        }
+    }
+
+    // =================
+    //      Actions
+    // =================
+    /**
+     * Give the actions of all the batches to the callbacks, once per code with every instance it applies to, grouped
+     * with a counting sort keeping the instances in order: the transitions, then the exits, then the entries.
+     */
+    private void deliver(Batch[] batches) {
+        int codes = transitionsByCode.length + 2 * states.length;
+        int[] next = new int[codes];
+        int size = 0;
+        for (Batch batch : batches) {
+            for (int code = 0; code < codes; code++) {
+                next[code] += batch.counts[code];
+            }
+            size += batch.size;
+        }
+        int offset = 0;
+        for (int code = 0; code < codes; code++) {
+            int instanceCount = next[code];
+            next[code] = offset;
+            offset += instanceCount;
+        }
+        // The batches hold consecutive instances, in order
+        int[] sorted = new int[size];
+        for (Batch batch : batches) {
+            for (int i = 0; i < batch.size; i++) {
+                sorted[next[batch.codes[i]]++] = batch.instances[i];
+            }
+        }
+
+        int[] instances = new int[0];
+        offset = 0;
+        for (int code = 0; code < codes; code++) {
+            int instanceCount = next[code] - offset;
+            if (instanceCount > 0) {
+                if (instances.length < instanceCount) {
+                    instances = new int[instanceCount];
+                }
+                System.arraycopy(sorted, offset, instances, 0, instanceCount);
+                deliver(code, instances, instanceCount);
+                offset += instanceCount;
+            }
+        }
+    }
+
+    private void deliver(int code, int[] instances, int instanceCount) {
+        if (code < transitionsByCode.length) {
+            actions.transitionTaken(sourcesByCode[code], transitionsByCode[code], instances, instanceCount);
+        } else if (code < transitionsByCode.length + states.length) {
+            actions.stateExited(states[code - transitionsByCode.length], instances, instanceCount);
+        } else {
+            actions.stateEntered(states[code - transitionsByCode.length - states.length], instances, instanceCount);
+        }
+    }
+
+    /**
+     * Transitions taken by the instances of one batch, and if recording the code of each action with its instance in
+     * the order taken, and the number of actions of each code. The exception of the first failing instance, with the
+     * others suppressed.
+     */
+    private final class Batch {
+        private final boolean recording;
+        private long taken;
+        private RuntimeException failure;
+        private int[] codes;
+        private int[] instances;
+        private int[] counts;
+        private int size;
+
+        Batch(boolean recording) {
+            this.recording = recording;
+            if (recording) {
+                this.codes = new int[batchSize];
+                this.instances = new int[batchSize];
+                this.counts = new int[transitionsByCode.length + 2 * states.length];
+            }
+        }
+
+        void fail(RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+
+        void record(int code, int instance) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+                instances = Arrays.copyOf(instances, size * 2);
+            }
+            codes[size] = code;
+            instances[size++] = instance;
+            counts[code]++;
+        }
+    }
+
+    private final class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Event[] events;
+        private final Event event;
+        private final Batch[] stepped;
+        private final int from;
+        private final int to;
+
+        StepTask(Event[] events, Event event, Batch[] stepped, int from, int to) {
+            this.events = events;
+            this.event = event;
+            this.stepped = stepped;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected void compute() {
+            if (to - from == 1) {
+                stepped[from] = step(events, event, from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StepTask(events, event, stepped, from, middle),
+                        new StepTask(events, event, stepped, middle, to));
+            }
+        }
+    }
+
+    // ===========================
+    //      Active configuration
+    // ===========================
+    /**
+     * @return the active state configuration of the instance, as {@link MachineInstance#getActiveStateConfiguration()}
+     */
+    public List<String> getActiveStateConfiguration(int instance) {
+        checkInstance(instance);
+        List<String> configuration = new ArrayList<>(depths[instance]);
+        for (int level = 0; level < depths[instance]; level++) {
+            configuration.add(states[levels[level][instance]].getName());
+        }
+        return configuration;
+    }
+
+    /**
+     * @return number of instances with the state in their active state configuration
+     */
+    public int countIn(State state) {
+        int counted = 0;
+        for (int level = 0; level < levels.length; level++) {
+            int[] ordinals = levels[level];
+            for (int instance = 0; instance < count; instance++) {
+                if (level < depths[instance] && states[ordinals[instance]] == state) {
+                    counted++;
+                }
+            }
+        }
+        return counted;
+    }
+
+    /**
+     * @return a new {@link MachineInstance} of the definition in the active state configuration of the instance
+     */
+    public MachineInstance toInstance(int instance) {
+        checkInstance(instance);
+        MachineInstance machineInstance = new MachineInstance(definition, definition.maxDepth());
+        for (int level = 0; level < depths[instance]; level++) {
+            machineInstance.activate(level, levels[level][instance]);
+        }
+        return machineInstance;
+    }
+
+    private void checkInstance(int instance) {
+        if (instance < 0 || instance >= count) {
+            throw new IllegalStateException("No instance " + instance + " in " + count + " instances");
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static BulkEngineBuilder bulkEngine(MachineDefinition definition) {
+        return new BulkEngineBuilder(definition);
+    }
+
+    public static BulkEngineBuilder bulkEngine(StateMachine stateMachine) {
+        return new BulkEngineBuilder(MachineDefinition.of(stateMachine));
+    }
+
+    public static class BulkEngineBuilder {
+        private final MachineDefinition definition;
+        private int instances;
+        private int batchSize = 4096;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private BulkActions actions;
+
+        BulkEngineBuilder(MachineDefinition definition) {
+            this.definition = definition;
+        }
+
+        /**
+         * @param instances number of instances
+         */
+        public BulkEngineBuilder instances(int instances) {
+            this.instances = instances;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of consecutive instances stepped by one task
+         */
+        public BulkEngineBuilder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param pool pool stepping the batches in parallel, the common pool by default, null to step them on the
+         *             thread calling {@link BulkEngine#step(Event[])}
+         */
+        public BulkEngineBuilder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * @param actions given the exits, transitions and entries of the instances after each step
+         */
+        public BulkEngineBuilder actions(BulkActions actions) {
+            this.actions = actions;
+            return this;
+        }
+
+        public BulkEngine build() {
+            if (instances < 1) {
+                throw new IllegalStateException("Number of instances must be positive");
+            }
+            if (batchSize < 1) {
+                throw new IllegalStateException("Batch size must be positive");
+            }
+            if (definition.hasDeferredEvents()) {
+                throw new IllegalStateException("Deferred events are not supported by the bulk engine: "
+                        + definition.getName());
+            }
+            return new BulkEngine(definition, instances, batchSize, pool, actions);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.nextstate.statemachine;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Restores many instances of one {@link MachineDefinition} at once from persisted active state configurations, in
+ * parallel on a {@link ForkJoinPool}.
+ * <br>
+ * The names in a configuration are resolved through the index of the states by name among the states of each parent,
+ * built once with the definition, as {@link MachineInstance#activeStateConfiguration(List)}. By default no action is
+ * performed, the instances have performed their entry actions before they were persisted. Instances can instead be
+ * entered fresh, performing the entry action of the simple state at the end of each configuration as a transition to
+ * it would.
+ * <pre>
+ * BulkRestore.Result sessions = BulkRestore.bulkRestore(phone).build().restore(stored);
+ * log.info("{}", sessions);
+ * </pre>
+ */
+public final class BulkRestore {
+    private static final Logger log = LoggerFactory.getLogger(BulkRestore.class);
+
+    private final MachineDefinition definition;
+    private final int parallelism;
+    private final int batchSize;
+    private final boolean entryActions;
+
+    private BulkRestore(MachineDefinition definition, int parallelism, int batchSize, boolean entryActions) {
+        this.definition = definition;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.entryActions = entryActions;
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Create an instance for each configuration.
+     *
+     * @param configurations the active state configurations, as got from the instances before
+     * @return the instances in the order of the configurations
+     * @throws IllegalStateException if a configuration does not match the definition
+     */
+    public Result restore(List<? extends List<String>> configurations) {
+        long start = System.nanoTime();
+        MachineInstance[] instances = new MachineInstance[configurations.size()];
+        if (parallelism == 1 || instances.length <= batchSize) {
+            restore(configurations, instances, 0, instances.length);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new RestoreTask(configurations, instances, 0, instances.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        Result result = new Result(instances, System.nanoTime() - start);
+        log.debug("{} - {}", definition.getName(), result);
+        return result;
+    }
+
+    private void restore(List<? extends List<String>> configurations, MachineInstance[] instances, int from, int to) {
+        for (int i = from; i < to; i++) {
+            MachineInstance instance = new MachineInstance(definition, definition.maxDepth());
+            try {
+                definition.activeStateConfiguration(instance, configurations.get(i), entryActions);
+            } catch (IllegalStateException e) {
+                throw new IllegalStateException("Configuration " + i + " " + configurations.get(i) + ": "
+                        + e.getMessage(), e);
+            }
+            instances[i] = instance;
+        }
+    }
+
+    private final class RestoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends List<String>> configurations;
+        private final MachineInstance[] instances;
+        private final int from;
+        private final int to;
+
+        RestoreTask(List<? extends List<String>> configurations, MachineInstance[] instances, int from, int to) {
+            this.configurations = configurations;
+            this.instances = instances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected void compute() {
+            if (to - from <= batchSize) {
+                restore(configurations, instances, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RestoreTask(configurations, instances, from, middle),
+                        new RestoreTask(configurations, instances, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Restored instances, and how long restoring them took.
+     */
+    public static final class Result {
+        private final List<MachineInstance> instances;
+        private final long elapsedNanos;
+
+        private Result(MachineInstance[] instances, long elapsedNanos) {
+            this.instances = Collections.unmodifiableList(Arrays.asList(instances));
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the instances in the order of the configurations
+         */
+        public List<MachineInstance> getInstances() {
+            return instances;
+        }
+
+        public int getCount() {
+            return instances.size();
+        }
+
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+
+        @Override public String toString() {
+            return "restored " + instances.size() + " instances in " + elapsedNanos / 1_000_000 + " ms";
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static BulkRestoreBuilder bulkRestore(MachineDefinition definition) {
+        return new BulkRestoreBuilder(definition);
+    }
+
+    public static BulkRestoreBuilder bulkRestore(StateMachine stateMachine) {
+        return new BulkRestoreBuilder(MachineDefinition.of(stateMachine));
+    }
+
+    public static class BulkRestoreBuilder {
+        private final MachineDefinition definition;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 4096;
+        private boolean entryActions;
+
+        BulkRestoreBuilder(MachineDefinition definition) {
+            this.definition = definition;
+        }
+
+        /**
+         * @param parallelism number of threads restoring, by default the number of available processors
+         */
+        public BulkRestoreBuilder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of instances restored by one task
+         */
+        public BulkRestoreBuilder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param entryActions true to enter the instances fresh, performing the entry action of the state at the end
+         *                     of each configuration, false by default to restore them without performing any action
+         */
+        public BulkRestoreBuilder entryActions(boolean entryActions) {
+            this.entryActions = entryActions;
+            return this;
+        }
+
+        public BulkRestore build() {
+            if (parallelism < 1) {
+                throw new IllegalStateException("Parallelism must be positive");
+            }
+            if (batchSize < 1) {
+                throw new IllegalStateException("Batch size must be positive");
+            }
+            return new BulkRestore(definition, parallelism, batchSize, entryActions);
+        }
+    }
+}
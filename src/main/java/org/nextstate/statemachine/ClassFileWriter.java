@@ -0,0 +1,389 @@
+package org.nextstate.statemachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Minimal class file writer for the classes generated by {@link MachineCompiler}. Supports only what the generated
+ * code needs: static fields, methods with int and reference locals, field access, method calls, branches and switches.
+ * <br>
+ * Writes class file version 49, which is verified without stack map frames.
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_PROTECTED = 0x0004;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ConstantPool constantPool = new ConstantPool();
+    private final String className;
+    private final String superName;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFileWriter(String className, String superName) {
+        this.className = className;
+        this.superName = superName;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    void field(int access, String name, String descriptor) {
+        Bytes field = new Bytes();
+        field.u2(access);
+        field.u2(constantPool.utf8(name));
+        field.u2(constantPool.utf8(descriptor));
+        field.u2(0);
+        fields.add(field.toByteArray());
+    }
+
+    Code method(int access, String name, String descriptor, int maxLocals) {
+        return new Code(access, name, descriptor, maxLocals);
+    }
+
+    byte[] toByteArray() {
+        Bytes classFile = new Bytes();
+        classFile.u4(0xCAFEBABE);
+        classFile.u2(0);
+        classFile.u2(VERSION);
+
+        int thisClass = constantPool.classRef(className);
+        int superClass = constantPool.classRef(superName);
+        constantPool.writeTo(classFile);
+
+        classFile.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        classFile.u2(thisClass);
+        classFile.u2(superClass);
+        classFile.u2(0);
+        classFile.u2(fields.size());
+        fields.forEach(classFile::bytes);
+        classFile.u2(methods.size());
+        methods.forEach(classFile::bytes);
+        classFile.u2(0);
+        return classFile.toByteArray();
+    }
+
+    static final class Label {
+        private int position = -1;
+        private final List<int[]> references = new ArrayList<>();
+    }
+
+    /**
+     * Byte code of one method. Call {@link #end()} when done to add the method to the class.
+     */
+    final class Code {
+        private static final int MAX_STACK = 4;
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final int maxLocals;
+        private final Bytes code = new Bytes();
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int access, String name, String descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        Code mark(Label label) {
+            label.position = code.size();
+            return this;
+        }
+
+        Code aload(int local) {
+            return op(0x19).u1(local);
+        }
+
+        Code astore(int local) {
+            return op(0x3a).u1(local);
+        }
+
+        Code iload(int local) {
+            return op(0x15).u1(local);
+        }
+
+        Code iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                return op(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                return op(0x10).u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                return op(0x11).u2(value);
+            }
+            return op(0x13).u2(constantPool.integer(value));
+        }
+
+        Code ishr() {
+            return op(0x7a);
+        }
+
+        Code aaload() {
+            return op(0x32);
+        }
+
+        Code ireturn() {
+            return op(0xac);
+        }
+
+        Code vreturn() {
+            return op(0xb1);
+        }
+
+        Code checkcast(String type) {
+            return op(0xc0).u2(constantPool.classRef(type));
+        }
+
+        Code getstatic(String owner, String field, String descriptor) {
+            return op(0xb2).u2(constantPool.member(9, owner, field, descriptor));
+        }
+
+        Code putstatic(String owner, String field, String descriptor) {
+            return op(0xb3).u2(constantPool.member(9, owner, field, descriptor));
+        }
+
+        Code invokevirtual(String owner, String method, String descriptor) {
+            return op(0xb6).u2(constantPool.member(10, owner, method, descriptor));
+        }
+
+        Code invokespecial(String owner, String method, String descriptor) {
+            return op(0xb7).u2(constantPool.member(10, owner, method, descriptor));
+        }
+
+        Code invokestatic(String owner, String method, String descriptor) {
+            return op(0xb8).u2(constantPool.member(10, owner, method, descriptor));
+        }
+
+        Code invokeinterface(String owner, String method, String descriptor, int argumentSlots) {
+            return op(0xb9).u2(constantPool.member(11, owner, method, descriptor)).u1(argumentSlots + 1).u1(0);
+        }
+
+        Code ifeq(Label label) {
+            int position = code.size();
+            op(0x99);
+            return reference(label, position, 2);
+        }
+
+        Code tableswitch(int low, int high, Label defaultLabel, Label[] labels) {
+            int position = code.size();
+            op(0xaa);
+            pad();
+            reference(defaultLabel, position, 4);
+            code.u4(low);
+            code.u4(high);
+            for (Label label : labels) {
+                reference(label, position, 4);
+            }
+            return this;
+        }
+
+        Code lookupswitch(Label defaultLabel, int[] keys, Label[] labels) {
+            int position = code.size();
+            op(0xab);
+            pad();
+            reference(defaultLabel, position, 4);
+            code.u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                code.u4(keys[i]);
+                reference(labels[i], position, 4);
+            }
+            return this;
+        }
+
+        void end() {
+            byte[] bytes = code.toByteArray();
+            for (Label label : labels) {
+                if (label.position < 0 && !label.references.isEmpty()) {
+                    throw new IllegalStateException("Label not marked in method " + name);
+                }
+                for (int[] reference : label.references) {
+                    int offset = label.position - reference[0];
+                    if (reference[2] == 2) {
+                        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                            throw new IllegalStateException("Method too large: " + name);
+                        }
+                        bytes[reference[1]] = (byte) (offset >> 8);
+                        bytes[reference[1] + 1] = (byte) offset;
+                    } else {
+                        bytes[reference[1]] = (byte) (offset >> 24);
+                        bytes[reference[1] + 1] = (byte) (offset >> 16);
+                        bytes[reference[1] + 2] = (byte) (offset >> 8);
+                        bytes[reference[1] + 3] = (byte) offset;
+                    }
+                }
+            }
+            if (bytes.length > 65535) {
+                throw new IllegalStateException("Method too large: " + name);
+            }
+
+            Bytes method = new Bytes();
+            method.u2(access);
+            method.u2(constantPool.utf8(name));
+            method.u2(constantPool.utf8(descriptor));
+            method.u2(1);
+            method.u2(constantPool.utf8("Code"));
+            method.u4(12 + bytes.length);
+            method.u2(MAX_STACK);
+            method.u2(maxLocals);
+            method.u4(bytes.length);
+            method.bytes(bytes);
+            method.u2(0);
+            method.u2(0);
+            methods.add(method.toByteArray());
+        }
+
+        private Code reference(Label label, int instruction, int width) {
+            label.references.add(new int[]{instruction, code.size(), width});
+            if (width == 2) {
+                code.u2(0);
+            } else {
+                code.u4(0);
+            }
+            return this;
+        }
+
+        private void pad() {
+            while (code.size() % 4 != 0) {
+                code.u1(0);
+            }
+        }
+
+        private Code op(int opcode) {
+            code.u1(opcode);
+            return this;
+        }
+
+        private Code u1(int value) {
+            code.u1(value);
+            return this;
+        }
+
+        private Code u2(int value) {
+            code.u2(value);
+            return this;
+        }
+    }
+
+    private static final class ConstantPool {
+        private final Bytes entries = new Bytes();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, bytes -> {
+                bytes.u1(1);
+                bytes.utf(value);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, bytes -> {
+                bytes.u1(3);
+                bytes.u4(value);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, bytes -> {
+                bytes.u1(7);
+                bytes.u2(name);
+            });
+        }
+
+        int member(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, bytes -> {
+                bytes.u1(12);
+                bytes.u2(nameIndex);
+                bytes.u2(descriptorIndex);
+            });
+            return entry(tag + owner + "." + name + ":" + descriptor, bytes -> {
+                bytes.u1(tag);
+                bytes.u2(ownerIndex);
+                bytes.u2(nameAndType);
+            });
+        }
+
+        void writeTo(Bytes classFile) {
+            if (count > 65535) {
+                throw new IllegalStateException("Too many constants in generated class");
+            }
+            classFile.u2(count);
+            classFile.bytes(entries.toByteArray());
+        }
+
+        private int entry(String key, Consumer<Bytes> writer) {
+            Integer index = indexes.get(key);
+            if (index == null) {
+                writer.accept(entries);
+                index = count++;
+                indexes.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    private static final class Bytes {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+
+        void u1(int value) {
+            buffer.write(value);
+        }
+
+        void u2(int value) {
+            buffer.write(value >> 8);
+            buffer.write(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void utf(String value) {
+            try {
+                out.writeUTF(value);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void bytes(byte[] value) {
+            buffer.write(value, 0, value.length);
+        }
+
+        int size() {
+            return buffer.size();
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+}
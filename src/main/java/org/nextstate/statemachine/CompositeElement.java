@@ -18,14 +18,28 @@ public interface CompositeElement {
     default void activeStateConfiguration(ListIterator<String> configurationIterator) {
     }
 
+    /**
+     * @return the first of the states with the name, or null if none. Looked up in an index once sealed, see
+     * {@link StateMachine#seal()}.
+     */
+    default State getState(String name) {
+        for (State state : getStates()) {
+            if (name.equals(state.getName())) {
+                return state;
+            }
+        }
+        return null;
+    }
+
     default Optional<State> configureActiveState(ListIterator<String> configurationIterator, List<State> states) {
         String stateName = configurationIterator.next();
 
-        Optional<State> state = states.stream().filter(s -> stateName.equals(s.getName())).findFirst();
-        state.orElseThrow(() -> new IllegalStateException("No state named " + stateName
-                + " exists. Add all states to the StateMachine before setting active state configuration."));
-
-        State activeState = state.get();
+        State activeState = states == getStates() ? getState(stateName)
+                : states.stream().filter(s -> stateName.equals(s.getName())).findFirst().orElse(null);
+        if (activeState == null) {
+            throw new IllegalStateException("No state named " + stateName
+                    + " exists. Add all states to the StateMachine before setting active state configuration.");
+        }
 
         if (configurationIterator.hasNext()) {
             if (activeState instanceof CompositeElement) {
@@ -36,8 +50,8 @@ public interface CompositeElement {
                 throw new IllegalStateException(
                         "Current state is not Composite State but configuration element remains: " + nextStateName);
             }
-        } else if (activeState instanceof CompositeElement) {
-            // no more elements in configuration and current state is composite. Initial transition.
+        } else if (activeState instanceof CompositeElement || activeState instanceof OrthogonalState) {
+            // no more elements in configuration and current state is composite or orthogonal. Initial transitions.
             activeState.onEntry();
         }
         return Optional.ofNullable(activeState);
@@ -49,6 +63,8 @@ public interface CompositeElement {
      * level with DOT attrs compound:
      * See: http://www.graphviz.org/content/attrs#dcompound and
      * http://stackoverflow.com/questions/2012036/graphviz-how-to-connect-subgraphs
+     * <br>
+     * {@link DotExporter} draws the internal states as clusters.
      *
      * @return sting describing the state machine graph
      */
@@ -56,10 +72,10 @@ public interface CompositeElement {
         StringBuilder sb = new StringBuilder();
 
         sb.append("digraph ");
-        sb.append(getName().replaceAll("\\s+", "_"));
+        sb.append(AbstractState.dotId(getName()));
         sb.append(" { ");
         sb.append(System.lineSeparator());
-        sb.append(getActiveState().getName().replaceAll("\\s+", "_"));
+        sb.append(AbstractState.dotId(getActiveState()));
         sb.append("[label=\"");
         sb.append(getActiveState().getName());
         sb.append("\"");
@@ -72,7 +88,7 @@ public interface CompositeElement {
         getActiveState().toDot(sb);
 
         getStates().stream().filter(state -> state != getActiveState()).forEach(state -> {
-            sb.append(state.getName().replaceAll("\\s+", "_"));
+            sb.append(AbstractState.dotId(state));
             sb.append("[label=\"");
             sb.append(state.getName());
             sb.append("\"");
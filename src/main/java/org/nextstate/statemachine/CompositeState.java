@@ -1,8 +1,10 @@
 package org.nextstate.statemachine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -15,11 +17,14 @@ import org.slf4j.LoggerFactory;
  * is checked with a {@link org.nextstate.statemachine.FinalState#FINAL_EVENT} as a guard.
  */
 public class CompositeState extends AbstractState implements CompositeElement {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Logger log = LoggerFactory.getLogger(CompositeState.class);
 
     private State activeState;
-    private final List<State> states = new ArrayList<>();
+    private List<State> states = new ArrayList<>();
     private Transition initialTransition;
+    // Inner states by name, and this state followed by the targets of the nested initial transitions, set when sealed
+    private Map<String, State> stateIndex;
+    private State[] initialChain;
 
     private CompositeState(String name) {
         super(name);
@@ -33,6 +38,41 @@ public class CompositeState extends AbstractState implements CompositeElement {
         return activeState;
     }
 
+    Transition getInitialTransition() {
+        return initialTransition;
+    }
+
+    @Override public State getState(String name) {
+        return stateIndex != null ? stateIndex.get(name) : CompositeElement.super.getState(name);
+    }
+
+    /**
+     * Index the inner states by name and make them unmodifiable, once checked by {@link StateMachine#seal()}.
+     */
+    @Override void seal() {
+        if (isSealed()) {
+            return;
+        }
+        super.seal();
+        stateIndex = StateMachine.index(states);
+        states = Collections.unmodifiableList(states);
+        List<State> chain = new ArrayList<>();
+        State state = this;
+        while (state instanceof CompositeState && !chain.contains(state)) {
+            chain.add(state);
+            state = ((CompositeState) state).initialTransition.getTargetState();
+        }
+        chain.add(state);
+        initialChain = chain.toArray(new State[chain.size()]);
+    }
+
+    /**
+     * Set the inner active state without performing any action, as when the active state configuration is set.
+     */
+    void restoreActiveState(State state) {
+        this.activeState = state;
+    }
+
     @Override public void activeStateConfiguration(ListIterator<String> configurationIterator) {
 
         Optional<State> state = configureActiveState(configurationIterator, states);
@@ -43,38 +83,63 @@ public class CompositeState extends AbstractState implements CompositeElement {
     }
 
     @Override public void onEntry() {
-        log.debug("{} - onEntry. Setting active state: {}", name, initialTransition.getTargetState().getName());
+        if (initialChain != null) {
+            enterInitialChain();
+            return;
+        }
         activeState = initialTransition.getTargetState();
         if (activeState instanceof CompositeElement) {
             activeState.onEntry();
         }
     }
 
+    /**
+     * Same as {@link #onEntry()} once sealed, walking the precomputed targets of the nested initial transitions
+     * instead of entering each Composite State in turn.
+     */
+    private void enterInitialChain() {
+        State[] chain = initialChain;
+        int last = chain.length - 1;
+        for (int i = 0; i < last; i++) {
+            ((CompositeState) chain[i]).activeState = chain[i + 1];
+        }
+        if (chain[last] instanceof CompositeElement && !(chain[last] instanceof CompositeState)) {
+            chain[last].onEntry();
+        }
+    }
+
     @Override public Optional<State> execute(Event event) {
+        return Optional.ofNullable(fire(event));
+    }
+
+    @Override public State fire(Event event) {
+        return fire(event, new int[1]);
+    }
+
+    @Override State fire(Event event, int[] taken) {
         if (activeState == null) {
             throw new IllegalStateException("No internal active state in Composite State: " + name);
         }
-        log.debug("execute - {} - activeState: {} - event: {}", name, activeState.getName(), event.getName());
-
-        Optional<State> state = activeState.execute(event);
+        State state = fire(activeState, event, taken);
+        State target;
 
         // Check if new active state and execute exit on the old and onEntry on the new ...
-        if (state.isPresent()) {
+        if (state != null) {
             activeState.onExit();
-            activeState = state.get();
+            activeState = state;
             activeState.onEntry();
-            log.debug("execute - new active state: {}", activeState.getName());
-
-            // If next state is of type Final State then execute the final transition on the Composite State.
-            if (activeState.transitionToFinalState()) {
-                log.debug("execute - Transition from {} to final state", activeState.getName());
-
-                // Check final transition from the composite state...
-                return stateTransition(new Event(FinalState.FINAL_EVENT));
-            }
         }
-        // Or check transition from composite state with the event.
-        return stateTransition(event);
+        if (state != null && activeState.transitionToFinalState()) {
+            // If next state is of type Final State then check the final transition from the composite state...
+            target = fireTransition(FinalState.FINAL);
+        } else {
+            // Or check transition from composite state with the event.
+            target = fireTransition(event);
+        }
+        if (target != null) {
+            taken[0]++;
+        }
+        return target;
     }
 
     // =================
@@ -96,7 +161,7 @@ public class CompositeState extends AbstractState implements CompositeElement {
         public Transition.TransitionBuilder<CompositeStateBuilder> transition(String name) {
             // Add previous transition
             if (transitionBuilder != null) {
-                compositeState.transitions.add(transitionBuilder.build());
+                compositeState.addTransition(transitionBuilder.build());
             }
             transitionBuilder = Transition.transition(this, name);
             return transitionBuilder;
@@ -122,10 +187,21 @@ public class CompositeState extends AbstractState implements CompositeElement {
             return this;
         }
 
+        /**
+         * Defer the events while the state is active: an event not triggering a transition is kept by a
+         * {@link MachineInstance} and executed again once no active state defers it.
+         */
+        public CompositeStateBuilder defer(String... events) {
+            for (String event : events) {
+                compositeState.defer(event);
+            }
+            return this;
+        }
+
         public State build() {
             // Add current transition on build
             if (transitionBuilder != null) {
-                compositeState.transitions.add(transitionBuilder.build());
+                compositeState.addTransition(transitionBuilder.build());
             }
             return compositeState;
         }
@@ -0,0 +1,161 @@
+package org.nextstate.statemachine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread safe {@link MachineInstance}, executed from any thread without locks, with consistent reads of the active
+ * state configuration.
+ * <br>
+ * Writers hand over their events: every event is queued, and the thread that takes ownership of the instance by
+ * compare and set processes the queued events in order, to completion, until the queue is empty. A thread executing
+ * while another thread owns the instance returns at once, its event processed by the owner. Actions therefore run on
+ * one thread at the time, but not necessarily on the thread that executed the event, and an exception thrown by an
+ * action is thrown to the owner. Events still queued are then processed by the next execute.
+ * <br>
+ * Readers get an immutable {@link Snapshot} of the whole nested configuration, published after each event processed
+ * to completion that changed it, with an increasing version, and never wait for writers.
+ */
+public final class ConcurrentMachineInstance {
+    private static final Thread NO_OWNER = null;
+
+    private final MachineDefinition definition;
+    private final MachineInstance instance;
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Thread> owner = new AtomicReference<>(NO_OWNER);
+    private volatile Snapshot snapshot;
+
+    ConcurrentMachineInstance(MachineDefinition definition) {
+        this.definition = definition;
+        this.instance = definition.newInstance();
+        this.snapshot = new Snapshot(definition, 0, Arrays.copyOf(instance.configuration, instance.depth));
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Process the event on this thread, or hand it over to the thread processing events now.
+     *
+     * @param event the event
+     */
+    public void execute(Event event) {
+        pending.add(event);
+        drain();
+    }
+
+    /**
+     * Set the active state configuration, in order with the events executed before, see
+     * {@link MachineInstance#activeStateConfiguration(List)}.
+     */
+    public void activeStateConfiguration(List<String> activeStateConfiguration) {
+        pending.add(activeStateConfiguration);
+        drain();
+    }
+
+    /**
+     * @return the latest published active state configuration
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public List<String> getActiveStateConfiguration() {
+        return snapshot.getActiveStateConfiguration();
+    }
+
+    public String getActiveStateName() {
+        return snapshot.getActiveStateName();
+    }
+
+    /**
+     * Process the pending events while owning the instance. After releasing it, check again for events queued by
+     * threads that failed to take ownership just before the release.
+     */
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        Thread current = Thread.currentThread();
+        while (!pending.isEmpty() && owner.compareAndSet(NO_OWNER, current)) {
+            try {
+                Object message;
+                while ((message = pending.poll()) != null) {
+                    try {
+                        if (message instanceof Event) {
+                            instance.execute((Event) message);
+                        } else {
+                            instance.activeStateConfiguration((List<String>) message);
+                        }
+                    } finally {
+                        publish();
+                    }
+                }
+            } finally {
+                owner.set(NO_OWNER);
+            }
+        }
+    }
+
+    private void publish() {
+        Snapshot published = snapshot;
+        if (!published.hasConfiguration(instance.configuration, instance.depth)) {
+            snapshot = new Snapshot(definition, published.version + 1,
+                    Arrays.copyOf(instance.configuration, instance.depth));
+        }
+    }
+
+    /**
+     * Active state configuration at a version, the number of changes of the configuration since the instance was
+     * created.
+     */
+    public static final class Snapshot {
+        private final MachineDefinition definition;
+        private final long version;
+        private final int[] configuration;
+
+        private Snapshot(MachineDefinition definition, long version, int[] configuration) {
+            this.definition = definition;
+            this.version = version;
+            this.configuration = configuration;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<String> getActiveStateConfiguration() {
+            String[] names = new String[configuration.length];
+            for (int level = 0; level < configuration.length; level++) {
+                names[level] = definition.state(configuration[level]).getName();
+            }
+            return Collections.unmodifiableList(Arrays.asList(names));
+        }
+
+        /**
+         * @return name of the active state at the top level
+         */
+        public String getActiveStateName() {
+            return definition.state(configuration[0]).getName();
+        }
+
+        private boolean hasConfiguration(int[] ordinals, int depth) {
+            if (configuration.length != depth) {
+                return false;
+            }
+            for (int level = 0; level < depth; level++) {
+                if (configuration[level] != ordinals[level]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override public String toString() {
+            return version + " " + getActiveStateConfiguration();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.nextstate.statemachine;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the active state configuration, for persisting many instances without state names.
+ * <br>
+ * Each level of the configuration is encoded as the index of the active state among the states of its parent: the
+ * states given to the State Machine at the top level, the internal states of the Composite State below. The indexes
+ * follow the declaration order, so an encoding holds across JVM restarts as long as the states are declared in the
+ * same order. {@link #getFingerprint()} identifies the structure to check that against.
+ * <br>
+ * The configuration is encoded as one short per level, or packed into a single long when the machine is shallow
+ * enough, see {@link #isShallow()}. Encoding and decoding allocate nothing. Decoding sets the configuration as
+ * {@link MachineInstance#activeStateConfiguration(List)} and {@link StateMachine#activeStateConfiguration(List)}: a
+ * Composite State at the last level enters its initial state.
+ * <pre>
+ * ConfigurationCodec codec = ConfigurationCodec.of(definition);
+ * long encoded = codec.encodeLong(instance);
+ * codec.decodeLong(encoded, definition.newInstance());
+ * </pre>
+ */
+public final class ConfigurationCodec {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final MachineDefinition definition;
+    private final int bitsPerLevel;
+    private final boolean shallow;
+    private final long fingerprint;
+    // Index of each state among the states of its parent, if it has a single parent, else -1
+    private final int[] localIndex;
+
+    private ConfigurationCodec(MachineDefinition definition) {
+        this.definition = definition;
+
+        int[] parents = new int[definition.stateCount()];
+        this.localIndex = new int[definition.stateCount()];
+        Arrays.fill(localIndex, -1);
+        Arrays.fill(parents, -2);
+        int maxFanOut = register(definition.topLevelStates(), -1, parents);
+        for (int state = 0; state < definition.stateCount(); state++) {
+            if (definition.isComposite(state)) {
+                maxFanOut = Math.max(maxFanOut, register(definition.innerStates(state), state, parents));
+            }
+        }
+        if (maxFanOut > 0xFFFF) {
+            throw new IllegalStateException("Too many states in " + definition.getName() + " to encode: " + maxFanOut);
+        }
+
+        // Index + 1 per level, 0 terminates the configuration
+        this.bitsPerLevel = 32 - Integer.numberOfLeadingZeros(maxFanOut);
+        this.shallow = (long) bitsPerLevel * definition.maxDepth() <= Long.SIZE;
+        this.fingerprint = fingerprint(definition);
+    }
+
+    public static ConfigurationCodec of(MachineDefinition definition) {
+        return new ConfigurationCodec(definition);
+    }
+
+    /**
+     * Codec for the State Machine, and for the instances of definitions of State Machines declaring the same states.
+     */
+    public static ConfigurationCodec of(StateMachine stateMachine) {
+        return new ConfigurationCodec(MachineDefinition.of(stateMachine));
+    }
+
+    /**
+     * @return hash of the names and nesting of the states in declaration order, the same across JVM restarts
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return maximum number of levels, the length of the short encoding
+     */
+    public int getMaxDepth() {
+        return definition.maxDepth();
+    }
+
+    /**
+     * @return true if every configuration can be encoded in a single long
+     */
+    public boolean isShallow() {
+        return shallow;
+    }
+
+    // =================
+    //      Instance
+    // =================
+    public long encodeLong(MachineInstance instance) {
+        checkShallow();
+        long encoded = 0;
+        for (int level = instance.depth - 1; level >= 0; level--) {
+            encoded = encoded << bitsPerLevel | indexAt(instance, level) + 1;
+        }
+        return encoded;
+    }
+
+    public void decodeLong(long encoded, MachineInstance instance) {
+        checkShallow();
+        long mask = (1L << bitsPerLevel) - 1;
+        int[] candidates = definition.topLevelStates();
+        int level = 0;
+        while (encoded != 0) {
+            int index = (int) (encoded & mask) - 1;
+            encoded >>>= bitsPerLevel;
+            candidates = decodeLevel(instance, level++, index, encoded == 0, candidates);
+        }
+        if (level == 0) {
+            throw new IllegalStateException("Empty configuration");
+        }
+    }
+
+    /**
+     * @return number of shorts written, the depth of the configuration
+     */
+    public int encode(MachineInstance instance, short[] target, int offset) {
+        for (int level = 0; level < instance.depth; level++) {
+            target[offset + level] = (short) indexAt(instance, level);
+        }
+        return instance.depth;
+    }
+
+    public void decode(short[] source, int offset, int length, MachineInstance instance) {
+        if (length == 0) {
+            throw new IllegalStateException("Empty configuration");
+        }
+        int[] candidates = definition.topLevelStates();
+        for (int level = 0; level < length; level++) {
+            candidates = decodeLevel(instance, level, source[offset + level] & 0xFFFF, level == length - 1,
+                    candidates);
+        }
+    }
+
+    private int indexAt(MachineInstance instance, int level) {
+        int state = instance.configuration[level];
+        int index = localIndex[state];
+        int[] siblings = level == 0 ? definition.topLevelStates()
+                : definition.innerStates(instance.configuration[level - 1]);
+        if (index >= 0 && index < siblings.length && siblings[index] == state) {
+            return index;
+        }
+        // Shared by several parents, or not an inner state of its parent
+        for (int i = 0; i < siblings.length; i++) {
+            if (siblings[i] == state) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("State " + definition.state(state).getName()
+                + " is not declared in its parent and can not be encoded.");
+    }
+
+    /**
+     * @return the inner states of the decoded state, the candidates at the next level
+     */
+    private int[] decodeLevel(MachineInstance instance, int level, int index, boolean last, int[] candidates) {
+        if (index < 0 || index >= candidates.length) {
+            throw new IllegalStateException("No state with index " + index + " at level " + level + ".");
+        }
+        int state = candidates[index];
+        if (!last) {
+            if (!definition.isComposite(state)) {
+                throw new IllegalStateException("Current state is not Composite State but configuration element "
+                        + "remains at level " + (level + 1) + ".");
+            }
+            instance.activate(level, state);
+            return definition.innerStates(state);
+        }
+        if (definition.isComposite(state)) {
+            // no more elements in configuration and current state is composite. Initial transition.
+            definition.enter(instance, level, state);
+        } else {
+            instance.activate(level, state);
+        }
+        return null;
+    }
+
+    // =================
+    //   State Machine
+    // =================
+    public long encodeLong(StateMachine stateMachine) {
+        checkShallow();
+        long encoded = 0;
+        int shift = 0;
+        CompositeElement parent = stateMachine;
+        while (parent != null) {
+            State state = active(parent);
+            encoded |= (long) (indexOf(parent, state) + 1) << shift;
+            shift += bitsPerLevel;
+            parent = state instanceof CompositeElement ? (CompositeElement) state : null;
+        }
+        return encoded;
+    }
+
+    public void decodeLong(long encoded, StateMachine stateMachine) {
+        checkShallow();
+        long mask = (1L << bitsPerLevel) - 1;
+        CompositeElement parent = stateMachine;
+        int level = 0;
+        while (encoded != 0) {
+            int index = (int) (encoded & mask) - 1;
+            encoded >>>= bitsPerLevel;
+            parent = decodeLevel(parent, level++, index, encoded == 0);
+        }
+        if (level == 0) {
+            throw new IllegalStateException("Empty configuration");
+        }
+    }
+
+    /**
+     * @return number of shorts written, the depth of the configuration
+     */
+    public int encode(StateMachine stateMachine, short[] target, int offset) {
+        int level = 0;
+        CompositeElement parent = stateMachine;
+        while (parent != null) {
+            State state = active(parent);
+            target[offset + level++] = (short) indexOf(parent, state);
+            parent = state instanceof CompositeElement ? (CompositeElement) state : null;
+        }
+        return level;
+    }
+
+    public void decode(short[] source, int offset, int length, StateMachine stateMachine) {
+        if (length == 0) {
+            throw new IllegalStateException("Empty configuration");
+        }
+        CompositeElement parent = stateMachine;
+        for (int level = 0; level < length; level++) {
+            parent = decodeLevel(parent, level, source[offset + level] & 0xFFFF, level == length - 1);
+        }
+    }
+
+    private static State active(CompositeElement parent) {
+        State state = parent.getActiveState();
+        if (state == null) {
+            throw new IllegalStateException(parent instanceof StateMachine ? "No active state"
+                    : "No internal active state in Composite State: " + parent.getName());
+        }
+        return state;
+    }
+
+    private static int indexOf(CompositeElement parent, State state) {
+        List<State> states = parent.getStates();
+        for (int i = 0; i < states.size(); i++) {
+            if (states.get(i) == state) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("State " + state.getName() + " is not declared in " + parent.getName()
+                + " and can not be encoded.");
+    }
+
+    /**
+     * @return the decoded state if it is composite, the parent at the next level
+     */
+    private static CompositeElement decodeLevel(CompositeElement parent, int level, int index, boolean last) {
+        List<State> states = parent.getStates();
+        if (index < 0 || index >= states.size()) {
+            throw new IllegalStateException("No state with index " + index + " at level " + level + ".");
+        }
+        State state = states.get(index);
+        if (!last && !(state instanceof CompositeElement)) {
+            throw new IllegalStateException("Current state is not Composite State but configuration element "
+                    + "remains at level " + (level + 1) + ".");
+        }
+        if (parent instanceof StateMachine) {
+            ((StateMachine) parent).restoreActiveState(state);
+        } else {
+            ((CompositeState) parent).restoreActiveState(state);
+        }
+        if (last && state instanceof CompositeElement) {
+            // no more elements in configuration and current state is composite. Initial transition.
+            state.onEntry();
+        }
+        return state instanceof CompositeElement ? (CompositeElement) state : null;
+    }
+
+    // =================
+    //      Structure
+    // =================
+    private int register(int[] states, int parent, int[] parents) {
+        for (int i = 0; i < states.length; i++) {
+            int state = states[i];
+            if (parents[state] == -2) {
+                parents[state] = parent;
+                localIndex[state] = i;
+            } else if (parents[state] != parent) {
+                localIndex[state] = -1;
+            }
+        }
+        return states.length;
+    }
+
+    private void checkShallow() {
+        if (!shallow) {
+            throw new IllegalStateException(definition.getName() + " is too deep to encode in a long, use a short "
+                    + "array.");
+        }
+    }
+
+    private static long fingerprint(MachineDefinition definition) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, definition.getName());
+        return hash(definition, definition.topLevelStates(), hash, new boolean[definition.stateCount()]);
+    }
+
+    private static long hash(MachineDefinition definition, int[] states, long hash, boolean[] visiting) {
+        hash = hash(hash, "(");
+        for (int state : states) {
+            hash = hash(hash, definition.state(state).getName());
+            if (definition.isComposite(state) && !visiting[state]) {
+                visiting[state] = true;
+                hash = hash(definition, definition.innerStates(state), hash, visiting);
+                visiting[state] = false;
+            }
+            hash = hash(hash, ",");
+        }
+        return hash(hash, ")");
+    }
+
+    private static long hash(long hash, String value) {
+        hash = (hash ^ value.length()) * FNV_PRIME;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
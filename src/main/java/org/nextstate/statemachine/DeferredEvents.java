@@ -0,0 +1,149 @@
+package org.nextstate.statemachine;
+
+/**
+ * Events deferred by the active states of a {@link MachineInstance}, see
+ * {@link SimpleState.StateBuilder#defer(String...)}.
+ * <br>
+ * The events are kept in a first in first out queue per deferred event type, numbered in order of arrival, with a bit
+ * set of the types having events. After a transition only the types the new configuration no longer defers are looked
+ * at and the oldest event at their heads is recalled, so the buffer is never scanned whatever its size.
+ */
+final class DeferredEvents {
+    private static final int INITIAL_CAPACITY = 4;
+
+    // Queue of each deferred event type, created on first use
+    private final TypeQueue[] queues;
+    // Types having events, a bit per index
+    private final long[] buffered;
+    private long arrivals;
+    private int size;
+
+    DeferredEvents(int types) {
+        this.queues = new TypeQueue[types];
+        this.buffered = new long[(types + 63) >>> 6];
+    }
+
+    /**
+     * @param index index of the event type, see {@link MachineDefinition#deferredIndex(int)}
+     */
+    void add(int index, Event event) {
+        TypeQueue queue = queues[index];
+        if (queue == null) {
+            queue = new TypeQueue();
+            queues[index] = queue;
+        }
+        queue.add(event, arrivals++);
+        buffered[index >>> 6] |= 1L << index;
+        size++;
+    }
+
+    /**
+     * Take the oldest event the configuration no longer defers.
+     *
+     * @return the event or null if every deferred event is still deferred
+     */
+    Event recall(MachineDefinition definition, int[] configuration, int depth) {
+        if (size == 0) {
+            return null;
+        }
+        int oldest = -1;
+        long oldestArrival = Long.MAX_VALUE;
+        for (int word = 0; word < buffered.length; word++) {
+            long candidates = buffered[word];
+            for (int level = 0; level < depth && candidates != 0; level++) {
+                candidates &= ~definition.deferredMask(configuration[level])[word];
+            }
+            while (candidates != 0) {
+                int index = (word << 6) | Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                long arrival = queues[index].headArrival();
+                if (arrival < oldestArrival) {
+                    oldest = index;
+                    oldestArrival = arrival;
+                }
+            }
+        }
+        if (oldest < 0) {
+            return null;
+        }
+        TypeQueue queue = queues[oldest];
+        Event event = queue.poll();
+        if (queue.isEmpty()) {
+            buffered[oldest >>> 6] &= ~(1L << oldest);
+        }
+        size--;
+        return event;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (TypeQueue queue : queues) {
+            if (queue != null) {
+                queue.clear();
+            }
+        }
+        for (int word = 0; word < buffered.length; word++) {
+            buffered[word] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Ring buffer of the events of one type with their arrival numbers, growing as {@link EventQueue}.
+     */
+    private static final class TypeQueue {
+        private Event[] events = new Event[INITIAL_CAPACITY];
+        private long[] arrivals = new long[INITIAL_CAPACITY];
+        private int head;
+        private int size;
+
+        void add(Event event, long arrival) {
+            if (size == events.length) {
+                grow();
+            }
+            int tail = (head + size) & (events.length - 1);
+            events[tail] = event;
+            arrivals[tail] = arrival;
+            size++;
+        }
+
+        long headArrival() {
+            return arrivals[head];
+        }
+
+        Event poll() {
+            Event event = events[head];
+            events[head] = null;
+            head = (head + 1) & (events.length - 1);
+            size--;
+            return event;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            while (size > 0) {
+                poll();
+            }
+            head = 0;
+        }
+
+        private void grow() {
+            Event[] grownEvents = new Event[events.length * 2];
+            long[] grownArrivals = new long[events.length * 2];
+            int first = events.length - head;
+            System.arraycopy(events, head, grownEvents, 0, first);
+            System.arraycopy(events, 0, grownEvents, first, head);
+            System.arraycopy(arrivals, head, grownArrivals, 0, first);
+            System.arraycopy(arrivals, 0, grownArrivals, first, head);
+            events = grownEvents;
+            arrivals = grownArrivals;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.nextstate.statemachine;
+
+/**
+ * Selects the transitions and performs the actions of a {@link MachineDefinition}, by state ordinal. The definition
+ * walks the nesting levels of the active state configuration and asks the dispatcher what to do at each level.
+ * <br>
+ * The definition interprets its own transition tables by default. {@link MachineCompiler} generates a dispatcher
+ * specialized for one definition. Not intended to be implemented elsewhere, public only to be extended by the
+ * generated classes.
+ */
+public abstract class Dispatcher {
+
+    protected Dispatcher() {
+    }
+
+    /**
+     * Find the first transition from the state matching the event and perform its transition action.
+     *
+     * @param state ordinal of the active state
+     * @param event the event
+     * @return ordinal of the target state or -1 if no transition match
+     */
+    protected abstract int transition(int state, Event event);
+
+    /**
+     * Perform the entry action of the state, if any.
+     *
+     * @param state ordinal of the entered state
+     */
+    protected abstract void entry(int state);
+
+    /**
+     * Perform the exit action of the state, if any.
+     *
+     * @param state ordinal of the exited state
+     */
+    protected abstract void exit(int state);
+}
@@ -0,0 +1,286 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the graph of a State Machine in the DOT graph description language, see http://www.graphviz.org/.
+ * <br>
+ * Unlike {@link CompositeElement#toDot(boolean)}, the Composite States are drawn with their inner states as
+ * {@code subgraph cluster_*} blocks, a transition to or from a Composite State ending at its border, and the graph is
+ * written to the output while it is walked instead of built in memory. The identifier of each state is computed once,
+ * from the name with the whitespace replaced as in {@link CompositeElement#toDot(boolean)}, precomputed for sealed
+ * states, and made unique. Orthogonal States are drawn as clusters of their regions.
+ * <br>
+ * Composite States nested deeper than the maximum depth are drawn as a single node, as are the Composite States without
+ * inner states.
+ * <pre>
+ * try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+ *     DotExporter.dotExporter().maxDepth(2).build().export(atm, channel);
+ * }
+ * </pre>
+ */
+public final class DotExporter {
+    private static final String INDENT = "  ";
+
+    private final int maxDepth;
+    private final boolean showActiveState;
+
+    private DotExporter(int maxDepth, boolean showActiveState) {
+        this.maxDepth = maxDepth;
+        this.showActiveState = showActiveState;
+    }
+
+    /**
+     * Write the graph of the State Machine or Composite State to the output.
+     */
+    public void export(CompositeElement root, Appendable out) throws IOException {
+        new Export(root, out).write();
+    }
+
+    /**
+     * Write the graph encoded in UTF-8 to the channel, through a buffer. The channel is not closed.
+     */
+    public void export(CompositeElement root, WritableByteChannel channel) throws IOException {
+        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 64 * 1024);
+        export(root, writer);
+        writer.flush();
+    }
+
+    /**
+     * @return the graph of the State Machine or Composite State
+     */
+    public String toDot(CompositeElement root) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            export(root, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * State of one export: the identifiers given so far, the clusters drawn and the active states.
+     */
+    private final class Export {
+        private final CompositeElement root;
+        private final Appendable out;
+        private final Map<State, String> ids = new IdentityHashMap<>();
+        private final Set<String> usedIds = new HashSet<>();
+        private final Set<State> clusters = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<State> active = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<State> drawn = new ArrayList<>();
+        private final Set<State> drawnStates = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Export(CompositeElement root, Appendable out) {
+            this.root = root;
+            this.out = out;
+            if (showActiveState) {
+                State state = root.getActiveState();
+                while (state != null && active.add(state)) {
+                    state = state instanceof CompositeElement ? ((CompositeElement) state).getActiveState() : null;
+                }
+            }
+        }
+
+        void write() throws IOException {
+            out.append("digraph ").append(plainId(AbstractState.dotId(root.getName()))).append(" {")
+                    .append(System.lineSeparator());
+            line().append("compound=true;").append(System.lineSeparator());
+            states(root.getStates(), 0);
+            for (State state : drawn) {
+                edges(state);
+            }
+            out.append('}').append(System.lineSeparator());
+        }
+
+        private void states(List<State> states, int depth) throws IOException {
+            for (State state : states) {
+                List<State> children = children(state);
+                if (depth < maxDepth && !children.isEmpty()) {
+                    clusters.add(state);
+                    line().append("subgraph cluster_").append(id(state)).append(" {").append(System.lineSeparator());
+                    line().append("label=\"");
+                    escaped(state.getName()).append("\";").append(System.lineSeparator());
+                    line().append("style=filled;").append(System.lineSeparator());
+                    line().append("fillcolor=").append(active.contains(state) ? "lightblue" : "lightgrey").append(';')
+                            .append(System.lineSeparator());
+                    states(children, depth + 1);
+                    line().append('}').append(System.lineSeparator());
+                } else {
+                    line().append(id(state)).append(" [label=\"");
+                    escaped(state.getName()).append('"');
+                    if (active.contains(state)) {
+                        out.append(", style=filled, fillcolor=lightblue");
+                    } else if (state instanceof CompositeElement || state instanceof OrthogonalState) {
+                        out.append(", style=filled, fillcolor=lightgrey");
+                    }
+                    out.append("];").append(System.lineSeparator());
+                }
+                drawn.add(state);
+                drawnStates.add(state);
+            }
+        }
+
+        private void edges(State state) throws IOException {
+            if (!(state instanceof AbstractState)) {
+                return;
+            }
+            for (Transition transition : ((AbstractState) state).transitions) {
+                State target = transition.getTargetState();
+                line().append(id(anchor(state))).append(" -> ").append(id(anchor(target)));
+                boolean attributes = false;
+                if (transition.getName() != null) {
+                    out.append(" [label=\"");
+                    escaped(transition.getName()).append('"');
+                    attributes = true;
+                }
+                if (clusters.contains(state)) {
+                    out.append(attributes ? ", " : " [").append("ltail=cluster_").append(id(state));
+                    attributes = true;
+                }
+                if (clusters.contains(target)) {
+                    out.append(attributes ? ", " : " [").append("lhead=cluster_").append(id(target));
+                    attributes = true;
+                }
+                out.append(attributes ? "];" : ";").append(System.lineSeparator());
+            }
+        }
+
+        /**
+         * @return the node an edge to or from the state is drawn to: the state, or for a cluster the node of its
+         * initial state
+         */
+        private State anchor(State state) {
+            while (clusters.contains(state)) {
+                State initial = null;
+                if (state instanceof CompositeState && ((CompositeState) state).getInitialTransition() != null) {
+                    initial = ((CompositeState) state).getInitialTransition().getTargetState();
+                }
+                state = initial != null && drawnStates.contains(initial) ? initial : children(state).get(0);
+            }
+            return state;
+        }
+
+        private List<State> children(State state) {
+            if (state instanceof CompositeElement) {
+                return ((CompositeElement) state).getStates();
+            }
+            if (state instanceof OrthogonalState) {
+                return new ArrayList<>(((OrthogonalState) state).getRegions());
+            }
+            return Collections.emptyList();
+        }
+
+        /**
+         * @return identifier of the state, unique in the graph
+         */
+        private String id(State state) {
+            String id = ids.get(state);
+            if (id == null) {
+                String base = plainId(AbstractState.dotId(state));
+                id = base;
+                for (int n = 2; !usedIds.add(id); n++) {
+                    id = base + "_" + n;
+                }
+                ids.put(state, id);
+            }
+            return id;
+        }
+
+        private Appendable line() throws IOException {
+            return out.append(INDENT);
+        }
+
+        private Appendable escaped(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\');
+                }
+                out.append(c);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * @return the identifier with the characters not allowed in an unquoted DOT identifier replaced
+     */
+    private static String plainId(String id) {
+        boolean plain = !id.isEmpty() && !isDigit(id.charAt(0));
+        for (int i = 0; i < id.length() && plain; i++) {
+            plain = isIdChar(id.charAt(i));
+        }
+        if (plain) {
+            return id;
+        }
+        StringBuilder sb = new StringBuilder(id.length() + 1);
+        if (id.isEmpty() || isDigit(id.charAt(0))) {
+            sb.append('_');
+        }
+        for (int i = 0; i < id.length(); i++) {
+            sb.append(isIdChar(id.charAt(i)) ? id.charAt(i) : '_');
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdChar(char c) {
+        return c == '_' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static DotExporterBuilder dotExporter() {
+        return new DotExporterBuilder();
+    }
+
+    public static class DotExporterBuilder {
+        private int maxDepth = Integer.MAX_VALUE;
+        private boolean showActiveState;
+
+        DotExporterBuilder() {
+        }
+
+        /**
+         * @param maxDepth number of levels of Composite States drawn with their inner states, 0 to draw only the
+         *                 top level states, unlimited by default
+         */
+        public DotExporterBuilder maxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * @param showActiveState true to fill the states of the active state configuration in light blue
+         */
+        public DotExporterBuilder showActiveState(boolean showActiveState) {
+            this.showActiveState = showActiveState;
+            return this;
+        }
+
+        public DotExporter build() {
+            if (maxDepth < 0) {
+                throw new IllegalStateException("Maximum depth must not be negative");
+            }
+            return new DotExporter(maxDepth, showActiveState);
+        }
+    }
+}
@@ -2,12 +2,31 @@ package org.nextstate.statemachine;
 
 public class Event {
     private final String name;
+    private int id;
 
     public Event(String name) {
         this.name = name;
+        this.id = EventType.NO_ID;
+    }
+
+    public Event(EventType type) {
+        this.name = type.getName();
+        this.id = type.getId();
     }
 
     public String getName() {
         return name;
     }
+
+    /**
+     * The id of the event type, resolved by the name through the {@link EventType} registry on first use.
+     *
+     * @return the event type id or {@link EventType#NO_ID} if no event type with the name is registered
+     */
+    public int getId() {
+        if (id == EventType.NO_ID) {
+            id = EventType.idOf(name);
+        }
+        return id;
+    }
 }
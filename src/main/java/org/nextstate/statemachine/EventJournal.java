@@ -0,0 +1,763 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable instances of one {@link MachineDefinition}, keyed by id: every event executed is appended to a write-ahead
+ * journal with the active state configuration it resulted in, and is on the storage device when
+ * {@link #execute(String, Event)} returns.
+ * <br>
+ * Records are written by a single journal thread through a {@link FileChannel}. While it forces a batch of records,
+ * the records of other executes are queued and forced together with the next batch, so concurrent executes share one
+ * fsync. Every {@code snapshotEvery} records the journal thread writes a snapshot of the configuration of every
+ * instance, starts a new journal segment and deletes the older segments and snapshots.
+ * <br>
+ * On build the latest snapshot is restored and only the records written after it are replayed. Recovery sets the
+ * recorded configurations, encoded by {@link ConfigurationCodec}, and never runs actions, so actions need not be
+ * idempotent. A record torn by a crash is detected by its checksum and truncated. Segments and snapshots start with
+ * the fingerprint of the codec, so a journal is not recovered with another definition. Deferred events are not journaled,
+ * the recovered instances have none.
+ * <pre>
+ * EventJournal sessions = EventJournal.eventJournal(Paths.get("sessions"), phone).build();
+ * sessions.execute("555-1234", new CallDialed());
+ * </pre>
+ */
+public final class EventJournal implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x4E534A53;
+    private static final int SEGMENT_MAGIC = 0x4E534A4C;
+    // Magic and fingerprint
+    private static final int SEGMENT_HEADER = 12;
+    // Length and checksum of the body of a record
+    private static final int RECORD_HEADER = 8;
+    // Magic, fingerprint, sequence and instance count
+    private static final int SNAPSHOT_HEADER = 24;
+
+    private final MachineDefinition definition;
+    private final ConfigurationCodec codec;
+    private final Path directory;
+    private final int snapshotEvery;
+    private final Map<String, MachineInstance> instances = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    // Guarded by the lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private List<Record> pending = new ArrayList<>();
+    private long appendedSequence;
+    private long committedSequence;
+    private long snapshotsRequested;
+    private long snapshotsTaken;
+    private IOException failure;
+    private boolean running = true;
+    // Executes that passed the running check and have not appended yet, the journal thread waits for them on close
+    private int executing;
+
+    // Owned by the journal thread after recovery
+    private final Map<String, short[]> configurations = new HashMap<>();
+    private final CRC32 checksum = new CRC32();
+    private List<Record> spare = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private FileChannel segment;
+    private long recordsSinceSnapshot;
+    private volatile long commits;
+    private final long recoveredRecords;
+
+    private EventJournal(MachineDefinition definition, Path directory, int snapshotEvery) throws IOException {
+        this.definition = definition;
+        this.codec = ConfigurationCodec.of(definition);
+        this.directory = directory;
+        this.snapshotEvery = snapshotEvery;
+
+        Files.createDirectories(directory);
+        long snapshot = restoreSnapshot();
+        long sequence = snapshot;
+        for (long first : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            sequence = replay(first, sequence);
+        }
+        this.recoveredRecords = sequence - snapshot;
+        this.appendedSequence = sequence;
+        this.committedSequence = sequence;
+        for (Map.Entry<String, short[]> entry : configurations.entrySet()) {
+            instances.put(entry.getKey(), restore(entry.getValue()));
+        }
+        this.segment = openSegment(sequence + 1);
+        log.debug("{} - recovered {} instances, {} records after the snapshot", definition.getName(),
+                instances.size(), recoveredRecords);
+
+        this.thread = new Thread(this::write, definition.getName() + "-journal");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Execute the event for the instance with the id, created in the initial state on its first event, and wait until
+     * the record of the event is forced to the storage device.
+     * <br>
+     * If an action throws, the configuration the instance is left in is still journaled before the exception of the
+     * action is rethrown. An execute that started before {@link #close()} is journaled before the journal closes.
+     *
+     * @throws IllegalStateException if the journal is closed
+     * @throws UncheckedIOException if the journal failed to write
+     */
+    public void execute(String id, Event event) {
+        byte[] idBytes = bytes(id, "Id");
+        byte[] eventBytes = bytes(event.getName(), "Event name");
+        beginExecute();
+        RuntimeException thrown = null;
+        long sequence;
+        try {
+            MachineInstance instance = instances.computeIfAbsent(id, key -> new MachineInstance(definition,
+                    definition.maxDepth()));
+            synchronized (instance) {
+                if (instance.depth == 0) {
+                    definition.enter(instance, 0, definition.initialState());
+                }
+                try {
+                    instance.execute(event);
+                } catch (RuntimeException e) {
+                    thrown = e;
+                }
+                // Appended while holding the instance, in the order the events of the instance are executed
+                short[] configuration = new short[instance.depth];
+                codec.encode(instance, configuration, 0);
+                sequence = append(new Record(id, idBytes, eventBytes, configuration));
+            }
+        } catch (RuntimeException e) {
+            throw firstOf(thrown, e);
+        } finally {
+            endExecute();
+        }
+        try {
+            awaitCommit(sequence);
+        } catch (RuntimeException e) {
+            throw firstOf(thrown, e);
+        }
+        if (thrown != null) {
+            throw thrown;
+        }
+    }
+
+    /**
+     * @return the configuration, empty if the instance has not received any event
+     */
+    public List<String> getActiveStateConfiguration(String id) {
+        MachineInstance instance = instances.get(id);
+        if (instance == null) {
+            return Collections.emptyList();
+        }
+        synchronized (instance) {
+            return instance.getActiveStateConfiguration();
+        }
+    }
+
+    public int getInstanceCount() {
+        return instances.size();
+    }
+
+    /**
+     * @return sequence number of the last record forced to the storage device
+     */
+    public long getSequence() {
+        lock.lock();
+        try {
+            return committedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of times the journal was forced to the storage device, shared by all the records of a batch
+     */
+    public long getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return number of records replayed after the snapshot on build
+     */
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    /**
+     * Write a snapshot of the configuration of every instance now, and delete the journal segments it covers.
+     */
+    public void snapshot() {
+        lock.lock();
+        try {
+            checkWritable();
+            if (!running) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            long request = ++snapshotsRequested;
+            appended.signal();
+            while (snapshotsTaken < request) {
+                checkWritable();
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting events, wait for the executes in flight, force the queued records and stop the journal thread.
+     */
+    @Override public void close() {
+        lock.lock();
+        try {
+            running = false;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // =================
+    //      Appending
+    // =================
+    private void beginExecute() {
+        lock.lock();
+        try {
+            checkRunning();
+            executing++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void endExecute() {
+        lock.lock();
+        try {
+            if (--executing == 0 && !running) {
+                appended.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called between {@link #beginExecute()} and {@link #endExecute()}, so the journal thread is still running unless
+     * it failed.
+     */
+    private long append(Record record) {
+        lock.lock();
+        try {
+            checkWritable();
+            record.sequence = ++appendedSequence;
+            pending.add(record);
+            appended.signal();
+            return record.sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitCommit(long sequence) {
+        lock.lock();
+        try {
+            while (committedSequence < sequence) {
+                checkWritable();
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkRunning() {
+        lock.lock();
+        try {
+            checkWritable();
+            if (!running) {
+                throw new IllegalStateException("Journal is closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkWritable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Failed to write journal in " + directory, failure);
+        }
+    }
+
+    /**
+     * @return the exception of the action with the exception of the journal suppressed, or the exception of the journal
+     */
+    private static RuntimeException firstOf(RuntimeException thrown, RuntimeException journal) {
+        if (thrown == null) {
+            return journal;
+        }
+        thrown.addSuppressed(journal);
+        return thrown;
+    }
+
+    private static byte[] bytes(String value, String what) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalStateException(what + " is too long to journal: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    // =================
+    //   Journal thread
+    // =================
+    private void write() {
+        while (true) {
+            List<Record> batch;
+            long snapshotRequest;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && (running || executing > 0) && snapshotsTaken == snapshotsRequested) {
+                    appended.awaitUninterruptibly();
+                }
+                if (pending.isEmpty() && !running && executing == 0 && snapshotsTaken == snapshotsRequested) {
+                    close(segment);
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                snapshotRequest = snapshotsRequested;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                long sequence = writeRecords(batch);
+                lock.lock();
+                try {
+                    committedSequence = sequence;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (snapshotRequest > snapshotsTaken || recordsSinceSnapshot >= snapshotEvery) {
+                    writeSnapshot(sequence);
+                    lock.lock();
+                    try {
+                        snapshotsTaken = snapshotRequest;
+                        committed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (IOException e) {
+                log.error("{} - failed to write journal in {}", definition.getName(), directory, e);
+                lock.lock();
+                try {
+                    failure = e;
+                    running = false;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                close(segment);
+                return;
+            }
+            batch.clear();
+            spare = batch;
+        }
+    }
+
+    /**
+     * Record: length and checksum of the body, then the sequence, the id, the event name and the configuration.
+     *
+     * @return sequence of the last record written
+     */
+    private long writeRecords(List<Record> batch) throws IOException {
+        long sequence = committedSequence;
+        if (batch.isEmpty()) {
+            return sequence;
+        }
+        buffer.clear();
+        for (Record record : batch) {
+            int length = 8 + 2 + record.id.length + 2 + record.event.length + 2 + 2 * record.configuration.length;
+            reserve(segment, RECORD_HEADER + length, null);
+            int start = buffer.position();
+            buffer.position(start + RECORD_HEADER);
+            buffer.putLong(record.sequence);
+            putBytes(record.id);
+            putBytes(record.event);
+            putShorts(record.configuration);
+
+            ByteBuffer body = buffer.duplicate();
+            body.flip();
+            body.position(start + RECORD_HEADER);
+            checksum.reset();
+            checksum.update(body);
+            buffer.putInt(start, length);
+            buffer.putInt(start + 4, (int) checksum.getValue());
+
+            configurations.put(record.key, record.configuration);
+            sequence = record.sequence;
+        }
+        flush(segment, null);
+        segment.force(false);
+        commits++;
+        recordsSinceSnapshot += batch.size();
+        return sequence;
+    }
+
+    /**
+     * Snapshot: magic, fingerprint, sequence and instance count, then the id and configuration of every instance, and
+     * the checksum of all that. Written to a temporary file moved in place once forced, then the journal continues in
+     * a new segment.
+     */
+    private void writeSnapshot(long sequence) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + "next" + SNAPSHOT_SUFFIX + ".tmp");
+        CRC32 snapshotChecksum = new CRC32();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.clear();
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putLong(codec.getFingerprint());
+            buffer.putLong(sequence);
+            buffer.putInt(configurations.size());
+            for (Map.Entry<String, short[]> entry : configurations.entrySet()) {
+                byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                reserve(channel, 2 + id.length + 2 + 2 * entry.getValue().length, snapshotChecksum);
+                putBytes(id);
+                putShorts(entry.getValue());
+            }
+            flush(channel, snapshotChecksum);
+            buffer.putInt((int) snapshotChecksum.getValue());
+            flush(channel, null);
+            channel.force(true);
+        }
+        Files.move(temporary, file(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        FileChannel previous = segment;
+        segment = openSegment(sequence + 1);
+        close(previous);
+        forceDirectory();
+        recordsSinceSnapshot = 0;
+
+        // Compaction: the snapshot covers every older segment and snapshot
+        for (long first : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (first <= sequence) {
+                Files.delete(file(SEGMENT_PREFIX, first, SEGMENT_SUFFIX));
+            }
+        }
+        for (long snapshot : sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (snapshot < sequence) {
+                Files.delete(file(SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX));
+            }
+        }
+        log.debug("{} - snapshot of {} instances at {}", definition.getName(), configurations.size(), sequence);
+    }
+
+    private void reserve(FileChannel channel, int bytes, CRC32 runningChecksum) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, runningChecksum);
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes) << 1);
+            }
+        }
+    }
+
+    private void flush(FileChannel channel, CRC32 runningChecksum) throws IOException {
+        buffer.flip();
+        if (runningChecksum != null) {
+            runningChecksum.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putBytes(byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putShorts(short[] values) {
+        buffer.putShort((short) values.length);
+        for (short value : values) {
+            buffer.putShort(value);
+        }
+    }
+
+    // =================
+    //      Recovery
+    // =================
+    /**
+     * @return sequence of the last record covered by the snapshot, 0 if there is no snapshot
+     */
+    private long restoreSnapshot() throws IOException {
+        List<Long> snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        long sequence = snapshots.get(snapshots.size() - 1);
+        Path file = file(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+        ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (snapshot.remaining() < SNAPSHOT_HEADER + 4) {
+            throw new IllegalStateException("Corrupt snapshot " + file);
+        }
+        checksum.reset();
+        checksum.update(snapshot.array(), 0, snapshot.limit() - 4);
+        if (snapshot.getInt(snapshot.limit() - 4) != (int) checksum.getValue()
+                || snapshot.getInt() != SNAPSHOT_MAGIC) {
+            throw new IllegalStateException("Corrupt snapshot " + file);
+        }
+        checkFingerprint(snapshot.getLong());
+        snapshot.getLong();
+        int count = snapshot.getInt();
+        for (int i = 0; i < count; i++) {
+            configurations.put(getString(snapshot), getShorts(snapshot));
+        }
+        return sequence;
+    }
+
+    /**
+     * Replay the records of the segment after the sequence. A torn record ends the journal, and is truncated.
+     *
+     * @return sequence of the last record replayed
+     */
+    private long replay(long first, long sequence) throws IOException {
+        Path file = file(SEGMENT_PREFIX, first, SEGMENT_SUFFIX);
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (records.remaining() < SEGMENT_HEADER) {
+            // Created without records, or the header torn, rewritten when the segment is opened
+            return sequence;
+        }
+        if (records.getInt() != SEGMENT_MAGIC) {
+            throw new IllegalStateException("Corrupt segment " + file);
+        }
+        checkFingerprint(records.getLong());
+        while (records.hasRemaining()) {
+            int start = records.position();
+            if (!isComplete(records)) {
+                log.warn("{} - truncating torn record at {} of {}", definition.getName(), start, file);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(start);
+                    channel.force(true);
+                }
+                break;
+            }
+            records.position(start + RECORD_HEADER);
+            long recordSequence = records.getLong();
+            String id = getString(records);
+            getString(records);
+            short[] configuration = getShorts(records);
+            if (recordSequence > sequence) {
+                configurations.put(id, configuration);
+                sequence = recordSequence;
+            }
+        }
+        return sequence;
+    }
+
+    private boolean isComplete(ByteBuffer records) {
+        int start = records.position();
+        if (records.remaining() < RECORD_HEADER) {
+            return false;
+        }
+        int length = records.getInt(start);
+        if (length < 0 || records.remaining() - RECORD_HEADER < length) {
+            return false;
+        }
+        checksum.reset();
+        checksum.update(records.array(), start + RECORD_HEADER, length);
+        return records.getInt(start + 4) == (int) checksum.getValue();
+    }
+
+    private MachineInstance restore(short[] configuration) {
+        MachineInstance instance = new MachineInstance(definition, definition.maxDepth());
+        codec.decode(configuration, 0, configuration.length, instance);
+        return instance;
+    }
+
+    private void checkFingerprint(long fingerprint) {
+        if (fingerprint != codec.getFingerprint()) {
+            throw new IllegalStateException("Journal was written for another definition than "
+                    + definition.getName());
+        }
+    }
+
+    private static String getString(ByteBuffer source) {
+        byte[] bytes = new byte[source.getShort() & 0xFFFF];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static short[] getShorts(ByteBuffer source) {
+        short[] values = new short[source.getShort() & 0xFFFF];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = source.getShort();
+        }
+        return values;
+    }
+
+    // =================
+    //       Files
+    // =================
+    /**
+     * Open the segment to append records, writing its header if it has none.
+     */
+    private FileChannel openSegment(long first) throws IOException {
+        FileChannel channel = FileChannel.open(file(SEGMENT_PREFIX, first, SEGMENT_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            if (channel.size() < SEGMENT_HEADER) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+                header.putInt(SEGMENT_MAGIC).putLong(codec.getFingerprint()).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+            return channel;
+        } catch (IOException e) {
+            close(channel);
+            throw e;
+        }
+    }
+
+    private Path file(String prefix, long sequence, String suffix) {
+        return directory.resolve(String.format("%s%020d%s", prefix, sequence, suffix));
+    }
+
+    /**
+     * @return sequences in the names of the files, in increasing order
+     */
+    private List<Long> sequences(String prefix, String suffix) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String sequence = name.substring(prefix.length(), name.length() - suffix.length());
+                try {
+                    sequences.add(Long.parseLong(sequence));
+                } catch (NumberFormatException e) {
+                    log.warn("{} - ignoring {}", definition.getName(), file);
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform, the renames are then durable when the file system decides
+            log.debug("{} - could not force {}", definition.getName(), directory, e);
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close journal segment", e);
+        }
+    }
+
+    private static final class Record {
+        private final String key;
+        private final byte[] id;
+        private final byte[] event;
+        private final short[] configuration;
+        private long sequence;
+
+        Record(String key, byte[] id, byte[] event, short[] configuration) {
+            this.key = key;
+            this.id = id;
+            this.event = event;
+            this.configuration = configuration;
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static EventJournalBuilder eventJournal(Path directory, MachineDefinition definition) {
+        return new EventJournalBuilder(directory, definition);
+    }
+
+    public static EventJournalBuilder eventJournal(Path directory, StateMachine stateMachine) {
+        return new EventJournalBuilder(directory, MachineDefinition.of(stateMachine));
+    }
+
+    public static class EventJournalBuilder {
+        private final Path directory;
+        private final MachineDefinition definition;
+        private int snapshotEvery = 100_000;
+
+        EventJournalBuilder(Path directory, MachineDefinition definition) {
+            this.directory = directory;
+            this.definition = definition;
+        }
+
+        /**
+         * @param snapshotEvery number of records after which a snapshot is written and the journal compacted
+         */
+        public EventJournalBuilder snapshotEvery(int snapshotEvery) {
+            this.snapshotEvery = snapshotEvery;
+            return this;
+        }
+
+        /**
+         * Recover the instances from the latest snapshot and the journal in the directory, created if it does not
+         * exist, and start the journal thread.
+         *
+         * @throws IllegalStateException if the journal was written for another definition
+         */
+        public EventJournal build() {
+            if (snapshotEvery < 1) {
+                throw new IllegalStateException("Snapshot interval must be positive");
+            }
+            try {
+                return new EventJournal(definition, directory, snapshotEvery);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to recover journal in " + directory, e);
+            }
+        }
+    }
+}
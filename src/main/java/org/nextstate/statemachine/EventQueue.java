@@ -0,0 +1,62 @@
+package org.nextstate.statemachine;
+
+/**
+ * First in first out queue of the events raised while a State Machine processes an event, see
+ * {@link StateMachine#execute(Event)}.
+ * <br>
+ * A ring buffer growing to the largest number of queued events, so adding and polling allocates nothing once grown.
+ */
+final class EventQueue {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Event[] events = new Event[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    void add(Event event) {
+        if (size == events.length) {
+            grow();
+        }
+        events[(head + size) & (events.length - 1)] = event;
+        size++;
+    }
+
+    /**
+     * @return the oldest event or null if the queue is empty
+     */
+    Event poll() {
+        if (size == 0) {
+            return null;
+        }
+        Event event = events[head];
+        events[head] = null;
+        head = (head + 1) & (events.length - 1);
+        size--;
+        return event;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        while (size > 0) {
+            poll();
+        }
+        head = 0;
+    }
+
+    private void grow() {
+        // Unwrap so the oldest event is first, the capacity stays a power of two
+        Event[] grown = new Event[events.length * 2];
+        int first = events.length - head;
+        System.arraycopy(events, head, grown, 0, first);
+        System.arraycopy(events, 0, grown, first, head);
+        events = grown;
+        head = 0;
+    }
+}
@@ -0,0 +1,79 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of event types. Each event name is given a dense int id when it is first registered, normally when the
+ * transitions triggered by it are built with {@link Transition.TransitionBuilder#on(String)}.
+ * <br>
+ * The transitions of a state are indexed by the id, so an {@link Event} created from the type is dispatched without
+ * looking at its name. Events created from a name are resolved through the registry.
+ */
+public final class EventType {
+    public static final int NO_ID = -1;
+
+    private static final ConcurrentMap<String, EventType> TYPES = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final String name;
+    private final int id;
+
+    private EventType(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * Get the event type with the name, registering it if needed.
+     *
+     * @param name event name
+     * @return the event type
+     */
+    public static EventType of(String name) {
+        if (name == null) {
+            throw new IllegalStateException("Event type must have a name!");
+        }
+        return TYPES.computeIfAbsent(name, n -> new EventType(n, NEXT_ID.getAndIncrement()));
+    }
+
+    /**
+     * Create an event type with a new id, kept out of the registry. Events created from its name resolve to the
+     * registered type of that name, so only events created from this type have its id.
+     *
+     * @param name event name
+     * @return the event type
+     */
+    static EventType unregistered(String name) {
+        return new EventType(name, NEXT_ID.getAndIncrement());
+    }
+
+    /**
+     * @param name event name
+     * @return the id of the registered event type or {@link #NO_ID} if no event type with the name is registered
+     */
+    static int idOf(String name) {
+        if (name == null) {
+            return NO_ID;
+        }
+        EventType type = TYPES.get(name);
+        return type == null ? NO_ID : type.id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Event event() {
+        return new Event(this);
+    }
+
+    @Override public String toString() {
+        return name + "#" + id;
+    }
+}
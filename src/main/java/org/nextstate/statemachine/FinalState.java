@@ -3,6 +3,11 @@ package org.nextstate.statemachine;
 public class FinalState extends SimpleState {
     public static final String FINAL_EVENT = "FinalEvent";
 
+    /**
+     * The event checked against the transitions of a state entered to see if its Composite State is completed.
+     */
+    static final Event FINAL = new Event(EventType.of(FINAL_EVENT));
+
     public FinalState(String name) {
         super(name);
     }
@@ -0,0 +1,28 @@
+package org.nextstate.statemachine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logging sink of the trace records, see {@link Tracer#logging()}.
+ */
+final class LoggingTracer implements Tracer {
+    static final LoggingTracer INSTANCE = new LoggingTracer();
+
+    // Logger of each State Machine class, looked up once
+    private static final ClassValue<Logger> LOGGERS = new ClassValue<Logger>() {
+        @Override protected Logger computeValue(Class<?> type) {
+            return LoggerFactory.getLogger(type);
+        }
+    };
+
+    private LoggingTracer() {
+    }
+
+    @Override public void trace(TraceRecord record) {
+        Logger log = LOGGERS.get(record.getStateMachine().getClass());
+        if (log.isDebugEnabled()) {
+            log.debug("execute - {}", record);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package org.nextstate.statemachine;
+
+import static org.nextstate.statemachine.ClassFileWriter.ACC_FINAL;
+import static org.nextstate.statemachine.ClassFileWriter.ACC_PRIVATE;
+import static org.nextstate.statemachine.ClassFileWriter.ACC_PROTECTED;
+import static org.nextstate.statemachine.ClassFileWriter.ACC_PUBLIC;
+import static org.nextstate.statemachine.ClassFileWriter.ACC_STATIC;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a {@link MachineDefinition} into a {@link Dispatcher} class generated at runtime and specialized for it.
+ * <br>
+ * The generated class switches over the state ordinal and the {@link EventType} id of the event. The guards and
+ * actions of the transitions are static final fields of the class, so the JIT sees one guard and one action per call
+ * site instead of the megamorphic calls of the interpreter. The byte code is written without any external tool and
+ * loaded as a hidden class on Java 15 and later, or by a dedicated class loader before that.
+ * <br>
+ * The compiled definition walks the nesting levels exactly as the interpreted one, so entry and exit actions and the
+ * completion of Composite States by their {@link FinalState} are performed in the same order.
+ * <pre>
+ * MachineDefinition phone = MachineCompiler.compile(new PhoneStateMachine());
+ * MachineInstance session = phone.newInstance();
+ * </pre>
+ */
+public final class MachineCompiler {
+    private static final String PACKAGE = "org/nextstate/statemachine/";
+    private static final String DISPATCHER = PACKAGE + "Dispatcher";
+    private static final String EVENT = PACKAGE + "Event";
+    private static final String ACTION = PACKAGE + "Action";
+    private static final String PREDICATE = "java/util/function/Predicate";
+    private static final String COMPILER = PACKAGE + "MachineCompiler";
+
+    // States per generated method, so large machines do not exceed the method size limit.
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+    private static final ThreadLocal<Object[]> CONSTANTS = new ThreadLocal<>();
+
+    private MachineCompiler() {
+    }
+
+    /**
+     * Compile the definition.
+     *
+     * @param definition the definition
+     * @return a definition with the same states, executed by a generated dispatcher
+     */
+    public static MachineDefinition compile(MachineDefinition definition) {
+        Generator generator = new Generator(definition, PACKAGE + identifier(definition.getName()) + "$Compiled"
+                + CLASS_COUNT.incrementAndGet());
+        byte[] classFile = generator.generate();
+        Object[] constants = generator.constants.toArray();
+
+        CONSTANTS.set(constants);
+        try {
+            Class<?> dispatcherClass = define(generator.writer.getClassName().replace('/', '.'), classFile);
+            return new MachineDefinition(definition, (Dispatcher) dispatcherClass.getDeclaredConstructor()
+                    .newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to compile " + definition.getName(), e);
+        } finally {
+            CONSTANTS.remove();
+        }
+    }
+
+    /**
+     * Compile the State Machine, see {@link MachineDefinition#of(StateMachine)}.
+     *
+     * @param stateMachine a built and validated State Machine
+     * @return a definition executed by a generated dispatcher
+     */
+    public static MachineDefinition compile(StateMachine stateMachine) {
+        return compile(MachineDefinition.of(stateMachine));
+    }
+
+    /**
+     * Called by the static initializer of the generated class to get its guards and actions. Not for other use.
+     *
+     * @return the constants of the class being compiled on this thread
+     */
+    public static Object[] constants() {
+        Object[] constants = CONSTANTS.get();
+        if (constants == null) {
+            throw new IllegalStateException("No machine being compiled");
+        }
+        return constants;
+    }
+
+    private static Class<?> define(String className, byte[] classFile) throws ReflectiveOperationException {
+        Method defineHiddenClass;
+        Class<?> classOption;
+        try {
+            classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+                    boolean.class, Array.newInstance(classOption, 0).getClass());
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            // Before Java 15
+            return Class.forName(className, true, new GeneratedClassLoader(className, classFile));
+        }
+        try {
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) defineHiddenClass.invoke(MethodHandles.lookup(),
+                    classFile, true, Array.newInstance(classOption, 0));
+            return lookup.lookupClass();
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Failed to define " + className, e.getCause());
+        }
+    }
+
+    private static String identifier(String name) {
+        StringBuilder identifier = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return identifier.length() == 0 || !Character.isJavaIdentifierStart(identifier.charAt(0)) ?
+                "M" + identifier : identifier.toString();
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private final String className;
+        private final byte[] classFile;
+
+        GeneratedClassLoader(String className, byte[] classFile) {
+            super(MachineCompiler.class.getClassLoader());
+            this.className = className;
+            this.classFile = classFile;
+        }
+
+        @Override protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (name.equals(className)) {
+                return defineClass(name, classFile, 0, classFile.length);
+            }
+            throw new ClassNotFoundException(name);
+        }
+    }
+
+    /**
+     * Writes the class. Methods of the generated class:
+     * <ul>
+     * <li>transition, entry and exit switch over the chunk of the state ordinal and call the method of the chunk</li>
+     * <li>transitions&lt;chunk&gt; switch over the state ordinal and call the method of the state</li>
+     * <li>state&lt;ordinal&gt; switch over the event id and tests the candidate transitions in order</li>
+     * <li>entry&lt;chunk&gt; and exit&lt;chunk&gt; switch over the state ordinal and perform the action</li>
+     * </ul>
+     */
+    private static final class Generator {
+        private final MachineDefinition definition;
+        private final ClassFileWriter writer;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, String> constantFields = new IdentityHashMap<>();
+
+        Generator(MachineDefinition definition, String className) {
+            this.definition = definition;
+            this.writer = new ClassFileWriter(className, DISPATCHER);
+        }
+
+        byte[] generate() {
+            constructor();
+
+            int chunks = (definition.stateCount() + CHUNK - 1) / CHUNK;
+            chunkSwitch("transition", "(IL" + EVENT + ";)I", "transitions", "(L" + EVENT + ";I)I", chunks);
+            chunkSwitch("entry", "(I)V", "entry", "(I)V", chunks);
+            chunkSwitch("exit", "(I)V", "exit", "(I)V", chunks);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                transitions(chunk);
+                actions("entry", chunk, true);
+                actions("exit", chunk, false);
+            }
+            for (int state = 0; state < definition.stateCount(); state++) {
+                if (definition.transitionTable(state).size() > 0) {
+                    state(state);
+                }
+            }
+
+            // The constants are known when all methods are written
+            staticInitializer();
+            return writer.toByteArray();
+        }
+
+        private void constructor() {
+            ClassFileWriter.Code code = writer.method(ACC_PUBLIC, "<init>", "()V", 1);
+            code.aload(0).invokespecial(DISPATCHER, "<init>", "()V").vreturn();
+            code.end();
+        }
+
+        private void staticInitializer() {
+            ClassFileWriter.Code code = writer.method(ACC_STATIC, "<clinit>", "()V", 1);
+            code.invokestatic(COMPILER, "constants", "()[Ljava/lang/Object;").astore(0);
+            for (int i = 0; i < constants.size(); i++) {
+                String type = constants.get(i) instanceof Action ? ACTION : PREDICATE;
+                code.aload(0).iconst(i).aaload().checkcast(type).putstatic(writer.getClassName(), "c" + i,
+                        "L" + type + ";");
+            }
+            code.vreturn();
+            code.end();
+        }
+
+        /**
+         * Overrides a Dispatcher method by calling the static method of the chunk of the state ordinal.
+         */
+        private void chunkSwitch(String method, String descriptor, String chunkMethod, String chunkDescriptor,
+                int chunks) {
+            boolean transition = method.equals("transition");
+            ClassFileWriter.Code code = writer.method(ACC_PROTECTED, method, descriptor, 3);
+            ClassFileWriter.Label none = code.label();
+            ClassFileWriter.Label[] labels = new ClassFileWriter.Label[chunks];
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                labels[chunk] = code.label();
+            }
+            code.iload(1).iconst(CHUNK_BITS).ishr().tableswitch(0, chunks - 1, none, labels);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                code.mark(labels[chunk]);
+                if (transition) {
+                    code.aload(2).iload(1).invokestatic(writer.getClassName(), chunkMethod + chunk, chunkDescriptor)
+                            .ireturn();
+                } else {
+                    code.iload(1).invokestatic(writer.getClassName(), chunkMethod + chunk, chunkDescriptor)
+                            .vreturn();
+                }
+            }
+            code.mark(none);
+            if (transition) {
+                code.iconst(-1).ireturn();
+            } else {
+                code.vreturn();
+            }
+            code.end();
+        }
+
+        private void transitions(int chunk) {
+            int low = chunk * CHUNK;
+            int high = Math.min(definition.stateCount(), low + CHUNK) - 1;
+
+            ClassFileWriter.Code code = writer.method(ACC_PRIVATE | ACC_STATIC, "transitions" + chunk,
+                    "(L" + EVENT + ";I)I", 2);
+            ClassFileWriter.Label none = code.label();
+            ClassFileWriter.Label[] labels = new ClassFileWriter.Label[high - low + 1];
+            for (int state = low; state <= high; state++) {
+                labels[state - low] = definition.transitionTable(state).size() > 0 ? code.label() : none;
+            }
+            code.iload(1).tableswitch(low, high, none, labels);
+            for (int state = low; state <= high; state++) {
+                if (labels[state - low] != none) {
+                    code.mark(labels[state - low]);
+                    code.aload(0).invokestatic(writer.getClassName(), "state" + state, "(L" + EVENT + ";)I")
+                            .ireturn();
+                }
+            }
+            code.mark(none).iconst(-1).ireturn();
+            code.end();
+        }
+
+        private void state(int state) {
+            TransitionTable table = definition.transitionTable(state);
+            ClassFileWriter.Code code = writer.method(ACC_PRIVATE | ACC_STATIC, "state" + state,
+                    "(L" + EVENT + ";)I", 1);
+
+            int[] eventIds = table.eventIds();
+            ClassFileWriter.Label predicates = code.label();
+            if (eventIds.length > 0) {
+                ClassFileWriter.Label[] labels = new ClassFileWriter.Label[eventIds.length];
+                for (int i = 0; i < eventIds.length; i++) {
+                    labels[i] = code.label();
+                }
+                code.aload(0).invokevirtual(EVENT, "getId", "()I").lookupswitch(predicates, eventIds, labels);
+                for (int i = 0; i < eventIds.length; i++) {
+                    code.mark(labels[i]);
+                    candidates(code, state, table.candidates(eventIds[i]));
+                }
+            }
+            code.mark(predicates);
+            candidates(code, state, table.predicateCandidates());
+            code.end();
+        }
+
+        /**
+         * Test the candidate transitions in order, returning the target ordinal of the first match, else -1.
+         */
+        private void candidates(ClassFileWriter.Code code, int state, int[] candidates) {
+            TransitionTable table = definition.transitionTable(state);
+            for (int index : candidates) {
+                Transition transition = table.get(index);
+                ClassFileWriter.Label next = code.label();
+                if (!transition.isGuardedByEventOnly()) {
+                    code.getstatic(writer.getClassName(), constant(transition.guard), "L" + PREDICATE + ";")
+                            .aload(0)
+                            .invokeinterface(PREDICATE, "test", "(Ljava/lang/Object;)Z", 1)
+                            .ifeq(next);
+                }
+                if (transition.onTransition.isPresent()) {
+                    code.getstatic(writer.getClassName(), constant(transition.onTransition.get()), "L" + ACTION + ";")
+                            .invokeinterface(ACTION, "perform", "()V", 0);
+                }
+                code.iconst(definition.transitionTarget(state, index)).ireturn();
+                code.mark(next);
+            }
+            code.iconst(-1).ireturn();
+        }
+
+        private void actions(String method, int chunk, boolean entry) {
+            int low = chunk * CHUNK;
+            int high = Math.min(definition.stateCount(), low + CHUNK) - 1;
+
+            List<Integer> states = new ArrayList<>();
+            for (int state = low; state <= high; state++) {
+                if ((entry ? definition.entryAction(state) : definition.exitAction(state)) != null) {
+                    states.add(state);
+                }
+            }
+
+            ClassFileWriter.Code code = writer.method(ACC_PRIVATE | ACC_STATIC, method + chunk, "(I)V", 1);
+            ClassFileWriter.Label none = code.label();
+            ClassFileWriter.Label[] labels = new ClassFileWriter.Label[states.size()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = code.label();
+            }
+            code.iload(0).lookupswitch(none, states.stream().mapToInt(Integer::intValue).toArray(), labels);
+            for (int i = 0; i < labels.length; i++) {
+                int state = states.get(i);
+                Action action = entry ? definition.entryAction(state) : definition.exitAction(state);
+                code.mark(labels[i])
+                        .getstatic(writer.getClassName(), constant(action), "L" + ACTION + ";")
+                        .invokeinterface(ACTION, "perform", "()V", 0)
+                        .vreturn();
+            }
+            code.mark(none).vreturn();
+            code.end();
+        }
+
+        /**
+         * @return name of the static final field holding the guard or action
+         */
+        private String constant(Object value) {
+            String field = constantFields.get(value);
+            if (field == null) {
+                field = "c" + constants.size();
+                constants.add(value);
+                constantFields.put(value, field);
+                writer.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, field,
+                        "L" + (value instanceof Action ? ACTION : PREDICATE) + ";");
+            }
+            return field;
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Immutable and thread safe definition of a State Machine, shared by any number of {@link MachineInstance}s.
+ * <br>
+ * The states and transitions built with the builders are indexed once. Every state is given an ordinal and the
+ * definition keeps its own copy of the transitions, so later changes to the builder graph do not affect it. The
+ * mutable active state configuration lives in the {@link MachineInstance}, not in the states.
+ * <br>
+ * The definition executes events with the same semantics as {@link StateMachine#execute(Event)}. Guards and actions
+ * are shared between the instances and must be thread safe if the instances are used from several threads. Whether a
+ * state completes its Composite State, having a transition on {@link FinalState#FINAL_EVENT} to a {@link FinalState},
+ * is checked once when the definition is created.
+ * <br>
+ * Build the State Machine once and create the instances from the definition:
+ * <pre>
+ * MachineDefinition phone = MachineDefinition.of(new PhoneStateMachine());
+ * MachineInstance session = phone.newInstance();
+ * session.execute(new CallDialed());
+ * </pre>
+ */
+public final class MachineDefinition {
+    private final String name;
+    private final int initialState;
+    private final int[] topLevelStates;
+    private final int maxDepth;
+
+    // Indexed by state ordinal
+    private final State[] states;
+    private final boolean[] composite;
+    private final int[] initialInnerState;
+    private final int[][] innerStates;
+    private final Action[] entryActions;
+    private final Action[] exitActions;
+    private final TransitionTable[] transitions;
+    private final int[][] transitionTargets;
+    private final boolean[] completesToFinalState;
+    // Delays in nanoseconds and timeout events of the timed transitions of each state, by increasing delay
+    private final long[][] timerDelays;
+    private final Event[][] timerEvents;
+    private final boolean timed;
+    // Index among the deferred event types by event type id, -1 if no state defers the type, and the deferred types
+    // of each state as a bit set of these indexes
+    private final int[] deferredIndex;
+    private final int deferredTypes;
+    private final long[][] deferredMasks;
+    // Ordinal of each state by name among the states of its parent, the top level states last
+    private final Map<String, Integer>[] stateNames;
+
+    private final Map<State, Integer> ordinals;
+    private final Dispatcher dispatcher;
+    private final MachineListener listener;
+
+    private MachineDefinition(String name, List<State> topLevel, State initial) {
+        this.name = name;
+        this.ordinals = new IdentityHashMap<>();
+
+        // Ordinals are assigned breadth first in declaration order, top level states first.
+        List<State> indexed = new ArrayList<>();
+        Deque<State> pending = new ArrayDeque<>();
+        for (State state : topLevel) {
+            index(state, indexed, pending);
+        }
+        index(initial, indexed, pending);
+        while (!pending.isEmpty()) {
+            State state = pending.poll();
+            if (state instanceof CompositeState) {
+                CompositeState compositeState = (CompositeState) state;
+                compositeState.getStates().forEach(s -> index(s, indexed, pending));
+                if (compositeState.getInitialTransition() != null) {
+                    index(compositeState.getInitialTransition().getTargetState(), indexed, pending);
+                }
+            }
+            ((AbstractState) state).transitions.forEach(t -> index(t.getTargetState(), indexed, pending));
+        }
+
+        int count = indexed.size();
+        this.states = indexed.toArray(new State[count]);
+        this.composite = new boolean[count];
+        this.initialInnerState = new int[count];
+        this.innerStates = new int[count][];
+        this.entryActions = new Action[count];
+        this.exitActions = new Action[count];
+        this.transitions = new TransitionTable[count];
+        this.transitionTargets = new int[count][];
+        this.completesToFinalState = new boolean[count];
+        this.timerDelays = new long[count][];
+        this.timerEvents = new Event[count][];
+
+        boolean anyTimed = false;
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            AbstractState state = (AbstractState) states[ordinal];
+            entryActions[ordinal] = state.entry.orElse(null);
+            exitActions[ordinal] = state.exit.orElse(null);
+            transitions[ordinal] = new TransitionTable(state.transitions);
+            transitionTargets[ordinal] = new int[transitions[ordinal].size()];
+            for (int i = 0; i < transitions[ordinal].size(); i++) {
+                transitionTargets[ordinal][i] = ordinals.get(transitions[ordinal].get(i).getTargetState());
+            }
+            int finalTransition = transitions[ordinal].match(FinalState.FINAL);
+            completesToFinalState[ordinal] = finalTransition >= 0
+                    && transitions[ordinal].get(finalTransition).getTargetState() instanceof FinalState;
+            anyTimed |= indexTimers(ordinal);
+            initialInnerState[ordinal] = -1;
+            if (state instanceof CompositeState) {
+                CompositeState compositeState = (CompositeState) state;
+                composite[ordinal] = true;
+                innerStates[ordinal] = ordinalsOf(compositeState.getStates());
+                if (compositeState.getInitialTransition() != null) {
+                    initialInnerState[ordinal] = ordinals.get(compositeState.getInitialTransition().getTargetState());
+                }
+            } else {
+                innerStates[ordinal] = new int[0];
+            }
+        }
+        this.timed = anyTimed;
+        this.deferredIndex = indexDeferredTypes();
+        this.deferredTypes = (int) Arrays.stream(deferredIndex).filter(index -> index >= 0).count();
+        this.deferredMasks = deferredMasks();
+        this.topLevelStates = ordinalsOf(topLevel);
+        this.initialState = ordinals.get(initial);
+
+        int depth = 1;
+        int[] depths = new int[count];
+        boolean[] visiting = new boolean[count];
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            depth = Math.max(depth, nestingDepth(ordinal, depths, visiting));
+        }
+        this.maxDepth = depth;
+        this.stateNames = stateNames();
+        this.dispatcher = new InterpretedDispatcher();
+        this.listener = null;
+    }
+
+    /**
+     * Copy of the definition using another dispatcher, notifying the listener of the definition.
+     */
+    MachineDefinition(MachineDefinition definition, Dispatcher dispatcher) {
+        this(definition, dispatcher, definition.listener);
+    }
+
+    private MachineDefinition(MachineDefinition definition, Dispatcher dispatcher, MachineListener listener) {
+        this.name = definition.name;
+        this.initialState = definition.initialState;
+        this.topLevelStates = definition.topLevelStates;
+        this.maxDepth = definition.maxDepth;
+        this.states = definition.states;
+        this.composite = definition.composite;
+        this.initialInnerState = definition.initialInnerState;
+        this.innerStates = definition.innerStates;
+        this.entryActions = definition.entryActions;
+        this.exitActions = definition.exitActions;
+        this.transitions = definition.transitions;
+        this.transitionTargets = definition.transitionTargets;
+        this.completesToFinalState = definition.completesToFinalState;
+        this.timerDelays = definition.timerDelays;
+        this.timerEvents = definition.timerEvents;
+        this.timed = definition.timed;
+        this.deferredIndex = definition.deferredIndex;
+        this.deferredTypes = definition.deferredTypes;
+        this.deferredMasks = definition.deferredMasks;
+        this.stateNames = definition.stateNames;
+        this.ordinals = definition.ordinals;
+        this.listener = listener;
+        Dispatcher uninstrumented = dispatcher instanceof InstrumentedDispatcher
+                ? ((InstrumentedDispatcher) dispatcher).dispatcher : dispatcher;
+        this.dispatcher = listener == null ? uninstrumented : new InstrumentedDispatcher(uninstrumented);
+    }
+
+    /**
+     * Create a definition from a State Machine built with the builders. The State Machine is only used as a template,
+     * its graph is indexed and its initial state becomes the initial state of every new instance.
+     *
+     * @param stateMachine a built and validated State Machine
+     * @return the definition
+     */
+    public static MachineDefinition of(StateMachine stateMachine) {
+        if (stateMachine.getInitialState() == null) {
+            throw new IllegalStateException("No active state");
+        }
+        return new MachineDefinition(stateMachine.getName(), stateMachine.getStates(),
+                stateMachine.getInitialState());
+    }
+
+    /**
+     * Create a definition from states built with the builders.
+     *
+     * @param name         name of the State Machine
+     * @param states       the top level states
+     * @param initialState the initial active state of every new instance
+     * @return the definition
+     */
+    public static MachineDefinition of(String name, List<State> states, State initialState) {
+        if (initialState == null) {
+            throw new IllegalStateException("No active state");
+        }
+        return new MachineDefinition(name, states, initialState);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Create a new instance with the initial state as active state. Entry actions of the initial state are performed
+     * as for {@link StateMachine#activeState(State)}.
+     *
+     * @return the new instance
+     */
+    public MachineInstance newInstance() {
+        MachineInstance instance = new MachineInstance(this, maxDepth);
+        enter(instance, 0, initialState);
+        return instance;
+    }
+
+    /**
+     * Create a new instance arming the timers of its timed transitions on the wheel, see
+     * {@link Transition.TransitionBuilder#after(java.time.Duration)}. Execute the events of the instance on the thread
+     * advancing the wheel.
+     *
+     * @return the new instance
+     */
+    public MachineInstance newInstance(TimingWheel wheel) {
+        MachineInstance instance = new MachineInstance(this, maxDepth, wheel);
+        enter(instance, 0, initialState);
+        return instance;
+    }
+
+    /**
+     * Copy of the definition notifying the listener. The transitions are then selected by the definition, also if
+     * it was compiled, to report the transition taken. Without a listener nothing is measured.
+     *
+     * @param listener the listener, or null to notify none
+     * @return the definition notifying the listener
+     */
+    public MachineDefinition withListener(MachineListener listener) {
+        return new MachineDefinition(this, dispatcher, listener);
+    }
+
+    public MachineListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return true if a state has timed transitions
+     */
+    public boolean hasTimedTransitions() {
+        return timed;
+    }
+
+    /**
+     * @return true if a state defers events
+     */
+    public boolean hasDeferredEvents() {
+        return deferredTypes > 0;
+    }
+
+    /**
+     * Create an instance executed from any thread, see {@link ConcurrentMachineInstance}.
+     *
+     * @return new instance in the initial state
+     */
+    public ConcurrentMachineInstance newConcurrentInstance() {
+        return new ConcurrentMachineInstance(this);
+    }
+
+    // =================
+    //      Execution
+    // =================
+    void execute(MachineInstance instance, Event event) {
+        if (instance.depth == 0) {
+            throw new IllegalStateException("No active state");
+        }
+        if (listener != null) {
+            executeListened(instance, event);
+            return;
+        }
+        step(instance, event);
+    }
+
+    private void executeListened(MachineInstance instance, Event event) {
+        listener.eventReceived(event);
+        long start = System.nanoTime();
+        long transitions = instance.transitions;
+        State innermost = states[instance.configuration[instance.depth - 1]];
+        try {
+            step(instance, event);
+        } finally {
+            if (instance.transitions == transitions) {
+                listener.eventUnhandled(innermost, event);
+            }
+            listener.eventProcessed(event, System.nanoTime() - start);
+        }
+    }
+
+    private void step(MachineInstance instance, Event event) {
+        int target = dispatch(instance, 0, event);
+
+        // Check if new active state and execute onExit on the old and onEntry on the new ...
+        if (target >= 0) {
+            instance.transitions++;
+            exit(instance, 0);
+            enter(instance, 0, target);
+        }
+    }
+
+    private int dispatch(MachineInstance instance, int level, Event event) {
+        int state = instance.configuration[level];
+        if (composite[state]) {
+            if (instance.depth <= level + 1) {
+                throw new IllegalStateException("No internal active state in Composite State: " + states[state].getName());
+            }
+            int target = dispatch(instance, level + 1, event);
+            if (target >= 0) {
+                instance.transitions++;
+                exit(instance, level + 1);
+                enter(instance, level + 1, target);
+
+                // If next state is of type Final State then execute the final transition on the Composite State.
+                if (completesToFinalState[target]) {
+                    return dispatcher.transition(state, FinalState.FINAL);
+                }
+            }
+        }
+        return dispatcher.transition(state, event);
+    }
+
+    /**
+     * Perform the exit action of the active state at the level. Its active inner states are deactivated without exit
+     * action, only reported to the listener, innermost first.
+     */
+    private void exit(MachineInstance instance, int level) {
+        if (listener != null) {
+            for (int inner = instance.depth - 1; inner > level; inner--) {
+                listener.stateExited(states[instance.configuration[inner]], 0);
+            }
+        }
+        dispatcher.exit(instance.configuration[level]);
+    }
+
+    /**
+     * Make the state active at the level. A Composite State does not perform its entry action but sets the target of
+     * its initial transition as inner active state, as {@link CompositeState#onEntry()}. Both are only reported to the
+     * listener.
+     */
+    void enter(MachineInstance instance, int level, int state) {
+        instance.activate(level, state);
+        if (composite[state]) {
+            entered(state);
+            int inner = initialInnerState[state];
+            if (inner < 0) {
+                throw new IllegalStateException("No initial transition in Composite State: " + states[state].getName());
+            }
+            if (composite[inner]) {
+                enter(instance, level + 1, inner);
+            } else {
+                instance.activate(level + 1, inner);
+                entered(inner);
+            }
+        } else {
+            dispatcher.entry(state);
+        }
+    }
+
+    /**
+     * Report a state made active without entry action.
+     */
+    private void entered(int state) {
+        if (listener != null) {
+            listener.stateEntered(states[state], 0);
+        }
+    }
+
+    // ===========================
+    //      Active configuration
+    // ===========================
+    void activeStateConfiguration(MachineInstance instance, List<String> activeStateConfiguration) {
+        activeStateConfiguration(instance, activeStateConfiguration, false);
+    }
+
+    /**
+     * Set the configuration, resolving the names through the index of each parent.
+     *
+     * @param entryActions true to enter a simple state at the last level as a transition to it, performing its entry
+     *                     action
+     */
+    void activeStateConfiguration(MachineInstance instance, List<String> activeStateConfiguration,
+            boolean entryActions) {
+        ListIterator<String> configurationIterator = activeStateConfiguration.listIterator();
+        Map<String, Integer> candidates = stateNames[states.length];
+        int level = 0;
+        while (true) {
+            String stateName = configurationIterator.next();
+            Integer ordinal = candidates.get(stateName);
+            if (ordinal == null) {
+                throw new IllegalStateException("No state named " + stateName
+                        + " exists. Add all states to the StateMachine before setting active state configuration.");
+            }
+            int state = ordinal;
+
+            if (!configurationIterator.hasNext()) {
+                if (composite[state] || entryActions) {
+                    // no more elements in configuration: initial transition of a composite state, or entered fresh
+                    enter(instance, level, state);
+                } else {
+                    instance.activate(level, state);
+                }
+                return;
+            }
+            if (!composite[state]) {
+                String nextStateName = configurationIterator.next();
+                throw new IllegalStateException(
+                        "Current state is not Composite State but configuration element remains: " + nextStateName);
+            }
+            instance.activate(level++, state);
+            candidates = stateNames[state];
+        }
+    }
+
+    // =================
+    //      Ordinals
+    // =================
+    int stateCount() {
+        return states.length;
+    }
+
+    State state(int ordinal) {
+        return states[ordinal];
+    }
+
+    boolean isComposite(int ordinal) {
+        return composite[ordinal];
+    }
+
+    int initialState() {
+        return initialState;
+    }
+
+    /**
+     * @return ordinal of the target of the initial transition of a Composite State, or -1
+     */
+    int initialInnerState(int ordinal) {
+        return initialInnerState[ordinal];
+    }
+
+    boolean completesToFinalState(int ordinal) {
+        return completesToFinalState[ordinal];
+    }
+
+    int[] topLevelStates() {
+        return topLevelStates;
+    }
+
+    int[] innerStates(int ordinal) {
+        return innerStates[ordinal];
+    }
+
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    TransitionTable transitionTable(int ordinal) {
+        return transitions[ordinal];
+    }
+
+    int transitionTarget(int ordinal, int index) {
+        return transitionTargets[ordinal][index];
+    }
+
+    Action entryAction(int ordinal) {
+        return entryActions[ordinal];
+    }
+
+    Action exitAction(int ordinal) {
+        return exitActions[ordinal];
+    }
+
+    Dispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    boolean isCompiled() {
+        Dispatcher uninstrumented = dispatcher instanceof InstrumentedDispatcher
+                ? ((InstrumentedDispatcher) dispatcher).dispatcher : dispatcher;
+        return !(uninstrumented instanceof InterpretedDispatcher);
+    }
+
+    // =================
+    //      Indexing
+    // =================
+    private void index(State state, List<State> indexed, Deque<State> pending) {
+        if (ordinals.containsKey(state)) {
+            return;
+        }
+        if (!(state instanceof AbstractState) || state instanceof OrthogonalState) {
+            throw new IllegalStateException("State " + state.getName() + " is not supported by MachineDefinition.");
+        }
+        ordinals.put(state, indexed.size());
+        indexed.add(state);
+        pending.add(state);
+    }
+
+    long[] timerDelays(int ordinal) {
+        return timerDelays[ordinal];
+    }
+
+    Event[] timerEvents(int ordinal) {
+        return timerEvents[ordinal];
+    }
+
+    /**
+     * @return true if the state has timed transitions
+     */
+    private boolean indexTimers(int ordinal) {
+        List<Transition> timedTransitions = new ArrayList<>();
+        for (int i = 0; i < transitions[ordinal].size(); i++) {
+            if (transitions[ordinal].get(i).getDelay() != null) {
+                timedTransitions.add(transitions[ordinal].get(i));
+            }
+        }
+        timedTransitions.sort((a, b) -> a.getDelay().compareTo(b.getDelay()));
+        timerDelays[ordinal] = new long[timedTransitions.size()];
+        timerEvents[ordinal] = new Event[timedTransitions.size()];
+        for (int i = 0; i < timedTransitions.size(); i++) {
+            timerDelays[ordinal][i] = timedTransitions.get(i).getDelay().toNanos();
+            timerEvents[ordinal][i] = timedTransitions.get(i).timeout();
+        }
+        return !timedTransitions.isEmpty();
+    }
+
+    int deferredTypes() {
+        return deferredTypes;
+    }
+
+    /**
+     * @return index of the event type among the deferred event types, -1 if no state defers it
+     */
+    int deferredIndex(int eventId) {
+        return eventId >= 0 && eventId < deferredIndex.length ? deferredIndex[eventId] : -1;
+    }
+
+    /**
+     * @return the deferred event types of the state, a bit per index of {@link #deferredIndex(int)}
+     */
+    long[] deferredMask(int ordinal) {
+        return deferredMasks[ordinal];
+    }
+
+    private int[] indexDeferredTypes() {
+        int maxId = -1;
+        for (State state : states) {
+            for (EventType type : ((AbstractState) state).deferredEvents) {
+                maxId = Math.max(maxId, type.getId());
+            }
+        }
+        int[] index = new int[maxId + 1];
+        Arrays.fill(index, -1);
+        int next = 0;
+        for (State state : states) {
+            for (EventType type : ((AbstractState) state).deferredEvents) {
+                if (index[type.getId()] < 0) {
+                    index[type.getId()] = next++;
+                }
+            }
+        }
+        return index;
+    }
+
+    private long[][] deferredMasks() {
+        long[][] masks = new long[states.length][];
+        for (int ordinal = 0; ordinal < states.length; ordinal++) {
+            masks[ordinal] = new long[(deferredTypes + 63) >>> 6];
+            for (EventType type : ((AbstractState) states[ordinal]).deferredEvents) {
+                int index = deferredIndex[type.getId()];
+                masks[ordinal][index >>> 6] |= 1L << index;
+            }
+        }
+        return masks;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Map<String, Integer>[] stateNames() {
+        Map<String, Integer>[] names = new Map[states.length + 1];
+        for (int ordinal = 0; ordinal <= states.length; ordinal++) {
+            int[] candidates = ordinal < states.length ? innerStates[ordinal] : topLevelStates;
+            names[ordinal] = new HashMap<>();
+            for (int candidate : candidates) {
+                // The first state declared with a name is the one configured
+                names[ordinal].putIfAbsent(states[candidate].getName(), candidate);
+            }
+        }
+        return names;
+    }
+
+    private int[] ordinalsOf(List<State> stateList) {
+        return stateList.stream().mapToInt(ordinals::get).distinct().toArray();
+    }
+
+    private final class InterpretedDispatcher extends Dispatcher {
+
+        @Override protected int transition(int state, Event event) {
+            int index = transitions[state].match(event);
+            if (index < 0) {
+                return -1;
+            }
+            transitions[state].get(index).onTransition.ifPresent(Action::perform);
+            return transitionTargets[state][index];
+        }
+
+        @Override protected void entry(int state) {
+            if (entryActions[state] != null) {
+                entryActions[state].perform();
+            }
+        }
+
+        @Override protected void exit(int state) {
+            if (exitActions[state] != null) {
+                exitActions[state].perform();
+            }
+        }
+    }
+
+    /**
+     * Selects the transitions as the interpreter and delegates the entry and exit actions, timing the actions for the
+     * listener.
+     */
+    private final class InstrumentedDispatcher extends Dispatcher {
+        private final Dispatcher dispatcher;
+
+        InstrumentedDispatcher(Dispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override protected int transition(int state, Event event) {
+            int index = transitions[state].match(event);
+            if (index < 0) {
+                return -1;
+            }
+            Transition transition = transitions[state].get(index);
+            long start = System.nanoTime();
+            transition.onTransition.ifPresent(Action::perform);
+            listener.transitionTaken(states[state], transition, System.nanoTime() - start);
+            return transitionTargets[state][index];
+        }
+
+        @Override protected void entry(int state) {
+            long start = System.nanoTime();
+            dispatcher.entry(state);
+            listener.stateEntered(states[state], System.nanoTime() - start);
+        }
+
+        @Override protected void exit(int state) {
+            long start = System.nanoTime();
+            dispatcher.exit(state);
+            listener.stateExited(states[state], System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param depths nesting depth of each Composite State computed so far, 0 if not yet computed, so each is walked
+     *               once
+     */
+    private int nestingDepth(int state, int[] depths, boolean[] visiting) {
+        if (!composite[state] || visiting[state]) {
+            return 1;
+        }
+        if (depths[state] > 0) {
+            return depths[state];
+        }
+        visiting[state] = true;
+        int depth = 1;
+        for (int inner : innerStates[state]) {
+            depth = Math.max(depth, 1 + nestingDepth(inner, depths, visiting));
+        }
+        if (initialInnerState[state] >= 0) {
+            depth = Math.max(depth, 1 + nestingDepth(initialInnerState[state], depths, visiting));
+        }
+        visiting[state] = false;
+        depths[state] = depth;
+        return depth;
+    }
+}
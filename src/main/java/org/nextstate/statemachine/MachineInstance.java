@@ -0,0 +1,317 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A running instance of a {@link MachineDefinition}. Holds only the active state configuration, the ordinals of the
+ * active state at each nesting level, so creating one is cheap and the state graph is shared.
+ * <br>
+ * An instance is not thread safe. Execute events for an instance from one thread at the time.
+ * <br>
+ * Events are processed to completion as by {@link StateMachine#execute(Event)}.
+ * <br>
+ * An instance created with a {@link TimingWheel} arms a timer for each active state with timed transitions when the
+ * state is entered, and cancels it when the state is exited. When the timer expires the timed transitions of the state
+ * are tested in order of their delay.
+ * <br>
+ * An event that triggers no transition is deferred if an active state defers it, see
+ * {@link SimpleState.StateBuilder#defer(String...)}, and discarded otherwise. After each transition the deferred events
+ * the new configuration no longer defers are executed again, in order of arrival.
+ */
+public final class MachineInstance {
+    private final MachineDefinition definition;
+
+    int[] configuration;
+    int depth;
+    private EventQueue queue;
+    private boolean executing;
+    // Number of transitions taken, counted by the definition
+    long transitions;
+    private DeferredEvents deferred;
+    private final TimingWheel wheel;
+    // Timer of the active state at each level, if armed
+    private StateTimer[] timers;
+
+    MachineInstance(MachineDefinition definition, int capacity) {
+        this(definition, capacity, null);
+    }
+
+    MachineInstance(MachineDefinition definition, int capacity, TimingWheel wheel) {
+        this.definition = definition;
+        this.configuration = new int[capacity];
+        this.wheel = wheel;
+        this.timers = wheel == null ? null : new StateTimer[capacity];
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Process the event. If called by an action while processing another event, the event is queued and processed
+     * after the current one, in the order executed. If processing fails, the queued events are discarded.
+     *
+     * @param event the event
+     */
+    public void execute(Event event) {
+        if (executing) {
+            if (queue == null) {
+                queue = new EventQueue();
+            }
+            queue.add(event);
+            return;
+        }
+        executing = true;
+        try {
+            process(event);
+            drain();
+        } finally {
+            executing = false;
+            if (queue != null) {
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * @return number of events deferred by the active states, waiting for a state that does not defer them
+     */
+    public int getDeferredCount() {
+        return deferred == null ? 0 : deferred.size();
+    }
+
+    /**
+     * Discard the deferred events.
+     */
+    public void clearDeferred() {
+        if (deferred != null) {
+            deferred.clear();
+        }
+    }
+
+    /**
+     * @return true if the event triggered a transition
+     */
+    private boolean process(Event event) {
+        long before = transitions;
+        definition.execute(this, event);
+        if (transitions == before) {
+            defer(event);
+            return false;
+        }
+        // Only the types no longer deferred are recalled, an event recalled and not handled is discarded
+        Event recalled;
+        while (deferred != null && (recalled = deferred.recall(definition, configuration, depth)) != null) {
+            definition.execute(this, recalled);
+        }
+        return true;
+    }
+
+    private void defer(Event event) {
+        if (definition.deferredTypes() == 0) {
+            return;
+        }
+        int index = definition.deferredIndex(event.getId());
+        if (index < 0) {
+            return;
+        }
+        for (int level = 0; level < depth; level++) {
+            if ((definition.deferredMask(configuration[level])[index >>> 6] & (1L << index)) != 0) {
+                if (deferred == null) {
+                    deferred = new DeferredEvents(definition.deferredTypes());
+                }
+                deferred.add(index, event);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Process the events in order, in one call, as {@link #execute(Event)}.
+     *
+     * @param events the events
+     * @return the counts of the events processed and the active state configuration after the last one
+     */
+    public BatchResult executeAll(Iterable<? extends Event> events) {
+        return executeAll(events, false);
+    }
+
+    /**
+     * Same as {@link #executeAll(Iterable)}, optionally stopping on the first event that triggers no transition. A
+     * deferred event triggers no transition.
+     */
+    public BatchResult executeAll(Iterable<? extends Event> events, boolean stopOnUnhandled) {
+        beginBatch();
+        long start = transitions;
+        int processed = 0;
+        int unhandled = 0;
+        boolean stopped = false;
+        try {
+            for (Event event : events) {
+                processed++;
+                boolean handled = process(event);
+                drain();
+                if (!handled) {
+                    unhandled++;
+                    if (stopOnUnhandled) {
+                        stopped = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            endBatch();
+        }
+        return new BatchResult(processed, transitions - start, unhandled, stopped, getActiveStateConfiguration());
+    }
+
+    /**
+     * Same as {@link #executeAll(Iterable)} with the events of the range of the array.
+     */
+    public BatchResult executeAll(Event[] events, int offset, int length) {
+        return executeAll(events, offset, length, false);
+    }
+
+    /**
+     * Same as {@link #executeAll(Event[], int, int)}, optionally stopping on the first event that triggers no
+     * transition.
+     */
+    public BatchResult executeAll(Event[] events, int offset, int length, boolean stopOnUnhandled) {
+        if (offset < 0 || length < 0 || offset > events.length - length) {
+            throw new IllegalStateException("No events from " + offset + " to " + (offset + length) + " in "
+                    + events.length + " events");
+        }
+        return executeAll(asList(events).subList(offset, offset + length), stopOnUnhandled);
+    }
+
+    private void beginBatch() {
+        if (executing) {
+            throw new IllegalStateException("Events can not be executed in a batch by an action");
+        }
+        if (depth == 0) {
+            throw new IllegalStateException("No active state");
+        }
+        executing = true;
+    }
+
+    private void endBatch() {
+        executing = false;
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Process the events queued by actions.
+     */
+    private void drain() {
+        while (queue != null && !queue.isEmpty()) {
+            process(queue.poll());
+        }
+    }
+
+    public String getActiveStateName() {
+        return getActiveState().getName();
+    }
+
+    /**
+     * @return the active state at the top level
+     */
+    public State getActiveState() {
+        if (depth == 0) {
+            throw new IllegalStateException("No active state");
+        }
+        return definition.state(configuration[0]);
+    }
+
+    public List<String> getActiveStateConfiguration() {
+        List<String> activeStateConfiguration = new ArrayList<>(depth);
+        for (int level = 0; level < depth; level++) {
+            activeStateConfiguration.add(definition.state(configuration[level]).getName());
+        }
+        return activeStateConfiguration;
+    }
+
+    public void activeStateConfiguration(String activeStateConfiguration) {
+        activeStateConfiguration(asList(activeStateConfiguration));
+    }
+
+    public void activeStateConfiguration(List<String> activeStateConfiguration) {
+        definition.activeStateConfiguration(this, activeStateConfiguration);
+    }
+
+    /**
+     * Set the active state at the level. Deeper levels are no longer active.
+     */
+    void activate(int level, int state) {
+        if (level >= configuration.length) {
+            configuration = Arrays.copyOf(configuration, level + 1);
+        }
+        if (timers != null) {
+            updateTimers(level, state);
+        }
+        configuration[level] = state;
+        depth = level + 1;
+    }
+
+    // =================
+    //      Timers
+    // =================
+    /**
+     * Cancel the timers of the states no longer active and arm the timer of the entered state.
+     */
+    private void updateTimers(int level, int state) {
+        if (level >= timers.length) {
+            timers = Arrays.copyOf(timers, level + 1);
+        }
+        for (int inactive = level; inactive < Math.min(depth, timers.length); inactive++) {
+            if (timers[inactive] != null) {
+                wheel.cancel(timers[inactive]);
+            }
+        }
+        long[] delays = definition.timerDelays(state);
+        if (delays.length > 0) {
+            StateTimer timer = timers[level];
+            if (timer == null) {
+                timer = new StateTimer(level);
+                timers[level] = timer;
+            }
+            timer.state = state;
+            timer.next = 0;
+            wheel.schedule(timer, delays[0]);
+        }
+    }
+
+    private void expire(StateTimer timer) {
+        int state = timer.state;
+        int index = timer.next;
+        execute(definition.timerEvents(state)[index]);
+
+        // Still in the state without having been entered again, arm the timer for the next timed transition
+        long[] delays = definition.timerDelays(state);
+        if (!timer.isScheduled() && depth > timer.level && configuration[timer.level] == state
+                && index + 1 < delays.length) {
+            timer.next = index + 1;
+            wheel.reschedule(timer, delays[index + 1] - delays[index]);
+        }
+    }
+
+    private final class StateTimer extends TimingWheel.Timer {
+        private final int level;
+        private int state;
+        // Index of the timed transition of the state fired on expiry
+        private int next;
+
+        StateTimer(int level) {
+            this.level = level;
+        }
+
+        @Override void expire() {
+            MachineInstance.this.expire(this);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.nextstate.statemachine;
+
+/**
+ * Notified of the processing of events by the instances of a {@link MachineDefinition}, see
+ * {@link MachineDefinition#withListener(MachineListener)}. {@link MachineMetrics} counts and times them.
+ * <br>
+ * Called on the thread executing the event, from every instance of the definition, so an implementation shared by
+ * instances used from several threads must be thread safe. Durations are in nanoseconds and only measured when a
+ * listener is registered.
+ */
+public interface MachineListener {
+
+    /**
+     * An event is about to be processed by an instance.
+     */
+    default void eventReceived(Event event) {
+    }
+
+    /**
+     * The event triggered no transition in the active state configuration.
+     *
+     * @param state the innermost active state
+     */
+    default void eventUnhandled(State state, Event event) {
+    }
+
+    /**
+     * The event was processed, including the exit, transition and entry actions it caused.
+     *
+     * @param nanos time spent processing the event
+     */
+    default void eventProcessed(Event event, long nanos) {
+    }
+
+    /**
+     * A transition was taken.
+     *
+     * @param source state the transition leaves
+     * @param nanos  time spent in the transition action
+     */
+    default void transitionTaken(State source, Transition transition, long nanos) {
+    }
+
+    /**
+     * A state was made active, as the target of a transition, as the initial state of a new instance, or as the initial
+     * inner state of an entered Composite State.
+     *
+     * @param nanos time spent in the entry action, 0 for a Composite State and an initial inner state, made active
+     *              without entry action as {@link CompositeState#onEntry()}
+     */
+    default void stateEntered(State state, long nanos) {
+    }
+
+    /**
+     * A state was made inactive, as the source of a transition or as an active inner state of an exited Composite
+     * State, innermost first.
+     *
+     * @param nanos time spent in the exit action, 0 for the inner states, made inactive without exit action
+     */
+    default void stateExited(State state, long nanos) {
+    }
+}
@@ -0,0 +1,709 @@
+package org.nextstate.statemachine;
+
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds State Machines from a textual definition, the actions and guards resolved by name from the ones registered
+ * with the loader, so a flow can be changed without changing code.
+ * <br>
+ * A definition names the State Machine and its initial state, then declares the states. Each {@code state},
+ * {@code composite} or {@code final} line starts a state, and the lines after it, up to the next state, describe it.
+ * Names are words without whitespace, blank lines and lines starting with {@code #} are ignored:
+ * <pre>
+ * machine ATM
+ * initial Off
+ *
+ * state Off
+ *   transition TurnOn on TurnedOn to SelfTest
+ * state SelfTest
+ *   onEntry runSelfTest
+ *   transition TestOk on TestedOk to Idle
+ *   defer CardInserted
+ * state Idle
+ *   transition CardInsert on CardInserted guardedBy cardAccepted to ServingCustomer onTransition readCard
+ * composite ServingCustomer
+ *   initial Authentication
+ *   states Authentication Done
+ *   transition Cancel on Canceled to Idle
+ *   transition Final on FinalEvent to Idle
+ * state Authentication
+ *   transition Authenticate on Authenticated to Done
+ * final Done
+ * </pre>
+ * A transition has an event, a guard, or both. The states not in the {@code states} of a composite are the top level
+ * states of the State Machine, in declaration order.
+ * <br>
+ * Loading with a cache file writes the parsed definition in a compact binary form next to it. Later loads map the
+ * cache and build the State Machine from it without parsing, as long as the checksum of the source it was written from
+ * matches the current source. Otherwise the source is parsed again and the cache rewritten.
+ * <pre>
+ * MachineLoader loader = MachineLoader.machineLoader()
+ *         .action("runSelfTest", selfTest::run)
+ *         .guard("cardAccepted", event -&gt; reader.accepts(event))
+ *         .build();
+ * StateMachine atm = loader.load(Paths.get("atm.machine"), Paths.get("atm.machine.bin"));
+ * </pre>
+ */
+public final class MachineLoader {
+    private static final Logger log = LoggerFactory.getLogger(MachineLoader.class);
+
+    private static final int MAGIC = 0x4E534D44;
+    private static final int FORMAT = 1;
+    // Magic, format, source length, source checksum and body checksum
+    private static final int HEADER = 24;
+    private static final int NONE = -1;
+
+    private static final int SIMPLE = 0;
+    private static final int COMPOSITE = 1;
+    private static final int FINAL = 2;
+    private static final String INITIALIZE = "Initialize";
+
+    private final Map<String, Action> actions;
+    private final Map<String, Predicate<Event>> guards;
+
+    private MachineLoader(Map<String, Action> actions, Map<String, Predicate<Event>> guards) {
+        this.actions = actions;
+        this.guards = guards;
+    }
+
+    /**
+     * Build the State Machine from the definition in the text.
+     *
+     * @throws IllegalStateException if the definition is invalid, with the number of the offending line
+     */
+    public StateMachine parse(String text) {
+        return build(new Parser(text).parse());
+    }
+
+    /**
+     * Build the State Machine from the definition in the UTF-8 encoded source file.
+     */
+    public StateMachine load(Path source) {
+        try {
+            return parse(new String(Files.readAllBytes(source), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read definition " + source, e);
+        }
+    }
+
+    /**
+     * Build the State Machine from the cache if it was written from the current source, else from the source, writing
+     * the cache. A cache that can not be written is logged and skipped.
+     */
+    public StateMachine load(Path source, Path cache) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read definition " + source, e);
+        }
+        int checksum = checksum(bytes, 0, bytes.length);
+        Model model = readCache(cache, bytes.length, checksum);
+        if (model == null) {
+            model = new Parser(new String(bytes, StandardCharsets.UTF_8)).parse();
+            writeCache(cache, model, bytes.length, checksum);
+        }
+        return build(model);
+    }
+
+    private StateMachine build(Model model) {
+        int count = model.states.length;
+        State[] states = new State[count];
+        for (int i = 0; i < count; i++) {
+            create(model, i, states);
+        }
+        List<State> topLevel = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int[] record = model.states[i];
+            AbstractState state = (AbstractState) states[i];
+            if (!model.inner[i]) {
+                topLevel.add(state);
+            }
+            state.entry = Optional.ofNullable(action(model, record[Model.ENTRY]));
+            state.exit = Optional.ofNullable(action(model, record[Model.EXIT]));
+            int position = Model.INNER + record[Model.INNER_COUNT];
+            for (int d = record[position++]; d > 0; d--) {
+                state.defer(model.strings[record[position++]]);
+            }
+            for (int t = record[position++]; t > 0; t--, position += Model.TRANSITION) {
+                int event = record[position + 1];
+                int guard = record[position + 2];
+                state.addTransition(new Transition(event == NONE ? null : model.strings[event],
+                        guard(model, guard), states[record[position + 3]],
+                        model.strings[record[position]], action(model, record[position + 4])));
+            }
+        }
+        return new LoadedStateMachine(model.strings[model.name], topLevel, states[model.initial]);
+    }
+
+    /**
+     * Create the state, after the inner states of a composite.
+     */
+    private static State create(Model model, int index, State[] states) {
+        if (states[index] == null) {
+            int[] record = model.states[index];
+            String name = model.strings[record[Model.NAME]];
+            if (record[Model.KIND] == COMPOSITE) {
+                List<State> inner = new ArrayList<>();
+                for (int i = 0; i < record[Model.INNER_COUNT]; i++) {
+                    inner.add(create(model, record[Model.INNER + i], states));
+                }
+                states[index] = CompositeState.compositeState(name)
+                        .initialTransition(singleTransition(INITIALIZE).to(states[record[Model.INITIAL]]))
+                        .internalStates(inner)
+                        .build();
+            } else {
+                states[index] = record[Model.KIND] == FINAL ? new FinalState(name) : new SimpleState(name);
+            }
+        }
+        return states[index];
+    }
+
+    /**
+     * @throws IllegalStateException if the action is not registered, when building from a cache written for a loader
+     * with other actions
+     */
+    private Action action(Model model, int name) {
+        if (name == NONE) {
+            return null;
+        }
+        Action action = actions.get(model.strings[name]);
+        if (action == null) {
+            throw new IllegalStateException("Unknown action " + model.strings[name]);
+        }
+        return action;
+    }
+
+    private Predicate<Event> guard(Model model, int name) {
+        if (name == NONE) {
+            return null;
+        }
+        Predicate<Event> guard = guards.get(model.strings[name]);
+        if (guard == null) {
+            throw new IllegalStateException("Unknown guard " + model.strings[name]);
+        }
+        return guard;
+    }
+
+    /**
+     * @return the model in the cache, or null if there is no cache, it was written from another source or by another
+     * format, or it is damaged
+     */
+    static Model readCache(Path cache, long sourceLength, int sourceChecksum) {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT || buffer.getLong(8) != sourceLength
+                    || buffer.getInt(16) != sourceChecksum) {
+                return null;
+            }
+            buffer.position(HEADER);
+            if (checksum(buffer.slice()) != buffer.getInt(20)) {
+                log.warn("Ignoring damaged definition cache {}", cache);
+                return null;
+            }
+            return Model.read(buffer);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read definition cache " + cache, e);
+        }
+    }
+
+    private static void writeCache(Path cache, Model model, long sourceLength, int sourceChecksum) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + model.size());
+        buffer.putInt(MAGIC).putInt(FORMAT).putLong(sourceLength).putInt(sourceChecksum).putInt(0);
+        model.write(buffer);
+        buffer.putInt(20, checksum(buffer.array(), HEADER, buffer.capacity() - HEADER));
+        Path directory = cache.toAbsolutePath().getParent();
+        try {
+            // Written to a temporary file and moved, so a reader never maps a partial cache
+            Path temporary = Files.createTempFile(directory, cache.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, buffer.array());
+                try {
+                    Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write definition cache {}", cache, e);
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    private static final class LoadedStateMachine extends StateMachine {
+        private final String name;
+
+        LoadedStateMachine(String name, List<State> states, State initialState) {
+            this.name = name;
+            addStates(states);
+            activeState(initialState);
+        }
+
+        @Override public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Parsed definition, the form written to the cache. The names, events, actions and guards are indexes in the
+     * strings, the states indexes in the states. A state is a record of ints: kind, name, entry action, exit action,
+     * initial inner state, the number of inner states and the inner states, the number of deferred events and the
+     * events, then the number of transitions and for each its name, event, guard, target and action. An absent value
+     * is -1.
+     */
+    static final class Model {
+        static final int KIND = 0;
+        static final int NAME = 1;
+        static final int ENTRY = 2;
+        static final int EXIT = 3;
+        static final int INITIAL = 4;
+        static final int INNER_COUNT = 5;
+        static final int INNER = 6;
+        static final int TRANSITION = 5;
+
+        final String[] strings;
+        final int name;
+        final int initial;
+        final int[][] states;
+        // True for the states of a composite
+        final boolean[] inner;
+
+        Model(String[] strings, int name, int initial, int[][] states) {
+            this.strings = strings;
+            this.name = name;
+            this.initial = initial;
+            this.states = states;
+            this.inner = new boolean[states.length];
+            for (int[] record : states) {
+                for (int i = 0; i < record[INNER_COUNT]; i++) {
+                    inner[record[INNER + i]] = true;
+                }
+            }
+        }
+
+        int size() {
+            int size = 4 * 4;
+            for (String string : strings) {
+                size += 4 + string.getBytes(StandardCharsets.UTF_8).length;
+            }
+            for (int[] record : states) {
+                size += 4 + 4 * record.length;
+            }
+            return size;
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putInt(strings.length);
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            buffer.putInt(name).putInt(initial).putInt(states.length);
+            for (int[] record : states) {
+                buffer.putInt(record.length);
+                for (int value : record) {
+                    buffer.putInt(value);
+                }
+            }
+        }
+
+        static Model read(ByteBuffer buffer) {
+            String[] strings = new String[buffer.getInt()];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, 2 * bytes.length)];
+                }
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            int name = buffer.getInt();
+            int initial = buffer.getInt();
+            int[][] states = new int[buffer.getInt()][];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(states[i]);
+                buffer.position(buffer.position() + 4 * states[i].length);
+            }
+            return new Model(strings, name, initial, states);
+        }
+    }
+
+    /**
+     * Parses the text into a {@link Model}, the references to states resolved once every state is declared.
+     */
+    private final class Parser {
+        private final String text;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final List<ParsedState> states = new ArrayList<>();
+        private final Map<String, Integer> stateIndex = new HashMap<>();
+        private int line;
+        private String name;
+        private String initial;
+        private int initialLine;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Model parse() {
+            ParsedState state = null;
+            for (String content : text.split("\r?\n", -1)) {
+                line++;
+                String trimmed = content.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] words = trimmed.split("\\s+");
+                if (name == null && !"machine".equals(words[0])) {
+                    throw error("Expected machine first");
+                }
+                switch (words[0]) {
+                    case "machine":
+                        if (name != null || state != null) {
+                            throw error("machine must be the first line");
+                        }
+                        name = single(words);
+                        break;
+                    case "state":
+                    case "composite":
+                    case "final":
+                        state = declare(words);
+                        break;
+                    case "initial":
+                        if (state == null) {
+                            initial = single(words);
+                            initialLine = line;
+                        } else if (state.kind == COMPOSITE) {
+                            state.initial = single(words);
+                            state.initialLine = line;
+                        } else {
+                            throw error("Only a composite has an initial state");
+                        }
+                        break;
+                    case "states":
+                        if (state == null || state.kind != COMPOSITE) {
+                            throw error("Only a composite has states");
+                        }
+                        for (int i = 1; i < words.length; i++) {
+                            state.inner.add(words[i]);
+                            state.innerLines.add(line);
+                        }
+                        break;
+                    case "onEntry":
+                        state(state, words).entry = action(single(words));
+                        break;
+                    case "onExit":
+                        state(state, words).exit = action(single(words));
+                        break;
+                    case "defer":
+                        state(state, words);
+                        for (int i = 1; i < words.length; i++) {
+                            state.defer.add(string(words[i]));
+                        }
+                        break;
+                    case "transition":
+                        state(state, words).transitions.add(transition(words));
+                        break;
+                    default:
+                        throw error("Unknown keyword " + words[0]);
+                }
+            }
+            if (name == null) {
+                throw new IllegalStateException("Missing machine");
+            }
+            return resolve();
+        }
+
+        private ParsedState declare(String[] words) {
+            String stateName = single(words);
+            if (stateIndex.containsKey(stateName)) {
+                throw error("Duplicate state " + stateName);
+            }
+            ParsedState state = new ParsedState(stateName, "composite".equals(words[0]) ? COMPOSITE
+                    : "final".equals(words[0]) ? FINAL : SIMPLE, line);
+            stateIndex.put(stateName, states.size());
+            states.add(state);
+            return state;
+        }
+
+        private ParsedTransition transition(String[] words) {
+            if (words.length < 2) {
+                throw error("Expected transition name");
+            }
+            ParsedTransition transition = new ParsedTransition(string(words[1]), line);
+            for (int i = 2; i < words.length; i += 2) {
+                if (i + 1 == words.length) {
+                    throw error("Expected a value after " + words[i]);
+                }
+                String value = words[i + 1];
+                switch (words[i]) {
+                    case "on":
+                        transition.event = string(value);
+                        break;
+                    case "guardedBy":
+                        if (!guards.containsKey(value)) {
+                            throw error("Unknown guard " + value);
+                        }
+                        transition.guard = string(value);
+                        break;
+                    case "to":
+                        transition.target = value;
+                        break;
+                    case "onTransition":
+                        transition.action = action(value);
+                        break;
+                    default:
+                        throw error("Unknown keyword " + words[i]);
+                }
+            }
+            if (transition.target == null) {
+                throw error("Transition " + words[1] + " has no target state");
+            }
+            if (transition.event == NONE && transition.guard == NONE) {
+                throw error("Transition " + words[1] + " must have an event or a guard");
+            }
+            return transition;
+        }
+
+        private Model resolve() {
+            if (initial == null) {
+                throw new IllegalStateException("Missing initial state of " + name);
+            }
+            int[] parents = new int[states.size()];
+            Arrays.fill(parents, NONE);
+            int[][] records = new int[states.size()][];
+            for (int i = 0; i < states.size(); i++) {
+                ParsedState state = states.get(i);
+                int[] inner = new int[state.inner.size()];
+                for (int j = 0; j < inner.length; j++) {
+                    line = state.innerLines.get(j);
+                    inner[j] = reference(state.inner.get(j));
+                    if (parents[inner[j]] != NONE) {
+                        throw error("State " + state.inner.get(j) + " is already a state of "
+                                + states.get(parents[inner[j]]).name);
+                    }
+                    parents[inner[j]] = i;
+                }
+                int initialState = NONE;
+                if (state.kind == COMPOSITE) {
+                    line = state.initial == null ? state.line : state.initialLine;
+                    if (state.initial == null) {
+                        throw error("Missing initial state of composite " + state.name);
+                    }
+                    initialState = reference(state.initial);
+                    if (!state.inner.contains(state.initial)) {
+                        throw error("Initial state " + state.initial + " is not a state of composite " + state.name);
+                    }
+                }
+                records[i] = record(state, initialState, inner);
+            }
+            for (int i = 0; i < states.size(); i++) {
+                // A state nested in itself would never reach the top level
+                int steps = 0;
+                for (int parent = parents[i]; parent != NONE; parent = parents[parent]) {
+                    if (++steps > states.size()) {
+                        line = states.get(i).line;
+                        throw error("State " + states.get(i).name + " is nested in itself");
+                    }
+                }
+            }
+            line = initialLine;
+            int initialState = reference(initial);
+            if (parents[initialState] != NONE) {
+                throw error("Initial state " + initial + " is not a top level state");
+            }
+            int machineName = string(name);
+            return new Model(strings.toArray(new String[0]), machineName, initialState, records);
+        }
+
+        private int[] record(ParsedState state, int initialState, int[] inner) {
+            int[] record = new int[Model.INNER + inner.length + 1 + state.defer.size() + 1
+                    + Model.TRANSITION * state.transitions.size()];
+            record[Model.KIND] = state.kind;
+            record[Model.NAME] = string(state.name);
+            record[Model.ENTRY] = state.entry;
+            record[Model.EXIT] = state.exit;
+            record[Model.INITIAL] = initialState;
+            record[Model.INNER_COUNT] = inner.length;
+            System.arraycopy(inner, 0, record, Model.INNER, inner.length);
+            int position = Model.INNER + inner.length;
+            record[position++] = state.defer.size();
+            for (int event : state.defer) {
+                record[position++] = event;
+            }
+            record[position++] = state.transitions.size();
+            for (ParsedTransition transition : state.transitions) {
+                line = transition.line;
+                record[position++] = transition.name;
+                record[position++] = transition.event;
+                record[position++] = transition.guard;
+                record[position++] = reference(transition.target);
+                record[position++] = transition.action;
+            }
+            return record;
+        }
+
+        private int reference(String stateName) {
+            Integer index = stateIndex.get(stateName);
+            if (index == null) {
+                throw error("Unknown state " + stateName);
+            }
+            return index;
+        }
+
+        private ParsedState state(ParsedState state, String[] words) {
+            if (state == null) {
+                throw error(words[0] + " must follow a state");
+            }
+            return state;
+        }
+
+        private int action(String actionName) {
+            if (!actions.containsKey(actionName)) {
+                throw error("Unknown action " + actionName);
+            }
+            return string(actionName);
+        }
+
+        private String single(String[] words) {
+            if (words.length != 2) {
+                throw error("Expected " + words[0] + " and a name");
+            }
+            return words[1];
+        }
+
+        private int string(String value) {
+            Integer index = stringIndex.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                stringIndex.put(value, index);
+            }
+            return index;
+        }
+
+        private IllegalStateException error(String message) {
+            return new IllegalStateException("Line " + line + ": " + message);
+        }
+    }
+
+    private static final class ParsedState {
+        final String name;
+        final int kind;
+        final int line;
+        final List<String> inner = new ArrayList<>();
+        final List<Integer> innerLines = new ArrayList<>();
+        final List<Integer> defer = new ArrayList<>();
+        final List<ParsedTransition> transitions = new ArrayList<>();
+        int entry = NONE;
+        int exit = NONE;
+        String initial;
+        int initialLine;
+
+        ParsedState(String name, int kind, int line) {
+            this.name = name;
+            this.kind = kind;
+            this.line = line;
+        }
+    }
+
+    private static final class ParsedTransition {
+        final int name;
+        final int line;
+        int event = NONE;
+        int guard = NONE;
+        String target;
+        int action = NONE;
+
+        ParsedTransition(int name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static MachineLoaderBuilder machineLoader() {
+        return new MachineLoaderBuilder();
+    }
+
+    public static class MachineLoaderBuilder {
+        private final Map<String, Action> actions = new HashMap<>();
+        private final Map<String, Predicate<Event>> guards = new HashMap<>();
+
+        MachineLoaderBuilder() {
+        }
+
+        /**
+         * Register the action, referred to by name in {@code onEntry}, {@code onExit} and {@code onTransition}.
+         */
+        public MachineLoaderBuilder action(String name, Action action) {
+            if (actions.put(name, action) != null) {
+                throw new IllegalStateException("Duplicate action " + name);
+            }
+            return this;
+        }
+
+        /**
+         * Register the guard, referred to by name in {@code guardedBy}.
+         */
+        public MachineLoaderBuilder guard(String name, Predicate<Event> guard) {
+            if (guards.put(name, guard) != null) {
+                throw new IllegalStateException("Duplicate guard " + name);
+            }
+            return this;
+        }
+
+        public MachineLoader build() {
+            return new MachineLoader(new HashMap<>(actions), new HashMap<>(guards));
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.nextstate.statemachine;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times the events, transitions and states of the instances of one {@link MachineDefinition}.
+ * <br>
+ * Counters are {@link LongAdder}s, striped under contention, so instances executed on many threads record without
+ * locks. Durations are recorded in latency histograms with fixed power of two buckets, the bucket of a duration is
+ * the number of bits of its nanoseconds. The counters of every state and transition are created with the metrics, so
+ * recording never allocates. {@link #snapshot()} reads them while they are updated.
+ * <pre>
+ * MachineMetrics metrics = MachineMetrics.of(phone);
+ * MachineInstance session = phone.withListener(metrics).newInstance();
+ * ...
+ * log.info("{}", metrics.snapshot());
+ * </pre>
+ */
+public final class MachineMetrics implements MachineListener {
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder unhandled = new LongAdder();
+    private final Histogram processed = new Histogram();
+    // Created for every state and transition of the definition, read only afterwards
+    private final Map<State, StateCounters> states = new IdentityHashMap<>();
+    private final Map<Transition, TransitionCounters> transitions = new IdentityHashMap<>();
+    private final List<StateCounters> stateOrder = new ArrayList<>();
+    private final List<TransitionCounters> transitionOrder = new ArrayList<>();
+
+    private MachineMetrics(MachineDefinition definition) {
+        this.name = definition.getName();
+        for (int ordinal = 0; ordinal < definition.stateCount(); ordinal++) {
+            State state = definition.state(ordinal);
+            StateCounters stateCounters = new StateCounters(state);
+            states.put(state, stateCounters);
+            stateOrder.add(stateCounters);
+            TransitionTable table = definition.transitionTable(ordinal);
+            for (int i = 0; i < table.size(); i++) {
+                TransitionCounters transitionCounters = new TransitionCounters(state, table.get(i));
+                transitions.put(table.get(i), transitionCounters);
+                transitionOrder.add(transitionCounters);
+            }
+        }
+    }
+
+    /**
+     * Metrics of the states and transitions of the definition, to register with
+     * {@link MachineDefinition#withListener(MachineListener)}.
+     */
+    public static MachineMetrics of(MachineDefinition definition) {
+        return new MachineMetrics(definition);
+    }
+
+    @Override public void eventReceived(Event event) {
+        received.increment();
+    }
+
+    @Override public void eventUnhandled(State state, Event event) {
+        unhandled.increment();
+        StateCounters counters = states.get(state);
+        if (counters != null) {
+            counters.unhandled.increment();
+        }
+    }
+
+    @Override public void eventProcessed(Event event, long nanos) {
+        processed.record(nanos);
+    }
+
+    @Override public void transitionTaken(State source, Transition transition, long nanos) {
+        TransitionCounters counters = transitions.get(transition);
+        if (counters != null) {
+            counters.action.record(nanos);
+        }
+    }
+
+    @Override public void stateEntered(State state, long nanos) {
+        StateCounters counters = states.get(state);
+        if (counters != null) {
+            counters.entry.record(nanos);
+        }
+    }
+
+    @Override public void stateExited(State state, long nanos) {
+        StateCounters counters = states.get(state);
+        if (counters != null) {
+            counters.exit.record(nanos);
+        }
+    }
+
+    /**
+     * @return the current counts, not atomic with the events processed meanwhile
+     */
+    public Snapshot snapshot() {
+        List<StateMetrics> stateMetrics = new ArrayList<>(stateOrder.size());
+        for (StateCounters counters : stateOrder) {
+            stateMetrics.add(new StateMetrics(counters.state.getName(), counters.entry.snapshot(),
+                    counters.exit.snapshot(), counters.unhandled.sum()));
+        }
+        List<TransitionMetrics> transitionMetrics = new ArrayList<>(transitionOrder.size());
+        for (TransitionCounters counters : transitionOrder) {
+            transitionMetrics.add(new TransitionMetrics(counters.source.getName(), counters.transition.getName(),
+                    counters.transition.getTargetState().getName(), counters.action.snapshot()));
+        }
+        return new Snapshot(name, received.sum(), unhandled.sum(), processed.snapshot(), stateMetrics,
+                transitionMetrics);
+    }
+
+    private static final class StateCounters {
+        private final State state;
+        private final Histogram entry = new Histogram();
+        private final Histogram exit = new Histogram();
+        private final LongAdder unhandled = new LongAdder();
+
+        StateCounters(State state) {
+            this.state = state;
+        }
+    }
+
+    private static final class TransitionCounters {
+        private final State source;
+        private final Transition transition;
+        private final Histogram action = new Histogram();
+
+        TransitionCounters(State source, Transition transition) {
+            this.source = source;
+            this.transition = transition;
+        }
+    }
+
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                buckets[bucket] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            buckets[Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value))].increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        Latency snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] = buckets[bucket].sum();
+            }
+            return new Latency(counts, total.sum(), max.get());
+        }
+    }
+
+    // =================
+    //      Snapshots
+    // =================
+    /**
+     * Counts of the events processed by the instances, and of each state and transition in declaration order.
+     */
+    public static final class Snapshot {
+        private final String name;
+        private final long received;
+        private final long unhandled;
+        private final Latency processed;
+        private final List<StateMetrics> states;
+        private final List<TransitionMetrics> transitions;
+
+        private Snapshot(String name, long received, long unhandled, Latency processed, List<StateMetrics> states,
+                List<TransitionMetrics> transitions) {
+            this.name = name;
+            this.received = received;
+            this.unhandled = unhandled;
+            this.processed = processed;
+            this.states = Collections.unmodifiableList(states);
+            this.transitions = Collections.unmodifiableList(transitions);
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * @return number of events that triggered no transition
+         */
+        public long getUnhandled() {
+            return unhandled;
+        }
+
+        /**
+         * @return time spent processing each event, see {@link MachineListener#eventProcessed(Event, long)}
+         */
+        public Latency getProcessed() {
+            return processed;
+        }
+
+        public List<StateMetrics> getStates() {
+            return states;
+        }
+
+        public List<TransitionMetrics> getTransitions() {
+            return transitions;
+        }
+
+        /**
+         * @return the metrics of the first state with the name
+         * @throws IllegalStateException if there is no state with the name
+         */
+        public StateMetrics getState(String stateName) {
+            for (StateMetrics state : states) {
+                if (state.getName().equals(stateName)) {
+                    return state;
+                }
+            }
+            throw new IllegalStateException("No state named " + stateName);
+        }
+
+        /**
+         * @return the metrics of the first transition with the name from the state
+         * @throws IllegalStateException if there is no such transition
+         */
+        public TransitionMetrics getTransition(String source, String transitionName) {
+            for (TransitionMetrics transition : transitions) {
+                if (transition.getSource().equals(source) && transitionName.equals(transition.getName())) {
+                    return transition;
+                }
+            }
+            throw new IllegalStateException("No transition " + transitionName + " from state " + source);
+        }
+
+        /**
+         * One line per state and transition that was active, with counts and latencies in microseconds.
+         */
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(name).append(" received=").append(received).append(" unhandled=").append(unhandled)
+                    .append(" processed ").append(processed);
+            for (StateMetrics state : states) {
+                if (state.getEntry().getCount() > 0 || state.getExit().getCount() > 0 || state.getUnhandled() > 0) {
+                    sb.append(System.lineSeparator()).append("  state ").append(state);
+                }
+            }
+            for (TransitionMetrics transition : transitions) {
+                if (transition.getAction().getCount() > 0) {
+                    sb.append(System.lineSeparator()).append("  transition ").append(transition);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    public static final class StateMetrics {
+        private final String name;
+        private final Latency entry;
+        private final Latency exit;
+        private final long unhandled;
+
+        private StateMetrics(String name, Latency entry, Latency exit, long unhandled) {
+            this.name = name;
+            this.entry = entry;
+            this.exit = exit;
+            this.unhandled = unhandled;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return times entered, and time spent in the entry action
+         */
+        public Latency getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return times exited, and time spent in the exit action
+         */
+        public Latency getExit() {
+            return exit;
+        }
+
+        /**
+         * @return number of events not handled while the state was the innermost active state
+         */
+        public long getUnhandled() {
+            return unhandled;
+        }
+
+        @Override public String toString() {
+            return name + " entered " + entry + " exited " + exit + " unhandled=" + unhandled;
+        }
+    }
+
+    public static final class TransitionMetrics {
+        private final String source;
+        private final String name;
+        private final String target;
+        private final Latency action;
+
+        private TransitionMetrics(String source, String name, String target, Latency action) {
+            this.source = source;
+            this.name = name;
+            this.target = target;
+            this.action = action;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @return times taken, and time spent in the transition action
+         */
+        public Latency getAction() {
+            return action;
+        }
+
+        @Override public String toString() {
+            return source + " -" + name + "-> " + target + " " + action;
+        }
+    }
+
+    /**
+     * Latency histogram: bucket 0 counts the durations of 0 nanoseconds and bucket b the durations from 2^(b-1) to
+     * 2^b - 1 nanoseconds, the last bucket also the longer ones.
+     */
+    public static final class Latency {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Latency(long[] buckets, long totalNanos, long maxNanos) {
+            long sum = 0;
+            for (long bucket : buckets) {
+                sum += bucket;
+            }
+            this.buckets = buckets;
+            this.count = sum;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public Duration getTotal() {
+            return Duration.ofNanos(totalNanos);
+        }
+
+        public Duration getMax() {
+            return Duration.ofNanos(maxNanos);
+        }
+
+        public Duration getMean() {
+            return Duration.ofNanos(count == 0 ? 0 : totalNanos / count);
+        }
+
+        /**
+         * @param quantile between 0 and 1, 0.99 for the 99th percentile
+         * @return upper bound of the bucket holding the quantile, at most the maximum
+         */
+        public Duration getPercentile(double quantile) {
+            if (count == 0) {
+                return Duration.ZERO;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank && seen > 0) {
+                    long upper = bucket == 0 ? 0 : (1L << bucket) - 1;
+                    return Duration.ofNanos(Math.min(upper, maxNanos));
+                }
+            }
+            return Duration.ofNanos(maxNanos);
+        }
+
+        /**
+         * @return count of each bucket
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        @Override public String toString() {
+            return "count=" + count + " mean=" + micros(getMean()) + "us p99=" + micros(getPercentile(0.99))
+                    + "us max=" + micros(getMax()) + "us";
+        }
+
+        private static String micros(Duration duration) {
+            return String.format(Locale.ROOT, "%.3f", duration.toNanos() / 1000.0);
+        }
+    }
+}
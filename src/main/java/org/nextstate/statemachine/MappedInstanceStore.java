@@ -0,0 +1,325 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Off-heap store of the active state configurations of many instances of one {@link MachineDefinition}, in fixed
+ * width slots of a memory mapped file.
+ * <br>
+ * A slot holds a version and the configuration encoded by {@link ConfigurationCodec}, the index of the active state at
+ * each level, and a CRC32 of both written last. Executing an event loads the slot into a reused instance, runs the shared transitions of the definition
+ * and writes the configuration back, so no object is kept per instance. The file is used as is when reopened, without
+ * deserialization, as long as it was written for a definition with the same fingerprint.
+ * <br>
+ * Writes reach the file when the operating system flushes the mapped pages, also if the process dies, or when
+ * {@link #force()} is called. A slot torn by dying while writing it, or by losing some of its pages, does not match its
+ * checksum: opening the store empties it and reports it in {@link #getTornSlots()}. A store is not thread safe, and
+ * actions must not execute events on the store.
+ * <pre>
+ * MappedInstanceStore sessions = MappedInstanceStore.open(Paths.get("sessions.bin"), phone, 1_000_000);
+ * sessions.create(42);
+ * sessions.execute(42, new CallDialed());
+ * </pre>
+ */
+public final class MappedInstanceStore implements AutoCloseable {
+    private static final int MAGIC = 0x4E534D53;
+    private static final int FORMAT = 2;
+    private static final int HEADER = 32;
+    // Version, then checksum, then depth, then an index per level
+    private static final int VERSION_OFFSET = 0;
+    private static final int CHECKSUM_OFFSET = 8;
+    private static final int DEPTH_OFFSET = 12;
+    private static final int INDEXES_OFFSET = 14;
+
+    private final MachineDefinition definition;
+    private final ConfigurationCodec codec;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    // View of the buffer for the checksums, positioned on the checked bytes
+    private final ByteBuffer checked;
+    private final CRC32 crc = new CRC32();
+    private final List<Integer> tornSlots;
+    private final int slotSize;
+    private final int capacity;
+
+    private final MachineInstance instance;
+    private final short[] indexes;
+    private boolean executing;
+
+    private MappedInstanceStore(MachineDefinition definition, FileChannel channel, int capacity) throws IOException {
+        this.definition = definition;
+        this.codec = ConfigurationCodec.of(definition);
+        this.channel = channel;
+        this.instance = new MachineInstance(definition, definition.maxDepth());
+        this.indexes = new short[definition.maxDepth()];
+        // Aligned to 8 bytes for the version
+        this.slotSize = (INDEXES_OFFSET + 2 * definition.maxDepth() + 7) & ~7;
+
+        boolean created = channel.size() == 0;
+        int slots = created ? capacity : Math.max(capacity, readHeader(channel));
+        long size = HEADER + (long) slotSize * slots;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Store of " + slots + " slots of " + slotSize + " bytes is too large.");
+        }
+        this.capacity = slots;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.checked = buffer.duplicate();
+        this.tornSlots = created ? Collections.<Integer>emptyList() : clearTornSlots();
+        writeHeader();
+    }
+
+    /**
+     * Open the store in the file, created if it does not exist.
+     *
+     * @param capacity number of slots, grows the store if opened with less slots
+     * @throws IllegalStateException if the file was written for another definition
+     */
+    public static MappedInstanceStore open(Path file, MachineDefinition definition, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalStateException("Capacity must be positive");
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new MappedInstanceStore(definition, channel, capacity);
+        } catch (IOException e) {
+            close(channel);
+            throw new UncheckedIOException("Failed to open store " + file, e);
+        } catch (RuntimeException e) {
+            close(channel);
+            throw e;
+        }
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return slots emptied when opening the store, since they did not match their checksum
+     */
+    public List<Integer> getTornSlots() {
+        return tornSlots;
+    }
+
+    /**
+     * @return true if an instance is stored in the slot
+     */
+    public boolean exists(int slot) {
+        return buffer.getShort(offset(slot) + DEPTH_OFFSET) != 0;
+    }
+
+    /**
+     * Store a new instance in the slot, entering the initial state. Replaces any instance in the slot.
+     */
+    public void create(int slot) {
+        int offset = offset(slot);
+        begin();
+        try {
+            definition.enter(instance, 0, definition.initialState());
+            store(offset, buffer.getLong(offset + VERSION_OFFSET) + 1);
+        } finally {
+            executing = false;
+        }
+    }
+
+    /**
+     * Execute the event for the instance in the slot, as {@link MachineInstance#execute(Event)}. If an action throws,
+     * the slot is left unchanged. Only the configuration is stored, an event deferred by the instance is discarded.
+     */
+    public void execute(int slot, Event event) {
+        int offset = offset(slot);
+        begin();
+        try {
+            load(slot, offset);
+            instance.execute(event);
+            storeIfChanged(offset);
+        } finally {
+            instance.clearDeferred();
+            executing = false;
+        }
+    }
+
+    /**
+     * Set the active state configuration of the instance in the slot, as
+     * {@link MachineInstance#activeStateConfiguration(List)}.
+     */
+    public void activeStateConfiguration(int slot, List<String> activeStateConfiguration) {
+        int offset = offset(slot);
+        begin();
+        try {
+            load(slot, offset);
+            instance.activeStateConfiguration(activeStateConfiguration);
+            storeIfChanged(offset);
+        } finally {
+            executing = false;
+        }
+    }
+
+    public List<String> getActiveStateConfiguration(int slot) {
+        int offset = offset(slot);
+        begin();
+        try {
+            load(slot, offset);
+            return instance.getActiveStateConfiguration();
+        } finally {
+            executing = false;
+        }
+    }
+
+    /**
+     * @return number of changes of the configuration in the slot, 0 if no instance has been stored
+     */
+    public long getVersion(int slot) {
+        return buffer.getLong(offset(slot) + VERSION_OFFSET);
+    }
+
+    /**
+     * Write the changes to the storage device.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override public void close() {
+        force();
+        close(channel);
+    }
+
+    private void begin() {
+        if (executing) {
+            throw new IllegalStateException("Store is executing an event: actions can not execute events on the "
+                    + "store.");
+        }
+        executing = true;
+    }
+
+    private int offset(int slot) {
+        if (slot < 0 || slot >= capacity) {
+            throw new IllegalStateException("No slot " + slot + " in store of " + capacity + " slots.");
+        }
+        return HEADER + slot * slotSize;
+    }
+
+    private void load(int slot, int offset) {
+        int depth = buffer.getShort(offset + DEPTH_OFFSET);
+        if (depth == 0) {
+            throw new IllegalStateException("No instance in slot " + slot);
+        }
+        for (int level = 0; level < depth; level++) {
+            indexes[level] = buffer.getShort(offset + INDEXES_OFFSET + 2 * level);
+        }
+        codec.decode(indexes, 0, depth, instance);
+    }
+
+    private void storeIfChanged(int offset) {
+        int depth = buffer.getShort(offset + DEPTH_OFFSET);
+        int encodedDepth = codec.encode(instance, indexes, 0);
+        boolean changed = depth != encodedDepth;
+        for (int level = 0; level < encodedDepth && !changed; level++) {
+            changed = buffer.getShort(offset + INDEXES_OFFSET + 2 * level) != indexes[level];
+        }
+        if (changed) {
+            writeSlot(offset, buffer.getLong(offset + VERSION_OFFSET) + 1, encodedDepth);
+        }
+    }
+
+    private void store(int offset, long version) {
+        writeSlot(offset, version, codec.encode(instance, indexes, 0));
+    }
+
+    private void writeSlot(int offset, long version, int depth) {
+        for (int level = 0; level < depth; level++) {
+            buffer.putShort(offset + INDEXES_OFFSET + 2 * level, indexes[level]);
+        }
+        buffer.putShort(offset + DEPTH_OFFSET, (short) depth);
+        buffer.putLong(offset + VERSION_OFFSET, version);
+        buffer.putInt(offset + CHECKSUM_OFFSET, checksum(offset, depth));
+    }
+
+    private List<Integer> clearTornSlots() {
+        List<Integer> torn = new ArrayList<>();
+        int maxDepth = definition.maxDepth();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = HEADER + slot * slotSize;
+            int depth = buffer.getShort(offset + DEPTH_OFFSET);
+            if (depth == 0 && buffer.getLong(offset + VERSION_OFFSET) == 0) {
+                continue;
+            }
+            if (depth < 0 || depth > maxDepth || buffer.getInt(offset + CHECKSUM_OFFSET) != checksum(offset, depth)) {
+                buffer.putShort(offset + DEPTH_OFFSET, (short) 0);
+                buffer.putInt(offset + CHECKSUM_OFFSET, checksum(offset, 0));
+                torn.add(slot);
+            }
+        }
+        return Collections.unmodifiableList(torn);
+    }
+
+    /**
+     * @return CRC32 of the version, the depth and the indexes in the slot
+     */
+    private int checksum(int offset, int depth) {
+        crc.reset();
+        checked.limit(offset + CHECKSUM_OFFSET);
+        checked.position(offset + VERSION_OFFSET);
+        crc.update(checked);
+        checked.limit(offset + INDEXES_OFFSET + 2 * depth);
+        checked.position(offset + DEPTH_OFFSET);
+        crc.update(checked);
+        return (int) crc.getValue();
+    }
+
+    private int readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a state machine store");
+        }
+        int format = header.getInt();
+        if (format != FORMAT) {
+            throw new IllegalStateException("Unsupported store format " + format);
+        }
+        if (header.getLong() != codec.getFingerprint()) {
+            throw new IllegalStateException("Store was written for another definition than " + definition.getName());
+        }
+        int storedSlotSize = header.getInt();
+        if (storedSlotSize != slotSize) {
+            throw new IllegalStateException("Store has slots of " + storedSlotSize + " bytes, expected " + slotSize);
+        }
+        return header.getInt();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(8, codec.getFingerprint());
+        buffer.putInt(16, slotSize);
+        buffer.putInt(20, capacity);
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue of events keyed by instance id, for many producer threads and one consumer thread.
+ * <br>
+ * Producers claim a slot by compare and set on the producer index, then publish the id, the message and the time of
+ * the offer in parallel arrays, the message last. The consumer sees a slot as filled when its message is set, so
+ * nothing is allocated per event.
+ *
+ * @param <K> type of the instance ids
+ * @param <M> type of the messages, events or anything else the consumer handles in the same order
+ */
+final class MpscEventQueue<K, M> {
+    private final int mask;
+    private final AtomicReferenceArray<K> ids;
+    private final AtomicReferenceArray<M> messages;
+    private final AtomicLongArray offerTimes;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    // Only accessed by the consumer
+    private K polledId;
+    private long polledOfferTime;
+
+    /**
+     * @param capacity maximum number of queued events, rounded up to a power of two
+     */
+    MpscEventQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalStateException("Queue capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.ids = new AtomicReferenceArray<>(size);
+        this.messages = new AtomicReferenceArray<>(size);
+        this.offerTimes = new AtomicLongArray(size);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    boolean offer(K id, M message, long offerTime) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() > mask) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+
+        int slot = (int) index & mask;
+        ids.lazySet(slot, id);
+        offerTimes.lazySet(slot, offerTime);
+        messages.lazySet(slot, message);
+        return true;
+    }
+
+    /**
+     * Take the oldest message. Its id and offer time are then available from {@link #polledId()} and
+     * {@link #polledOfferTime()}. Only called by the consumer.
+     *
+     * @return the message or null if the queue is empty, or the oldest slot is claimed but not yet published
+     */
+    M poll() {
+        long index = consumerIndex.get();
+        int slot = (int) index & mask;
+        M message = messages.get(slot);
+        if (message == null) {
+            return null;
+        }
+        polledId = ids.get(slot);
+        polledOfferTime = offerTimes.get(slot);
+        ids.lazySet(slot, null);
+        messages.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return message;
+    }
+
+    K polledId() {
+        return polledId;
+    }
+
+    long polledOfferTime() {
+        return polledOfferTime;
+    }
+
+    int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    boolean isEmpty() {
+        return producerIndex.get() == consumerIndex.get();
+    }
+}
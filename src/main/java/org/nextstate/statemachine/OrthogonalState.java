@@ -0,0 +1,254 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * State with orthogonal regions, each a {@link CompositeState} with its own active state. Every region is given each
+ * event, in the order of the regions, then the transitions of the Orthogonal State are checked with the event as for
+ * a Composite State.
+ * <br>
+ * A region has no transitions of its own: it is left only with the Orthogonal State, by a transition of the
+ * Orthogonal State.
+ * <br>
+ * A region is completed when its active state is a {@link FinalState}, or has a transition on
+ * {@link FinalState#FINAL_EVENT} to one as for a Composite State. When an event leaves every region completed, the
+ * transitions of the Orthogonal State are checked with {@link FinalState#FINAL_EVENT} instead: the join.
+ * <br>
+ * The regions can be given the event in parallel on a {@link ForkJoinPool}, for regions with expensive and
+ * independent actions. The results are merged in the order of the regions once all are done, so the join, the
+ * transition taken and the exception thrown, the one of the first failed region, are the same as when sequential. The
+ * actions of the regions must then be thread safe and must not execute events on the State Machine.
+ * <br>
+ * Not supported by {@link MachineDefinition}. The active state configuration of a State Machine ends with the
+ * Orthogonal State, see {@link #getActiveStateConfigurations()} for the regions.
+ * <pre>
+ * State operating = orthogonalState("Operating")
+ *         .regions(asList(servingCustomer, monitoringCardReader))
+ *         .transition("Done").on(FinalState.FINAL_EVENT).to(idle)
+ *         .build();
+ * </pre>
+ */
+public class OrthogonalState extends AbstractState {
+    private final List<CompositeState> regions = new ArrayList<>();
+    private ForkJoinPool pool;
+
+    private OrthogonalState(String name) {
+        super(name);
+    }
+
+    public List<CompositeState> getRegions() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    /**
+     * @return the active state configuration of each region, starting with the name of the region
+     */
+    public List<List<String>> getActiveStateConfigurations() {
+        List<List<String>> configurations = new ArrayList<>(regions.size());
+        for (CompositeState region : regions) {
+            List<String> configuration = new ArrayList<>();
+            State state = region;
+            while (state instanceof CompositeElement) {
+                configuration.add(state.getName());
+                state = ((CompositeElement) state).getActiveState();
+            }
+            if (state != null) {
+                configuration.add(state.getName());
+            }
+            configurations.add(configuration);
+        }
+        return configurations;
+    }
+
+    /**
+     * Enter every region, setting the target of its initial transition as active state.
+     */
+    @Override public void onEntry() {
+        for (CompositeState region : regions) {
+            region.onEntry();
+        }
+    }
+
+    @Override public Optional<State> execute(Event event) {
+        return Optional.ofNullable(fire(event));
+    }
+
+    @Override public State fire(Event event) {
+        return fire(event, new int[1]);
+    }
+
+    @Override State fire(Event event, int[] taken) {
+        boolean changed = pool == null ? fireRegions(event, taken) : fireRegionsInParallel(event, taken);
+
+        State target = changed && completed() ? fireTransition(FinalState.FINAL) : fireTransition(event);
+        if (target != null) {
+            taken[0]++;
+        }
+        return target;
+    }
+
+    /**
+     * @return true if the active state of a region changed
+     */
+    private boolean fireRegions(Event event, int[] taken) {
+        boolean changed = false;
+        for (CompositeState region : regions) {
+            changed |= fireRegion(region, event, taken);
+        }
+        return changed;
+    }
+
+    private boolean fireRegionsInParallel(Event event, int[] taken) {
+        boolean[] changed = new boolean[regions.size()];
+        int[][] regionTaken = new int[regions.size()][1];
+        RuntimeException[] failures = new RuntimeException[regions.size()];
+        pool.invoke(new RegionsTask(event, changed, regionTaken, failures, 0, regions.size()));
+
+        boolean anyChanged = false;
+        for (int i = 0; i < regions.size(); i++) {
+            if (failures[i] != null) {
+                throw failures[i];
+            }
+            anyChanged |= changed[i];
+            taken[0] += regionTaken[i][0];
+        }
+        return anyChanged;
+    }
+
+    private static boolean fireRegion(CompositeState region, Event event, int[] taken) {
+        if (region.getActiveState() == null) {
+            // Restored without being entered
+            region.onEntry();
+        }
+        State before = region.getActiveState();
+        region.fire(event, taken);
+        return region.getActiveState() != before;
+    }
+
+    private boolean completed() {
+        for (CompositeState region : regions) {
+            State active = region.getActiveState();
+            if (!(active instanceof FinalState) && !active.transitionToFinalState()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final class RegionsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Event event;
+        private final boolean[] changed;
+        // Transitions taken by each region
+        private final int[][] taken;
+        private final RuntimeException[] failures;
+        private final int from;
+        private final int to;
+
+        RegionsTask(Event event, boolean[] changed, int[][] taken, RuntimeException[] failures, int from, int to) {
+            this.event = event;
+            this.changed = changed;
+            this.taken = taken;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected void compute() {
+            if (to - from == 1) {
+                try {
+                    changed[from] = fireRegion(regions.get(from), event, taken[from]);
+                } catch (RuntimeException e) {
+                    failures[from] = e;
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RegionsTask(event, changed, taken, failures, from, middle),
+                        new RegionsTask(event, changed, taken, failures, middle, to));
+            }
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static OrthogonalStateBuilder orthogonalState(String name) {
+        return new OrthogonalStateBuilder(name);
+    }
+
+    public static class OrthogonalStateBuilder {
+        final OrthogonalState orthogonalState;
+        private final List<State> regions = new ArrayList<>();
+
+        Transition.TransitionBuilder<OrthogonalStateBuilder> transitionBuilder;
+
+        public OrthogonalStateBuilder(String name) {
+            this.orthogonalState = new OrthogonalState(name);
+        }
+
+        public Transition.TransitionBuilder<OrthogonalStateBuilder> transition(String name) {
+            // Add previous transition
+            if (transitionBuilder != null) {
+                orthogonalState.addTransition(transitionBuilder.build());
+            }
+            transitionBuilder = Transition.transition(this, name);
+            return transitionBuilder;
+        }
+
+        /**
+         * @param regions Composite States built with {@link CompositeState#compositeState(String)}, without
+         *                transitions, in the order they are given the events
+         */
+        public OrthogonalStateBuilder regions(List<State> regions) {
+            this.regions.addAll(regions);
+            return this;
+        }
+
+        /**
+         * Give the events to the regions in parallel on the pool.
+         */
+        public OrthogonalStateBuilder parallel(ForkJoinPool pool) {
+            orthogonalState.pool = pool;
+            return this;
+        }
+
+        public OrthogonalStateBuilder onEntry(Action action) {
+            orthogonalState.entry = Optional.ofNullable(action);
+            return this;
+        }
+
+        public OrthogonalStateBuilder onExit(Action action) {
+            orthogonalState.exit = Optional.ofNullable(action);
+            return this;
+        }
+
+        public OrthogonalState build() {
+            if (regions.isEmpty()) {
+                throw new IllegalStateException("No region in Orthogonal State: " + orthogonalState.getName());
+            }
+            for (State region : regions) {
+                if (!(region instanceof CompositeState)) {
+                    throw new IllegalStateException("Region " + region.getName() + " of Orthogonal State "
+                            + orthogonalState.getName() + " is not a Composite State");
+                }
+                if (!((CompositeState) region).transitions.isEmpty()) {
+                    // A region is left only with the Orthogonal State, the target of its transition would be dropped
+                    throw new IllegalStateException("Region " + region.getName() + " of Orthogonal State "
+                            + orthogonalState.getName() + " has transitions");
+                }
+                orthogonalState.regions.add((CompositeState) region);
+            }
+            // Add current transition on build
+            if (transitionBuilder != null) {
+                orthogonalState.addTransition(transitionBuilder.build());
+            }
+            return orthogonalState;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.nextstate.statemachine;
+
+/**
+ * Snapshot of the statistics of one shard of a {@link ShardedRuntime}.
+ */
+public final class ShardStats {
+    private final int shard;
+    private final int instances;
+    private final int queued;
+    private final long processed;
+    private final long batches;
+    private final long failed;
+    private final long rejected;
+    private final long totalLatencyNanos;
+    private final long maxLatencyNanos;
+    private final long elapsedNanos;
+
+    ShardStats(int shard, int instances, int queued, long processed, long batches, long failed, long rejected,
+            long totalLatencyNanos, long maxLatencyNanos, long elapsedNanos) {
+        this.shard = shard;
+        this.instances = instances;
+        this.queued = queued;
+        this.processed = processed;
+        this.batches = batches;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return number of machine instances owned by the shard
+     */
+    public int getInstances() {
+        return instances;
+    }
+
+    /**
+     * @return number of events waiting in the queue of the shard
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return number of events processed, including failed ones
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return number of batches drained from the queue
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return number of events where execute threw an exception
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of events not accepted because the queue was full
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return mean time from submit until the event is processed
+     */
+    public long getMeanLatencyNanos() {
+        return processed == 0 ? 0 : totalLatencyNanos / processed;
+    }
+
+    /**
+     * @return longest time from submit until an event is processed
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return processed events per second since the runtime started
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : processed * 1e9 / elapsedNanos;
+    }
+
+    @Override public String toString() {
+        return "Shard " + shard + " - instances: " + instances + " queued: " + queued + " processed: " + processed
+                + " batches: " + batches + " failed: " + failed + " rejected: " + rejected + " throughput: "
+                + Math.round(getThroughput()) + "/s mean latency: " + getMeanLatencyNanos() + "ns max latency: "
+                + maxLatencyNanos + "ns";
+    }
+}
@@ -0,0 +1,394 @@
+package org.nextstate.statemachine;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts machine instances of one {@link MachineDefinition}, keyed by id, on a fixed set of single threaded shards.
+ * <br>
+ * An id is routed to a shard by jump consistent hashing of its hash code, so all events for an instance are processed
+ * by the same thread in the order submitted, and the instances are never locked. Each shard owns the instances of its
+ * ids, created on their first event, and drains its bounded queue in batches.
+ * <pre>
+ * ShardedRuntime&lt;String&gt; phones = ShardedRuntime.&lt;String&gt;shardedRuntime(definition).shards(8).build();
+ * phones.submit("555-1234", new CallDialed());
+ * </pre>
+ * Each shard advances its own {@link TimingWheel} when the definition has timed transitions, so the timers of its
+ * instances fire on the shard thread.
+ * <br>
+ * Actions run on the shard thread. An action should execute further events for its own instance with
+ * {@link MachineInstance#execute(Event)}, processed to completion, and may {@link #offer(Object, Event)} events for
+ * other ids.
+ *
+ * @param <K> type of the instance ids, with consistent hash codes
+ */
+public final class ShardedRuntime<K> implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ShardedRuntime.class);
+
+    private final MachineDefinition definition;
+    private final List<Shard> shards;
+    private final long startTime;
+    private volatile boolean running = true;
+    // Offers that may have seen the runtime running, the shards stop once none is left after closing
+    private final AtomicInteger offering = new AtomicInteger();
+    private volatile boolean stopped;
+
+    private ShardedRuntime(MachineDefinition definition, int shardCount, int queueCapacity, int batchSize,
+            Duration timerTick) {
+        this.definition = definition;
+        this.shards = new ArrayList<>(shardCount);
+        this.startTime = System.nanoTime();
+        for (int i = 0; i < shardCount; i++) {
+            TimingWheel wheel = definition.hasTimedTransitions()
+                    ? TimingWheel.timingWheel().tick(timerTick).build() : null;
+            shards.add(new Shard(i, queueCapacity, batchSize, wheel));
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    public MachineDefinition getDefinition() {
+        return definition;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return index of the shard owning the instance with the id
+     */
+    public int shardOf(K id) {
+        return jumpConsistentHash(spread(id.hashCode()), shards.size());
+    }
+
+    /**
+     * Queue the event for the instance with the id, waiting while the queue of its shard is full.
+     *
+     * @throws IllegalStateException if the event is null, the runtime is closed, or if called from the thread of a
+     *                               full shard
+     */
+    public void submit(K id, Event event) {
+        enqueue(id, event);
+    }
+
+    private void enqueue(K id, Object message) {
+        Shard shard = shards.get(shardOf(id));
+        while (!shard.offer(id, message)) {
+            if (Thread.currentThread() == shard.thread) {
+                throw new IllegalStateException("Queue of shard " + shard.index + " is full");
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Queue the event for the instance with the id, unless the queue of its shard is full.
+     *
+     * @return false if the queue is full
+     * @throws IllegalStateException if the event is null or the runtime is closed
+     */
+    public boolean offer(K id, Event event) {
+        return shards.get(shardOf(id)).offer(id, event);
+    }
+
+    /**
+     * Get the active state configuration of the instance with the id, after the events submitted before.
+     * <br>
+     * The request is queued behind those events, waiting like {@link #submit(Object, Event)} while the queue is
+     * full.
+     *
+     * @return the configuration, empty if the instance has not received any event
+     */
+    public CompletableFuture<List<String>> getActiveStateConfiguration(K id) {
+        Shard shard = shards.get(shardOf(id));
+        CompletableFuture<List<String>> configuration = new CompletableFuture<>();
+        enqueue(id, new Query(() -> {
+            MachineInstance instance = shard.instances.get(id);
+            configuration.complete(instance == null ? Collections.<String>emptyList()
+                    : instance.getActiveStateConfiguration());
+        }));
+        return configuration;
+    }
+
+    /**
+     * @return statistics of every shard
+     */
+    public List<ShardStats> getStats() {
+        List<ShardStats> stats = new ArrayList<>(shards.size());
+        long elapsed = System.nanoTime() - startTime;
+        for (Shard shard : shards) {
+            stats.add(shard.stats(elapsed));
+        }
+        return stats;
+    }
+
+    /**
+     * Stop accepting events, process the events already queued and stop the shards.
+     * <br>
+     * An event or query accepted while closing is still processed.
+     */
+    @Override public void close() {
+        running = false;
+        while (offering.get() > 0) {
+            Thread.yield();
+        }
+        stopped = true;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            if (Thread.currentThread() != shard.thread) {
+                try {
+                    shard.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Jump consistent hash by Lamping and Veach: when the number of buckets grows from n to n + 1 only 1/(n + 1) of
+     * the keys move, and no state is needed.
+     */
+    static int jumpConsistentHash(long key, int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    private static long spread(int hashCode) {
+        long key = hashCode * 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+
+    /**
+     * Request run by the shard thread in its turn in the queue, so it sees the events queued before it.
+     */
+    private static final class Query {
+        private final Runnable task;
+
+        Query(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private static final int SPINS = 100;
+        private static final long PARK_NANOS = 1_000_000;
+
+        private final int index;
+        private final int batchSize;
+        private final Thread thread;
+        // Events and queries
+        private final MpscEventQueue<K, Object> queue;
+        private final Map<K, MachineInstance> instances = new HashMap<>();
+        private final TimingWheel wheel;
+        private volatile boolean sleeping;
+
+        // Written by the shard thread only
+        private volatile int instanceCount;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final LongAdder rejected = new LongAdder();
+
+        Shard(int index, int queueCapacity, int batchSize, TimingWheel wheel) {
+            this.index = index;
+            this.batchSize = batchSize;
+            this.wheel = wheel;
+            this.queue = new MpscEventQueue<>(queueCapacity);
+            this.thread = new Thread(this, definition.getName() + "-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        boolean offer(K id, Object message) {
+            // A null slot of the queue is read as not yet published, it would block the shard
+            if (message == null) {
+                throw new IllegalStateException("Missing event for instance " + id);
+            }
+            offering.incrementAndGet();
+            try {
+                if (!running) {
+                    throw new IllegalStateException("Runtime is closed");
+                }
+                if (!queue.offer(id, message, System.nanoTime())) {
+                    rejected.increment();
+                    return false;
+                }
+            } finally {
+                offering.decrementAndGet();
+            }
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        @Override public void run() {
+            int idle = 0;
+            while (true) {
+                int drained = drain();
+                if (wheel != null) {
+                    drained += wheel.advance();
+                }
+                if (drained > 0) {
+                    idle = 0;
+                } else if (stopped) {
+                    if (queue.isEmpty()) {
+                        return;
+                    }
+                } else if (++idle < SPINS) {
+                    Thread.yield();
+                } else {
+                    sleeping = true;
+                    if (queue.isEmpty() && !stopped) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        private int drain() {
+            int count = 0;
+            long latency = 0;
+            long max = maxLatency.get();
+            int failures = 0;
+            Query query = null;
+            Object message;
+            while (count < batchSize && (message = queue.poll()) != null) {
+                // A query ends the batch, so it also sees the statistics of the events before it
+                if (message instanceof Query) {
+                    query = (Query) message;
+                    break;
+                }
+                Event event = (Event) message;
+                K id = queue.polledId();
+                long offerTime = queue.polledOfferTime();
+
+                MachineInstance instance = instances.get(id);
+                if (instance == null) {
+                    instance = wheel == null ? definition.newInstance() : definition.newInstance(wheel);
+                    instances.put(id, instance);
+                    instanceCount = instances.size();
+                }
+                try {
+                    instance.execute(event);
+                } catch (RuntimeException e) {
+                    failures++;
+                    log.warn("Failed to execute {} for {} on shard {}", event.getName(), id, index, e);
+                }
+
+                long eventLatency = System.nanoTime() - offerTime;
+                latency += eventLatency;
+                max = Math.max(max, eventLatency);
+                count++;
+            }
+            if (count > 0) {
+                processed.lazySet(processed.get() + count);
+                batches.lazySet(batches.get() + 1);
+                failed.lazySet(failed.get() + failures);
+                totalLatency.lazySet(totalLatency.get() + latency);
+                maxLatency.lazySet(max);
+            }
+            if (query != null) {
+                query.task.run();
+                count++;
+            }
+            return count;
+        }
+
+        ShardStats stats(long elapsed) {
+            return new ShardStats(index, instanceCount, queue.size(), processed.get(), batches.get(), failed.get(),
+                    rejected.sum(), totalLatency.get(), maxLatency.get(), elapsed);
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static <K> ShardedRuntimeBuilder<K> shardedRuntime(MachineDefinition definition) {
+        return new ShardedRuntimeBuilder<>(definition);
+    }
+
+    public static <K> ShardedRuntimeBuilder<K> shardedRuntime(StateMachine stateMachine) {
+        return new ShardedRuntimeBuilder<>(MachineDefinition.of(stateMachine));
+    }
+
+    public static class ShardedRuntimeBuilder<K> {
+        private final MachineDefinition definition;
+        private int shards = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 1 << 16;
+        private int batchSize = 256;
+        private Duration timerTick = Duration.ofMillis(10);
+
+        ShardedRuntimeBuilder(MachineDefinition definition) {
+            this.definition = definition;
+        }
+
+        /**
+         * @param shards number of shard threads, by default the number of available processors
+         */
+        public ShardedRuntimeBuilder<K> shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity maximum number of queued events per shard, rounded up to a power of two
+         */
+        public ShardedRuntimeBuilder<K> queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param batchSize maximum number of events processed before the statistics are updated
+         */
+        public ShardedRuntimeBuilder<K> batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param timerTick resolution of the timing wheel of each shard, used if the definition has timed transitions
+         */
+        public ShardedRuntimeBuilder<K> timerTick(Duration timerTick) {
+            this.timerTick = timerTick;
+            return this;
+        }
+
+        public ShardedRuntime<K> build() {
+            if (shards < 1) {
+                throw new IllegalStateException("At least one shard is needed");
+            }
+            if (batchSize < 1) {
+                throw new IllegalStateException("Batch size must be positive");
+            }
+            return new ShardedRuntime<>(definition, shards, queueCapacity, batchSize, timerTick);
+        }
+    }
+}
@@ -9,7 +9,11 @@ public class SimpleState extends AbstractState implements State {
     }
 
     @Override public Optional<State> execute(Event event) {
-        return stateTransition(event);
+        return Optional.ofNullable(fire(event));
+    }
+
+    @Override public State fire(Event event) {
+        return fireTransition(event);
     }
 
     // =================
@@ -47,6 +51,17 @@ public class SimpleState extends AbstractState implements State {
             return this;
         }
 
+        /**
+         * Defer the events while the state is active: an event not triggering a transition is kept by a
+         * {@link MachineInstance} and executed again once no active state defers it.
+         */
+        public StateBuilder defer(String... events) {
+            for (String event : events) {
+                state.defer(event);
+            }
+            return this;
+        }
+
         public SimpleState build() {
             // Add current transition on build
             if (transitionBuilder != null) {
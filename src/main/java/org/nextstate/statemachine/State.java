@@ -10,6 +10,17 @@ public interface State {
 
     Optional<State> execute(Event event);
 
+    /**
+     * Same as {@link #execute(Event)} but returning null if no transition match. Implemented without allocating by
+     * the states in this package and used by {@link StateMachine#execute(Event)}.
+     *
+     * @param event the event
+     * @return the new active state or null
+     */
+    default State fire(Event event) {
+        return execute(event).orElse(null);
+    }
+
     void onEntry();
 
     void onExit();
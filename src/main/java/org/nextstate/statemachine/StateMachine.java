@@ -2,10 +2,19 @@ package org.nextstate.statemachine;
 
 import static java.util.Arrays.asList;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,19 +23,34 @@ import org.slf4j.LoggerFactory;
  * StateMachine - Subclass and use the builder in the constructor. See the unit tests for examples.
  * <br>
  * To state should not have the same name. If to states have the same name it is not deterministic which one is chosen
- * when the active stave is loaded.
+ * when the active stave is loaded. Call {@link #seal()} once built to reject them, and to check and freeze the graph.
+ * <br>
+ * Events are processed to completion: an event executed by an action while the State Machine processes another event
+ * is queued, and processed when the current transition is done.
  */
 public class StateMachine implements CompositeElement {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Logger log = LoggerFactory.getLogger(StateMachine.class);
 
     private State activeState;
-    private final List<State> states = new ArrayList<>();
+    private State initialState;
+    private List<State> states = new ArrayList<>();
+    private EventQueue queue;
+    private boolean executing;
+    // States by name, set when sealed
+    private Map<String, State> stateIndex;
+    // Active states by nesting level, set when sealed if every state is dispatched by fireFlat
+    private State[] path;
+    // Transitions taken by the event being fired, counted by the states when not dispatched by fireFlat
+    private final int[] fired = new int[1];
 
     protected void addStates(List<State> states) {
+        checkNotSealed();
         this.states.addAll(states);
     }
 
     protected void activeState(State state) {
+        checkNotSealed();
+        this.initialState = state;
         this.activeState = state;
         this.activeState.onEntry();
     }
@@ -47,15 +71,227 @@ public class StateMachine implements CompositeElement {
         return activeState;
     }
 
+    @Override public State getState(String name) {
+        return stateIndex != null ? stateIndex.get(name) : CompositeElement.super.getState(name);
+    }
+
+    /**
+     * @return the state given to {@link #activeState(State)} when the State Machine was built
+     */
+    State getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * Set the active state without performing any action, as when the active state configuration is set.
+     */
+    void restoreActiveState(State state) {
+        this.activeState = state;
+    }
+
+    /**
+     * Trace the events given to the states of the State Machine, see {@link Tracer}. Call once the states are added,
+     * the states reachable from them are traced. States shared with another State Machine are traced for the last
+     * State Machine traced.
+     *
+     * @param tracer the tracer, for example {@link Tracer#logging()}, or null to stop tracing
+     */
+    public void trace(Tracer tracer) {
+        Set<State> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<State> pending = new ArrayDeque<>(states);
+        while (!pending.isEmpty()) {
+            State state = pending.poll();
+            if (!(state instanceof AbstractState) || !visited.add(state)) {
+                continue;
+            }
+            AbstractState abstractState = (AbstractState) state;
+            abstractState.trace(this, tracer);
+            abstractState.transitions.forEach(t -> pending.add(t.getTargetState()));
+            if (state instanceof CompositeState) {
+                CompositeState compositeState = (CompositeState) state;
+                pending.addAll(compositeState.getStates());
+                if (compositeState.getInitialTransition() != null) {
+                    pending.add(compositeState.getInitialTransition().getTargetState());
+                }
+            }
+            if (state instanceof OrthogonalState) {
+                pending.addAll(((OrthogonalState) state).getRegions());
+            }
+        }
+    }
+
     public void validate() {
         if (activeState == null) {
             throw new IllegalStateException("No active state");
         }
     }
 
+    // =================
+    //      Seal
+    // =================
+    /**
+     * Check the states reachable from the initial state and make them immutable, once the State Machine is built.
+     * <br>
+     * The transitions of each state are indexed, whether the state completes its Composite State is computed, and the
+     * states of the State Machine and of each Composite State are indexed by name, so executing events and setting the
+     * active state configuration do no lookup. Adding states, transitions or deferred events afterwards fails. States
+     * shared with another State Machine are sealed too. Sealing again does nothing.
+     *
+     * @throws IllegalStateException if there is no active state, two states of the State Machine or of a Composite
+     *                               State have the same name, a Composite State has no initial transition, a state is
+     *                               not reachable from the initial state, a reachable state is not a state of the
+     *                               State Machine or of a Composite State, or is a state of several, or a transition
+     *                               connects states of different parents
+     */
+    public void seal() {
+        if (stateIndex != null) {
+            return;
+        }
+        validate();
+        Set<State> reached = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<State> reachable = reachable(reached);
+
+        // The parent of each state, this State Machine for the top level states
+        Map<State, Object> parents = new IdentityHashMap<>();
+        checkStates(this, getName(), states, reached, parents);
+        for (State state : reachable) {
+            if (state instanceof CompositeState) {
+                checkStates(state, state.getName(), ((CompositeState) state).getStates(), reached, parents);
+            } else if (state instanceof OrthogonalState) {
+                checkStates(state, state.getName(), new ArrayList<>(((OrthogonalState) state).getRegions()),
+                        reached, parents);
+            }
+        }
+        for (State state : reachable) {
+            if (!parents.containsKey(state)) {
+                throw new IllegalStateException("State " + state.getName()
+                        + " is not a state of the State Machine or of a Composite State");
+            }
+        }
+        checkTransitions(reachable, parents);
+
+        boolean flat = true;
+        for (State state : reachable) {
+            if (state instanceof AbstractState) {
+                ((AbstractState) state).seal();
+            }
+            Class<?> type = state.getClass();
+            flat &= type == SimpleState.class || type == FinalState.class || type == CompositeState.class;
+        }
+        path = flat ? new State[8] : null;
+        stateIndex = index(states);
+        states = Collections.unmodifiableList(states);
+    }
+
+    public boolean isSealed() {
+        return stateIndex != null;
+    }
+
+    private void checkNotSealed() {
+        if (isSealed()) {
+            throw new IllegalStateException("State Machine " + getName() + " is sealed");
+        }
+    }
+
+    /**
+     * @return the states reachable from the initial state through transitions, initial transitions and regions, in
+     * the order reached
+     */
+    private List<State> reachable(Set<State> reached) {
+        List<State> reachable = new ArrayList<>();
+        Deque<State> pending = new ArrayDeque<>();
+        pending.add(initialState);
+        while (!pending.isEmpty()) {
+            State state = pending.poll();
+            if (!reached.add(state)) {
+                continue;
+            }
+            reachable.add(state);
+            if (state instanceof AbstractState) {
+                ((AbstractState) state).transitions.forEach(t -> pending.add(t.getTargetState()));
+            }
+            if (state instanceof CompositeState) {
+                Transition initialTransition = ((CompositeState) state).getInitialTransition();
+                if (initialTransition == null) {
+                    throw new IllegalStateException("No initial transition in Composite State: " + state.getName());
+                }
+                pending.add(initialTransition.getTargetState());
+            }
+            if (state instanceof OrthogonalState) {
+                pending.addAll(((OrthogonalState) state).getRegions());
+            }
+        }
+        return reachable;
+    }
+
+    private static void checkStates(Object parent, String parentName, List<State> children, Set<State> reached,
+            Map<State, Object> parents) {
+        Set<String> names = new HashSet<>();
+        for (State child : children) {
+            if (!names.add(child.getName())) {
+                throw new IllegalStateException("Duplicate state name " + child.getName() + " in " + parentName);
+            }
+            if (!reached.contains(child)) {
+                throw new IllegalStateException("Unreachable state " + child.getName() + " in " + parentName);
+            }
+            if (parents.putIfAbsent(child, parent) != null) {
+                throw new IllegalStateException("State " + child.getName() + " of " + parentName
+                        + " is also a state of " + name(parents.get(child)));
+            }
+        }
+    }
+
+    /**
+     * Transitions are taken between states of the same parent, the source exited and the target entered in its place,
+     * see {@link #fireFlat(Event)}: a transition to a state of another parent would make it active in a Composite
+     * State it is not a state of.
+     */
+    private void checkTransitions(List<State> reachable, Map<State, Object> parents) {
+        if (parents.get(initialState) != this) {
+            throw new IllegalStateException("Initial state " + initialState.getName()
+                    + " is not a top level state of " + getName());
+        }
+        for (State state : reachable) {
+            if (state instanceof CompositeState) {
+                State initial = ((CompositeState) state).getInitialTransition().getTargetState();
+                if (parents.get(initial) != state) {
+                    throw new IllegalStateException("Initial state " + initial.getName()
+                            + " is not a state of Composite State " + state.getName());
+                }
+            }
+            if (!(state instanceof AbstractState)) {
+                continue;
+            }
+            for (Transition transition : ((AbstractState) state).transitions) {
+                State target = transition.getTargetState();
+                if (parents.get(target) != parents.get(state)) {
+                    throw new IllegalStateException("Transition " + transition.getName() + " from "
+                            + state.getName() + " in " + name(parents.get(state)) + " to " + target.getName()
+                            + " in " + name(parents.get(target)) + " leaves its parent");
+                }
+            }
+        }
+    }
+
+    private static String name(Object parent) {
+        return parent instanceof State ? ((State) parent).getName() : ((StateMachine) parent).getName();
+    }
+
+    /**
+     * @return the states by name, the first one for a duplicate name
+     */
+    static Map<String, State> index(List<State> states) {
+        Map<String, State> index = new HashMap<>();
+        for (State state : states) {
+            index.putIfAbsent(state.getName(), state);
+        }
+        return index;
+    }
+
     public String getSimpleActiveStateConfiguration() {
         if (activeState instanceof CompositeState) {
-            log.warn("This state: " + activeState.getName() + " is a composite with a the inner active state configuration.");
+            log.warn("This state: {} is a composite with a the inner active state configuration.",
+                    activeState.getName());
         }
         return activeState.getName();
     }
@@ -91,20 +327,198 @@ public class StateMachine implements CompositeElement {
         });
     }
 
+    /**
+     * Process the event. If called by an action while processing another event, the event is queued and processed
+     * after the current one, in the order executed. If processing fails, the queued events are discarded.
+     *
+     * @param event the event
+     */
     public void execute(Event event) {
+        if (executing) {
+            if (queue == null) {
+                queue = new EventQueue();
+            }
+            queue.add(event);
+            return;
+        }
+        executing = true;
+        try {
+            step(event);
+            drain();
+        } finally {
+            executing = false;
+            if (queue != null) {
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Process the events in order, in one call. Events executed by actions are processed after the event being
+     * processed, as by {@link #execute(Event)}.
+     *
+     * @param events the events
+     * @return the counts of the events processed and the active state configuration after the last one
+     */
+    public BatchResult executeAll(Iterable<? extends Event> events) {
+        return executeAll(events, false);
+    }
+
+    /**
+     * Same as {@link #executeAll(Iterable)}, optionally stopping on the first event that triggers no transition.
+     */
+    public BatchResult executeAll(Iterable<? extends Event> events, boolean stopOnUnhandled) {
+        beginBatch();
+        long transitions = 0;
+        int processed = 0;
+        int unhandled = 0;
+        boolean stopped = false;
+        try {
+            for (Event event : events) {
+                processed++;
+                int taken = fire(event);
+                transitions += taken + drain();
+                if (taken == 0) {
+                    unhandled++;
+                    if (stopOnUnhandled) {
+                        stopped = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            endBatch();
+        }
+        return new BatchResult(processed, transitions, unhandled, stopped, getActiveStateConfiguration());
+    }
+
+    /**
+     * Same as {@link #executeAll(Iterable)} with the events of the range of the array.
+     */
+    public BatchResult executeAll(Event[] events, int offset, int length) {
+        return executeAll(events, offset, length, false);
+    }
+
+    /**
+     * Same as {@link #executeAll(Event[], int, int)}, optionally stopping on the first event that triggers no
+     * transition.
+     */
+    public BatchResult executeAll(Event[] events, int offset, int length, boolean stopOnUnhandled) {
+        if (offset < 0 || length < 0 || offset > events.length - length) {
+            throw new IllegalStateException("No events from " + offset + " to " + (offset + length) + " in "
+                    + events.length + " events");
+        }
+        return executeAll(asList(events).subList(offset, offset + length), stopOnUnhandled);
+    }
+
+    private void beginBatch() {
+        if (executing) {
+            throw new IllegalStateException("Events can not be executed in a batch by an action");
+        }
+        if (activeState == null) {
+            throw new IllegalStateException("No active state");
+        }
+        executing = true;
+    }
+
+    private void endBatch() {
+        executing = false;
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Process the events queued by actions.
+     *
+     * @return number of transitions taken
+     */
+    private int drain() {
+        int transitions = 0;
+        while (queue != null && !queue.isEmpty()) {
+            transitions += fire(queue.poll());
+        }
+        return transitions;
+    }
+
+    private void step(Event event) {
         if (activeState == null) {
             throw new IllegalStateException("No active state");
         }
-        log.debug("execute - activeState: " + activeState.getName() + " event: " + event.getClass().getSimpleName());
+        fire(event);
+    }
 
-        Optional<State> state = activeState.execute(event);
+    /**
+     * @return number of transitions taken, at every nesting level
+     */
+    private int fire(Event event) {
+        if (path != null) {
+            return fireFlat(event);
+        }
+        fired[0] = 0;
+        State state = AbstractState.fire(activeState, event, fired);
 
         // Check if new active state and execute onExit on the old and onEntry on the new ...
-        if (state.isPresent()) {
+        if (state != null) {
+            activeState.onExit();
+            activeState = state;
+            activeState.onEntry();
+        }
+        return fired[0];
+    }
+
+    /**
+     * Same as {@link #fire(Event)} once sealed, without nested calls: the active states are collected by level, then
+     * the transitions are checked from the innermost state up as by {@link CompositeState#fire(Event)}.
+     * <br>
+     * Transitions connect states of the same parent, checked by {@link #seal()}, which is their least common ancestor:
+     * the source is exited, then the target is entered through its precomputed chain of initial states, see
+     * {@link CompositeState#onEntry()}.
+     */
+    private int fireFlat(Event event) {
+        int depth = 0;
+        State state = activeState;
+        while (true) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = state;
+            if (!(state instanceof CompositeState)) {
+                break;
+            }
+            State inner = ((CompositeState) state).getActiveState();
+            if (inner == null) {
+                throw new IllegalStateException("No internal active state in Composite State: " + state.getName());
+            }
+            state = inner;
+        }
+
+        int taken = 0;
+        State target = null;
+        for (int level = depth - 1; level >= 0; level--) {
+            AbstractState current = (AbstractState) path[level];
+            Event levelEvent = event;
+            if (target != null) {
+                // Check if new active state and execute exit on the old and onEntry on the new ...
+                path[level + 1].onExit();
+                ((CompositeState) current).restoreActiveState(target);
+                target.onEntry();
+                // If next state is of type Final State then check the final transition from the composite state...
+                if (target.transitionToFinalState()) {
+                    levelEvent = FinalState.FINAL;
+                }
+            }
+            target = current.fireTransition(levelEvent);
+            if (target != null) {
+                taken++;
+            }
+        }
+
+        if (target != null) {
             activeState.onExit();
-            activeState = state.get();
+            activeState = target;
             activeState.onEntry();
-            log.debug("execute - new active state: {}", activeState.getName());
         }
+        return taken;
     }
 }
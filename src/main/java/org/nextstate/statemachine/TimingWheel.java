@@ -0,0 +1,254 @@
+package org.nextstate.statemachine;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical hashed timing wheel firing the timed transitions of many instances, see
+ * {@link Transition.TransitionBuilder#after(Duration)}.
+ * <br>
+ * Time is divided in ticks. Each level of the wheel has 64 slots, a slot of the first level spans one tick and a slot
+ * of each next level spans a full turn of the level below, so five levels cover 64^5 ticks. A timer is put in the
+ * slot of its deadline at the lowest level covering it and moved down a level each time the level below has turned.
+ * The timers of a slot are a doubly linked list, so arming and cancelling a timer take constant time whatever the
+ * number of timers.
+ * <br>
+ * An instance created with {@link MachineDefinition#newInstance(TimingWheel)} arms the timer of a state with timed
+ * transitions when the state is entered, and cancels it when the state is exited. {@link #advance()} collects the
+ * timers expired since the last call and then fires them as a batch in deadline order, with the later timed transitions
+ * of a state that expired meanwhile. The wheel is not thread safe: advance it on the thread executing the events of
+ * its instances.
+ * <pre>
+ * TimingWheel wheel = TimingWheel.timingWheel().tick(Duration.ofMillis(10)).build();
+ * MachineInstance atm = definition.newInstance(wheel);
+ * ...
+ * wheel.advance();
+ * </pre>
+ */
+public final class TimingWheel {
+    private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 5;
+    private static final long RANGE = 1L << (SLOT_BITS * LEVELS);
+
+    private final LongSupplier clock;
+    private final long tickNanos;
+    private final long start;
+    // Sentinel of the list of timers of each slot, by level
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    private final Timer expired = new Timer();
+    private long currentTick;
+    private int pending;
+
+    private TimingWheel(LongSupplier clock, long tickNanos) {
+        this.clock = clock;
+        this.tickNanos = tickNanos;
+        this.start = clock.getAsLong();
+        for (Timer[] level : slots) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                level[slot] = new Timer();
+            }
+        }
+    }
+
+    public Duration getTick() {
+        return Duration.ofNanos(tickNanos);
+    }
+
+    /**
+     * @return number of armed timers
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Fire the timers expired up to now.
+     *
+     * @return number of timers fired
+     */
+    public int advance() {
+        long now = (clock.getAsLong() - start) / tickNanos;
+        if (pending == 0) {
+            currentTick = Math.max(currentTick, now);
+            return 0;
+        }
+        while (currentTick < now) {
+            currentTick++;
+            cascade();
+            splice(slots[0][(int) (currentTick & MASK)], expired);
+        }
+
+        int fired = 0;
+        while (expired.next != expired) {
+            Timer timer = expired.next;
+            unlink(timer);
+            pending--;
+            fired++;
+            try {
+                timer.expire();
+            } catch (RuntimeException e) {
+                log.warn("Timer failed", e);
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Arm the timer to expire after the delay, cancelling it first if armed.
+     */
+    void schedule(Timer timer, long delayNanos) {
+        cancel(timer);
+        long elapsed = clock.getAsLong() - start + delayNanos;
+        // Rounded up, a timer never expires before its delay and never on the tick it is armed
+        timer.deadline = Math.max(currentTick + 1, (elapsed + tickNanos - 1) / tickNanos);
+        insert(timer);
+        pending++;
+    }
+
+    /**
+     * Arm the timer again to expire the delay after its last deadline, in the current batch if that has passed.
+     */
+    void reschedule(Timer timer, long delayNanos) {
+        cancel(timer);
+        timer.deadline += (delayNanos + tickNanos - 1) / tickNanos;
+        insert(timer);
+        pending++;
+    }
+
+    void cancel(Timer timer) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+            pending--;
+        }
+    }
+
+    /**
+     * Move down the timers of the slots reached by the levels that turned with the current tick.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            Timer slot = slots[level][(int) ((currentTick >>> shift) & MASK)];
+            Timer timer = slot.next;
+            slot.next = slot;
+            slot.prev = slot;
+            while (timer != slot) {
+                Timer next = timer.next;
+                insert(timer);
+                timer = next;
+            }
+        }
+    }
+
+    private void insert(Timer timer) {
+        long delta = timer.deadline - currentTick;
+        if (delta <= 0) {
+            link(timer, expired);
+            return;
+        }
+        // Beyond the range, parked in the last level until it comes in range
+        long deadline = delta < RANGE ? timer.deadline : currentTick + RANGE - 1;
+        int level = 0;
+        while (level < LEVELS - 1 && deadline - currentTick >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        link(timer, slots[level][(int) ((deadline >>> (SLOT_BITS * level)) & MASK)]);
+    }
+
+    private static void link(Timer timer, Timer list) {
+        timer.prev = list.prev;
+        timer.next = list;
+        list.prev.next = timer;
+        list.prev = timer;
+    }
+
+    private static void unlink(Timer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    private static void splice(Timer from, Timer to) {
+        if (from.next == from) {
+            return;
+        }
+        Timer first = from.next;
+        Timer last = from.prev;
+        first.prev = to.prev;
+        to.prev.next = first;
+        last.next = to;
+        to.prev = last;
+        from.next = from;
+        from.prev = from;
+    }
+
+    /**
+     * A timer armed on one wheel at the time. A timer is also used as the sentinel of a list of timers, linked to
+     * itself when the list is empty.
+     */
+    static class Timer {
+        private Timer prev = this;
+        private Timer next = this;
+        private long deadline;
+
+        /**
+         * Called by {@link #advance()} when the timer expires.
+         */
+        void expire() {
+        }
+
+        boolean isScheduled() {
+            return next != null && next != this;
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static TimingWheelBuilder timingWheel() {
+        return new TimingWheelBuilder();
+    }
+
+    public static class TimingWheelBuilder {
+        private Duration tick = Duration.ofMillis(10);
+        private LongSupplier clock = System::nanoTime;
+
+        TimingWheelBuilder() {
+        }
+
+        /**
+         * @param tick resolution of the wheel, 10 milliseconds by default. Timers expire on the first tick after
+         *             their deadline.
+         */
+        public TimingWheelBuilder tick(Duration tick) {
+            this.tick = tick;
+            return this;
+        }
+
+        /**
+         * @param clock source of the time in nanoseconds, {@link System#nanoTime()} by default
+         */
+        public TimingWheelBuilder clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public TimingWheel build() {
+            if (tick.isNegative() || tick.isZero()) {
+                throw new IllegalStateException("Tick must be positive");
+            }
+            return new TimingWheel(clock, tick.toNanos());
+        }
+    }
+}
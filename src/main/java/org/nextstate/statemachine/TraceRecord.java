@@ -0,0 +1,65 @@
+package org.nextstate.statemachine;
+
+/**
+ * A state of a traced {@link StateMachine} given an event, and the transition it matched if any, see {@link Tracer}.
+ */
+public final class TraceRecord {
+    private final StateMachine stateMachine;
+    private final State state;
+    private final State target;
+    private final Event event;
+    private final String transition;
+
+    TraceRecord(StateMachine stateMachine, State state, State target, Event event, String transition) {
+        this.stateMachine = stateMachine;
+        this.state = state;
+        this.target = target;
+        this.event = event;
+        this.transition = transition;
+    }
+
+    /**
+     * @return the traced State Machine
+     */
+    public StateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    /**
+     * @return the state given the event, at any nesting level
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return target of the matched transition or null if no transition matched
+     */
+    public State getTarget() {
+        return target;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    /**
+     * @return name of the matched transition, null if no transition matched or the transition has no name
+     */
+    public String getTransition() {
+        return transition;
+    }
+
+    public boolean isTransition() {
+        return target != null;
+    }
+
+    @Override public String toString() {
+        if (target == null) {
+            return stateMachine.getName() + " " + state.getName() + " event: " + event.getName()
+                    + " no transition match";
+        }
+        return stateMachine.getName() + " " + state.getName() + " event: " + event.getName() + " transition "
+                + transition + " to state: " + target.getName();
+    }
+}
@@ -0,0 +1,20 @@
+package org.nextstate.statemachine;
+
+/**
+ * Receives a {@link TraceRecord} each time a state of a traced {@link StateMachine} is given an event, see
+ * {@link StateMachine#trace(Tracer)}. No record is created while the State Machine is not traced.
+ * <br>
+ * Called on the thread executing the event, before the transition action is performed.
+ */
+@FunctionalInterface
+public interface Tracer {
+
+    void trace(TraceRecord record);
+
+    /**
+     * @return a tracer logging the records at debug level, with the logger of the class of the State Machine
+     */
+    static Tracer logging() {
+        return LoggingTracer.INSTANCE;
+    }
+}
@@ -1,27 +1,85 @@
 package org.nextstate.statemachine;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
 
 public class Transition {
+    /**
+     * Name of the events firing timed transitions, see {@link TransitionBuilder#after(Duration)}. Their type is not
+     * registered, so they never match a transition on an event of this name, and events of this name never fire a
+     * timed transition.
+     */
+    public static final String TIMEOUT_EVENT = "Timeout";
+    private static final EventType TIMEOUT = EventType.unregistered(TIMEOUT_EVENT);
+
     private final String name;
+    private final EventType event;
+    private final boolean guardedByEventOnly;
+    private final Duration delay;
+    private final Event timeout;
     private State targetState;
     protected Predicate<Event> guard;
     protected Optional<Action> onTransition;
 
     public Transition(Predicate<Event> guard, State state, String name, Action onTransition) {
+        this(null, guard, state, name, onTransition);
+    }
+
+    /**
+     * Transition triggered by the event with the given name. An additional guard is optional.
+     *
+     * @param event        name of the triggering event, or null if the transition is guarded only by the guard
+     * @param guard        guard, or null if the transition is guarded only by the event name
+     * @param state        target state
+     * @param name         name of the transition
+     * @param onTransition action performed on transition, or null
+     */
+    public Transition(String event, Predicate<Event> guard, State state, String name, Action onTransition) {
         if (state == null) {
             throw new IllegalStateException("Missing target State!");
         }
-        if (guard == null) {
+        if (guard == null && event == null) {
             throw new IllegalStateException("Transitions must have guards!");
         }
-        this.guard = guard;
+        this.event = event == null ? null : EventType.of(event);
+        this.guardedByEventOnly = guard == null;
+        this.guard = guard != null ? guard : e -> event.equals(e.getName());
         this.targetState = state;
         this.name = name;
         this.onTransition = Optional.ofNullable(onTransition);
+        this.delay = null;
+        this.timeout = null;
+    }
+
+    /**
+     * Timed transition, fired when its source state has been active for the delay. Timers are armed for instances
+     * created with {@link MachineDefinition#newInstance(TimingWheel)}, other State Machines never fire the transition.
+     *
+     * @param guard        guard tested when the delay has passed, or null
+     * @param state        target state
+     * @param name         name of the transition
+     * @param onTransition action performed on transition, or null
+     * @param delay        time in the source state before the transition fires
+     */
+    public Transition(Predicate<Event> guard, State state, String name, Action onTransition, Duration delay) {
+        if (state == null) {
+            throw new IllegalStateException("Missing target State!");
+        }
+        if (delay == null || delay.isNegative() || delay.isZero()) {
+            throw new IllegalStateException("Timed transitions must have a positive delay!");
+        }
+        // Keyed on the unregistered timeout event type, fired only by the timeout event of this transition
+        this.event = TIMEOUT;
+        this.timeout = new Event(event);
+        this.guardedByEventOnly = false;
+        this.guard = guard == null ? e -> e == timeout : e -> e == timeout && guard.test(e);
+        this.targetState = state;
+        this.name = name;
+        this.onTransition = Optional.ofNullable(onTransition);
+        this.delay = delay;
     }
 
     public State getTargetState() {
@@ -32,6 +90,46 @@ public class Transition {
         return name;
     }
 
+    /**
+     * @return name of the triggering event or null if the transition is guarded only by a predicate
+     */
+    public String getEvent() {
+        return event == null ? null : event.getName();
+    }
+
+    /**
+     * @return type of the triggering event or null if the transition is guarded only by a predicate
+     */
+    public EventType getEventType() {
+        return event;
+    }
+
+    /**
+     * @return time in the source state before a timed transition fires, or null if the transition is triggered by
+     * events
+     */
+    public Duration getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return the event firing a timed transition, or null
+     */
+    Event timeout() {
+        return timeout;
+    }
+
+    /**
+     * Test the transition for an event already known to have the name of the triggering event, if any.
+     */
+    boolean accepts(Event event) {
+        return guardedByEventOnly || guard.test(event);
+    }
+
+    boolean isGuardedByEventOnly() {
+        return guardedByEventOnly;
+    }
+
     // =================
     //      Builder
     // =================
@@ -47,15 +145,42 @@ public class Transition {
     public static class TransitionBuilder<T> {
         private final String name;
         final T parentBuilder;
+        private String event;
         Predicate<Event> guard;
         private State state;
         private Action onTransition;
+        private Duration delay;
 
         public TransitionBuilder(T parentBuilder, String name) {
             this.parentBuilder = parentBuilder;
             this.name = name;
         }
 
+        /**
+         * Trigger the transition by events with the given name. The transitions of a state are indexed by the event
+         * name, so no guard is tested for other events. Can be combined with {@link #guardedBy(Predicate)}.
+         *
+         * @param event name of the triggering event
+         * @return this builder
+         */
+        public TransitionBuilder<T> on(String event) {
+            this.event = event;
+            return this;
+        }
+
+        /**
+         * Fire the transition when its source state has been active for the delay, unless it is exited before. The
+         * timer is armed when the state is entered and cancelled when it is exited, see {@link TimingWheel}. Can be
+         * combined with {@link #guardedBy(Predicate)}, tested when the delay has passed.
+         *
+         * @param delay time in the source state
+         * @return this builder
+         */
+        public TransitionBuilder<T> after(Duration delay) {
+            this.delay = delay;
+            return this;
+        }
+
         public TransitionBuilder<T> guardedBy(Predicate<Event> guard) {
             this.guard = guard;
             return this;
@@ -72,7 +197,13 @@ public class Transition {
         }
 
         public Transition build() {
-            return new Transition(guard, state, name, onTransition);
+            if (delay != null) {
+                if (event != null) {
+                    throw new IllegalStateException("Timed transitions are not triggered by events!");
+                }
+                return new Transition(guard, state, name, onTransition, delay);
+            }
+            return new Transition(event, guard, state, name, onTransition);
         }
     }
 
@@ -0,0 +1,107 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of the outgoing transitions of a state.
+ * <br>
+ * Transitions declared with {@link Transition.TransitionBuilder#on(String)} are looked up in an array indexed by the
+ * {@link EventType} id of the event. For each event type the index holds the transitions keyed on that type together
+ * with the transitions guarded only by a predicate, in declaration order, so the first matching transition is the same
+ * as when testing every guard in order.
+ */
+final class TransitionTable {
+    private static final int[] NONE = new int[0];
+
+    private final Transition[] transitions;
+    private final int firstId;
+    private final int[][] candidatesById;
+    private final int[] predicateCandidates;
+
+    TransitionTable(List<Transition> transitionList) {
+        this.transitions = transitionList.toArray(new Transition[transitionList.size()]);
+
+        int minId = Integer.MAX_VALUE;
+        int maxId = -1;
+        for (Transition transition : transitions) {
+            if (transition.getEventType() != null) {
+                minId = Math.min(minId, transition.getEventType().getId());
+                maxId = Math.max(maxId, transition.getEventType().getId());
+            }
+        }
+        this.firstId = maxId < 0 ? 0 : minId;
+        this.candidatesById = new int[maxId < 0 ? 0 : maxId - minId + 1][];
+        for (Transition transition : transitions) {
+            EventType type = transition.getEventType();
+            if (type != null && candidatesById[type.getId() - firstId] == null) {
+                candidatesById[type.getId() - firstId] = candidates(type);
+            }
+        }
+        this.predicateCandidates = candidates(null);
+    }
+
+    private int[] candidates(EventType type) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < transitions.length; i++) {
+            EventType key = transitions[i].getEventType();
+            if (key == null || key == type) {
+                candidates.add(i);
+            }
+        }
+        return candidates.isEmpty() ? NONE : candidates.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    int size() {
+        return transitions.length;
+    }
+
+    Transition get(int index) {
+        return transitions[index];
+    }
+
+    /**
+     * @param eventId id of an event type
+     * @return indexes of the candidate transitions for the event type, or null if no transition is keyed on it
+     */
+    int[] candidates(int eventId) {
+        int slot = eventId - firstId;
+        return slot >= 0 && slot < candidatesById.length ? candidatesById[slot] : null;
+    }
+
+    /**
+     * @return ids of the event types with transitions keyed on them, in increasing order
+     */
+    int[] eventIds() {
+        List<Integer> ids = new ArrayList<>();
+        for (int slot = 0; slot < candidatesById.length; slot++) {
+            if (candidatesById[slot] != null) {
+                ids.add(firstId + slot);
+            }
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return indexes of the transitions guarded only by a predicate, the candidates for other events
+     */
+    int[] predicateCandidates() {
+        return predicateCandidates;
+    }
+
+    /**
+     * @return index of the first transition matching the event or -1 if no transition match
+     */
+    int match(Event event) {
+        int[] candidates = candidates(event.getId());
+        if (candidates == null) {
+            candidates = predicateCandidates;
+        }
+        for (int index : candidates) {
+            if (transitions[index].accepts(event)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,132 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.Arrays;
+
+/**
+ * StateMachine for an ATM with the composite state ServingCustomer.
+ * <p>
+ * See example used: http://www.uml-diagrams.org/bank-atm-uml-state-machine-diagram-example.html
+ */
+class ATMStateMachine extends StateMachine {
+    // State name
+    public static final String SELF_TEST = "SelfTest";
+    public static final String OFF = "Off";
+    public static final String IDLE = "Idle";
+    public static final String SERVING_CUSTOMER = "ServingCustomer";
+    public static final String AUTHENTICATION = "Authentication";
+    public static final String SELECTING_TRANSACTION = "SelectingTransaction";
+    public static final String TRANSACTION = "Transaction";
+    public static final String FINAL = "Final";
+
+    // Event name
+    public static final String TURNED_ON = "TurnedOn";
+    public static final String TESTED_OK = "TestedOk";
+    public static final String TURNED_OFF = "TurnedOff";
+    public static final String CARD_INSERTED = "CardInserted";
+    public static final String CANCELED = "Canceled";
+    public static final String AUTHENTICATED = "Authenticated";
+    public static final String TRANSACTION_SELECTED = "TransactionSelected";
+
+    // Actions (Command) - name of transitions
+    private static final String TURN_ON = "TurnOn";
+    private static final String TEST_OK = "TestOk";
+    private static final String TURN_OFF = "TurnOff";
+    private static final String CARD_INSERT = "CardInsert";
+    private static final String CANCEL = "Cancel";
+    private static final String AUTHENTICATE = "Authenticate";
+    private static final String TRANSACTION_SELECT = "TransactionSelect";
+    private static final String INITIALIZE = "Initialize";
+
+    {
+        SimpleState off = state(OFF).build();
+        State finalState = new FinalState(FINAL);
+        SimpleState idle = state(IDLE).build();
+        State transaction = state(TRANSACTION)
+                .transition(FINAL).guardedBy(e -> true)
+                .to(finalState)
+                .build();
+        State selectingTransaction = state(SELECTING_TRANSACTION)
+                .transition(TRANSACTION_SELECT).guardedBy(e -> e.getName().equals(TRANSACTION_SELECTED))
+                .to(transaction)
+                .build();
+        State authentication = state(AUTHENTICATION)
+                .transition(AUTHENTICATE).guardedBy(e -> e.getName().equals(AUTHENTICATED))
+                .to(selectingTransaction)
+                .build();
+        State servingCustomerCompositeState = compositeState(SERVING_CUSTOMER)
+                .transition(CANCEL).guardedBy(e -> e.getName().equals(CANCELED))
+                .to(idle)
+                .transition(FINAL).guardedBy(e -> e.getName().equals(FinalState.FINAL_EVENT))
+                .to(idle)
+                .initialTransition(singleTransition(INITIALIZE).to(authentication))
+                .internalStates(Arrays.asList(authentication, selectingTransaction, transaction,
+                        finalState))
+                .build();
+        idle.addTransitions(transitions()
+                .transition(TURN_OFF).guardedBy(e -> e.getName().equals(TURNED_OFF))
+                .to(off)
+                .transition(CARD_INSERT).guardedBy(e -> e.getName().equals(CARD_INSERTED))
+                .to(servingCustomerCompositeState)
+                .build());
+        State selfTest = state(SELF_TEST)
+                .transition(TEST_OK).guardedBy(e -> e.getName().equals(TESTED_OK))
+                .to(idle)
+                .build();
+        off.addTransitions(transitions()
+                .transition(TURN_ON).guardedBy(e -> e.getName().equals(TURNED_ON))
+                .to(selfTest)
+                .build());
+
+        addStates(asList(off, selfTest, idle, servingCustomerCompositeState));
+        activeState(off);
+        validate();
+    }
+
+    public static class Authenticated extends Event {
+        public Authenticated() {
+            super(AUTHENTICATED);
+        }
+    }
+
+    public static class TurnedOn extends Event {
+        public TurnedOn() {
+            super(TURNED_ON);
+        }
+    }
+
+    public static class TestedOk extends Event {
+        public TestedOk() {
+            super(TESTED_OK);
+        }
+    }
+
+    public static class TurnedOff extends Event {
+        public TurnedOff() {
+            super(TURNED_OFF);
+        }
+    }
+
+    public static class CardInserted extends Event {
+        public CardInserted() {
+            super(CARD_INSERTED);
+        }
+    }
+
+    public static class Canceled extends Event {
+        public Canceled() {
+            super(CANCELED);
+        }
+    }
+
+    public static class TransactionSelected extends Event {
+        public TransactionSelected() {
+            super(TRANSACTION_SELECTED);
+        }
+    }
+}
@@ -2,52 +2,21 @@ package org.nextstate.statemachine;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.nextstate.statemachine.CompositeState.compositeState;
-import static org.nextstate.statemachine.SimpleState.state;
-import static org.nextstate.statemachine.Transition.singleTransition;
-import static org.nextstate.statemachine.Transition.transitions;
+import static org.nextstate.statemachine.ATMStateMachine.*;
 
 import java.util.Arrays;
 
 import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
 
 /**
- * Testing composite state.
+ * Testing composite state using the state machine defined in {@link org.nextstate.statemachine.ATMStateMachine}
  * <p>
  * See example used: http://www.uml-diagrams.org/bank-atm-uml-state-machine-diagram-example.html
  * <p>
  */
 public class ATMStateMachineTest {
 
-    // State name
-    private static final String SELF_TEST = "SelfTest";
-    private static final String OFF = "Off";
-    private static final String IDLE = "Idle";
-    private static final String SERVING_CUSTOMER = "ServingCustomer";
-    private static final String AUTHENTICATION = "Authentication";
-    private static final String SELECTING_TRANSACTION = "SelectingTransaction";
-    private static final String TRANSACTION = "Transaction";
-    private static final String FINAL = "Final";
-
-    // Event name
-    private static final String TURNED_ON = "TurnedOn";
-    private static final String TESTED_OK = "TestedOk";
-    private static final String TURNED_OFF = "TurnedOff";
-    private static final String CARD_INSERTED = "CardInserted";
-    private static final String CANCELED = "Canceled";
-    private static final String AUTHENTICATED = "Authenticated";
-    private static final String TRANSACTION_SELECTED = "TransactionSelected";
-
-    // Actions (Command) - name of transitions
-    private static final String TURN_ON = "TurnOn";
-    private static final String TEST_OK = "TestOk";
-    private static final String TURN_OFF = "TurnOff";
-    private static final String CARD_INSERT = "CardInsert";
-    private static final String CANCEL = "Cancel";
-    private static final String AUTHENTICATE = "Authenticate";
-    private static final String TRANSACTION_SELECT = "TransactionSelect";
-    private static final String INITIALIZE = "Initialize";
-
     @Test
     public void simple_state_transfers() {
         // Given
@@ -115,88 +84,4 @@ public class ATMStateMachineTest {
         System.out.println("DOT notation for Composite state ServingCustomer:");
         System.out.println(((CompositeState) atm.getActiveState()).toDot(false));
     }
-
-    //--------------------------------------------------
-    private class ATMStateMachine extends StateMachine {
-        {
-            SimpleState off = state(OFF).build();
-            State finalState = new FinalState(FINAL);
-            SimpleState idle = state(IDLE).build();
-            State transaction = state(TRANSACTION)
-                    .transition(FINAL).guardedBy(e -> true)
-                    .to(finalState)
-                    .build();
-            State selectingTransaction = state(SELECTING_TRANSACTION)
-                    .transition(TRANSACTION_SELECT).guardedBy(e -> e.getName().equals(TRANSACTION_SELECTED))
-                    .to(transaction)
-                    .build();
-            State authentication = state(AUTHENTICATION)
-                    .transition(AUTHENTICATE).guardedBy(e -> e.getName().equals(AUTHENTICATED))
-                    .to(selectingTransaction)
-                    .build();
-            State servingCustomerCompositeState = compositeState(SERVING_CUSTOMER)
-                    .transition(CANCEL).guardedBy(e -> e.getName().equals(CANCELED))
-                    .to(idle)
-                    .transition(FINAL).guardedBy(e -> e.getName().equals(FinalState.FINAL_EVENT))
-                    .to(idle)
-                    .initialTransition(singleTransition(INITIALIZE).to(authentication))
-                    .internalStates(Arrays.asList(authentication, selectingTransaction, transaction,
-                            finalState))
-                    .build();
-            idle.addTransitions(transitions()
-                    .transition(TURN_OFF).guardedBy(e -> e.getName().equals(TURNED_OFF))
-                    .to(off)
-                    .transition(CARD_INSERT).guardedBy(e -> e.getName().equals(CARD_INSERTED))
-                    .to(servingCustomerCompositeState)
-                    .build());
-            State selfTest = state(SELF_TEST)
-                    .transition(TEST_OK).guardedBy(e -> e.getName().equals(TESTED_OK))
-                    .to(idle)
-                    .build();
-            off.addTransitions(transitions()
-                    .transition(TURN_ON).guardedBy(e -> e.getName().equals(TURNED_ON))
-                    .to(selfTest)
-                    .build());
-
-            addStates(asList(off, selfTest, idle, servingCustomerCompositeState));
-            activeState(off);
-            validate();
-        }
-    }
-
-    private class Authenticated extends Event {
-        public Authenticated() {
-            super(AUTHENTICATED);
-        }
-    }
-
-    private class TurnedOn extends Event {
-        public TurnedOn() {
-            super(TURNED_ON);
-        }
-    }
-
-    private class TestedOk extends Event {
-        public TestedOk() {
-            super(TESTED_OK);
-        }
-    }
-
-    private class TurnedOff extends Event {
-        public TurnedOff() {
-            super(TURNED_OFF);
-        }
-    }
-
-    private class CardInserted extends Event {
-        public CardInserted() {
-            super(CARD_INSERTED);
-        }
-    }
-
-    private class TransactionSelected extends Event {
-        public TransactionSelected() {
-            super(TRANSACTION_SELECTED);
-        }
-    }
 }
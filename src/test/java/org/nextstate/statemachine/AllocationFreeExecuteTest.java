@@ -0,0 +1,151 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.CompositeTimes2StateMachine.*;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Verifies that executing events allocates nothing once warmed up, with debug logging disabled.
+ */
+public class AllocationFreeExecuteTest {
+    private static final int WARM_UP = 20_000;
+    private static final int ROUNDS = 100_000;
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger("org.nextstate.statemachine");
+    private Level level;
+
+    @Before
+    public void disableDebugLogging() {
+        level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+    }
+
+    @After
+    public void restoreLogging() {
+        logger.setLevel(level);
+    }
+
+    @Test
+    public void flat_state_machine() {
+        StateMachine stateMachine = new FlatStateMachine();
+        Event[] events = {new Event("Dial"), new Event("Unhandled"), EventType.of("HangUp").event()};
+
+        assertThat(bytesPerRound(() -> executeAll(stateMachine, events))).isLessThan(1.0);
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("Idle");
+    }
+
+    @Test
+    public void flat_machine_instance() {
+        MachineInstance instance = MachineDefinition.of(new FlatStateMachine()).newInstance();
+        Event[] events = {new Event("Dial"), new Event("Unhandled"), EventType.of("HangUp").event()};
+
+        assertThat(bytesPerRound(() -> executeAll(instance, events))).isLessThan(1.0);
+        assertThat(instance.getActiveStateName()).isEqualTo("Idle");
+    }
+
+    @Test
+    public void nested_composite_state_machine() {
+        StateMachine stateMachine = new CompositeTimes2StateMachine();
+        Event[] events = {new Event(A_SIMPLE_EVENT), new Event(TO_INNER_STATE_2_2_EVENT), new Event(BACK_EVENT)};
+
+        assertThat(bytesPerRound(() -> executeAll(stateMachine, events))).isLessThan(1.0);
+        assertThat(stateMachine.getActiveStateName()).isEqualTo(A_SIMPLE_STATE);
+    }
+
+    @Test
+    public void nested_composite_machine_instance() {
+        MachineInstance instance = MachineDefinition.of(new CompositeTimes2StateMachine()).newInstance();
+        Event[] events = {new Event(A_SIMPLE_EVENT), new Event(TO_INNER_STATE_2_2_EVENT), new Event(BACK_EVENT)};
+
+        assertThat(bytesPerRound(() -> executeAll(instance, events))).isLessThan(1.0);
+        assertThat(instance.getActiveStateName()).isEqualTo(A_SIMPLE_STATE);
+    }
+
+    @Test
+    public void configuration_codec() {
+        MachineDefinition definition = MachineDefinition.of(new CompositeTimes2StateMachine());
+        ConfigurationCodec codec = ConfigurationCodec.of(definition);
+        MachineInstance instance = definition.newInstance();
+        instance.execute(new Event(A_SIMPLE_EVENT));
+        StateMachine stateMachine = new CompositeTimes2StateMachine();
+        stateMachine.execute(new Event(A_SIMPLE_EVENT));
+        short[] encoded = new short[codec.getMaxDepth()];
+
+        assertThat(bytesPerRound(() -> {
+            codec.decodeLong(codec.encodeLong(instance), instance);
+            codec.decode(encoded, 0, codec.encode(instance, encoded, 0), instance);
+            codec.decodeLong(codec.encodeLong(stateMachine), stateMachine);
+            codec.decode(encoded, 0, codec.encode(stateMachine, encoded, 0), stateMachine);
+        })).isLessThan(1.0);
+        assertThat(instance.getActiveStateConfiguration()).containsExactly(COMPOSITE_STATE_1, COMPOSITE_STATE_2,
+                INNER_STATE_2_1);
+    }
+
+    private static void executeAll(StateMachine stateMachine, Event[] events) {
+        for (Event event : events) {
+            stateMachine.execute(event);
+        }
+    }
+
+    private static void executeAll(MachineInstance instance, Event[] events) {
+        for (Event event : events) {
+            instance.execute(event);
+        }
+    }
+
+    /**
+     * Allocated bytes on this thread divided by the number of rounds. Any allocation per event gives at least 16
+     * bytes per round, while the fixed cost of measuring is spread over all rounds.
+     */
+    private static double bytesPerRound(Runnable round) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP; i++) {
+            round.run();
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++) {
+            round.run();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        return (double) allocated / ROUNDS;
+    }
+
+    // Idle <-> Ringing
+    private static class FlatStateMachine extends StateMachine {
+        {
+            int[] counters = new int[2];
+            SimpleState idle = state("Idle")
+                    .onEntry(() -> counters[0]++)
+                    .build();
+            State ringing = state("Ringing")
+                    .onExit(() -> counters[1]++)
+                    .transition("Answer").guardedBy(e -> e.getName().equals("Answered"))
+                    .to(idle)
+                    .transition("HangUp").on("HangUp")
+                    .to(idle)
+                    .build();
+            idle.addTransitions(transitions()
+                    .transition("Dial").on("Dial").onTransition(() -> counters[0]--)
+                    .to(ringing)
+                    .build());
+
+            addStates(asList(idle, ringing));
+            activeState(idle);
+            validate();
+        }
+    }
+}
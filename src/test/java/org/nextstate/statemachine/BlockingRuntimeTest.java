@@ -0,0 +1,203 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BlockingRuntimeTest {
+    private static final String START = "Start";
+    private static final String FINISH = "Finish";
+
+    @Test
+    public void uses_virtual_threads_when_available() {
+        boolean available;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            available = true;
+        } catch (NoSuchMethodException e) {
+            available = false;
+        }
+
+        try (BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(new BlockingStateMachine(0))
+                .build()) {
+            assertThat(runtime.isVirtual()).isEqualTo(available && BlockingRuntime.virtualThreadExecutor() != null);
+        }
+        try (BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(new BlockingStateMachine(0))
+                .platformThreads().build()) {
+            assertThat(runtime.isVirtual()).isFalse();
+        }
+    }
+
+    @Test
+    public void events_for_an_instance_processed_in_order() throws Exception {
+        int ids = 200;
+        int cycles = 20;
+        BlockingStateMachine stateMachine = new BlockingStateMachine(0);
+
+        try (BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(stateMachine)
+                .maxConcurrentInstances(8).batchSize(4).build()) {
+            for (int cycle = 0; cycle < cycles; cycle++) {
+                for (int id = 0; id < ids; id++) {
+                    runtime.submit(id, new Event(START));
+                    runtime.submit(id, new Event(FINISH));
+                }
+            }
+            for (int id = 0; id < ids; id++) {
+                runtime.submit(id, new Event(START));
+            }
+
+            // Any event out of order is not handled and the instance ends in another state
+            for (int id = 0; id < ids; id++) {
+                assertThat(runtime.getActiveStateConfiguration(id).get(10, TimeUnit.SECONDS))
+                        .containsExactly("Working");
+            }
+            assertThat(runtime.getProcessed()).isEqualTo((long) ids * (cycles * 2 + 1));
+            assertThat(runtime.getFailed()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void concurrent_instances_bounded() throws Exception {
+        BlockingStateMachine stateMachine = new BlockingStateMachine(2);
+
+        try (BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(stateMachine)
+                .maxConcurrentInstances(4).build()) {
+            for (int id = 0; id < 40; id++) {
+                runtime.submit(id, new Event(START));
+            }
+            for (int id = 0; id < 40; id++) {
+                assertThat(runtime.getActiveStateConfiguration(id).get(10, TimeUnit.SECONDS))
+                        .containsExactly("Working");
+            }
+        }
+
+        assertThat(stateMachine.maxBlocked.get()).isBetween(2, 4);
+    }
+
+    @Test
+    public void many_blocked_instances_on_virtual_threads() throws Exception {
+        BlockingStateMachine stateMachine = new BlockingStateMachine(100);
+
+        try (BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(stateMachine)
+                .maxConcurrentInstances(10_000).build()) {
+            assumeTrue(runtime.isVirtual());
+
+            for (int id = 0; id < 10_000; id++) {
+                runtime.submit(id, new Event(START));
+            }
+            assertThat(runtime.getActiveStateConfiguration(9_999).get(30, TimeUnit.SECONDS))
+                    .containsExactly("Working");
+        }
+
+        assertThat(stateMachine.maxBlocked.get()).isGreaterThan(1_000);
+    }
+
+    @Test
+    public void drained_mailboxes_removed_but_instances_kept() throws Exception {
+        try (BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(new BlockingStateMachine(0))
+                .maxConcurrentInstances(4).build()) {
+            for (int round = 0; round < 3; round++) {
+                for (int id = 0; id < 1_000; id++) {
+                    runtime.submit(id, new Event(round % 2 == 0 ? START : FINISH));
+                }
+                for (int id = 0; id < 1_000; id++) {
+                    assertThat(runtime.getActiveStateConfiguration(id).get(10, TimeUnit.SECONDS))
+                            .containsExactly(round % 2 == 0 ? "Working" : "Idle");
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (runtime.getMailboxes() > 0) {
+                    assertThat(System.nanoTime()).isLessThan(deadline);
+                    Thread.sleep(1);
+                }
+            }
+            assertThat(runtime.getFailed()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void events_accepted_while_closing_processed() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            BlockingRuntime<Integer> runtime = BlockingRuntime.<Integer>blockingRuntime(new BlockingStateMachine(0))
+                    .maxConcurrentInstances(4).build();
+            List<List<CompletableFuture<List<String>>>> accepted = new ArrayList<>();
+            List<Thread> producers = new ArrayList<>();
+            List<Throwable> errors = new CopyOnWriteArrayList<>();
+            CountDownLatch started = new CountDownLatch(4);
+            for (int p = 0; p < 4; p++) {
+                List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+                accepted.add(futures);
+                Thread producer = new Thread(() -> {
+                    started.countDown();
+                    try {
+                        for (int id = 0; ; id++) {
+                            runtime.submit(id % 100, new Event(START));
+                            futures.add(runtime.getActiveStateConfiguration(id % 100));
+                        }
+                    } catch (IllegalStateException e) {
+                        assertThat(e.getMessage()).isEqualTo("Runtime is closed");
+                    }
+                });
+                producer.setUncaughtExceptionHandler((thread, e) -> errors.add(e));
+                producers.add(producer);
+                producer.start();
+            }
+            started.await();
+            runtime.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            assertThat(errors).isEmpty();
+            for (List<CompletableFuture<List<String>>> futures : accepted) {
+                for (CompletableFuture<List<String>> future : futures) {
+                    assertThat(future.get(10, TimeUnit.SECONDS)).containsExactly("Working");
+                }
+            }
+            assertThat(runtime.getMailboxes()).isEqualTo(0);
+        }
+    }
+
+    // Idle <-> Working, entering Working blocks for a while
+    private static class BlockingStateMachine extends StateMachine {
+        final AtomicInteger blocked = new AtomicInteger();
+        final AtomicInteger maxBlocked = new AtomicInteger();
+
+        BlockingStateMachine(long blockMillis) {
+            SimpleState idle = state("Idle").build();
+            SimpleState working = state("Working")
+                    .onEntry(() -> {
+                        maxBlocked.accumulateAndGet(blocked.incrementAndGet(), Math::max);
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(blockMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        blocked.decrementAndGet();
+                    })
+                    .build();
+            idle.addTransitions(transitions()
+                    .transition(START).on(START)
+                    .to(working)
+                    .build());
+            working.addTransitions(transitions()
+                    .transition(FINISH).on(FINISH)
+                    .to(idle)
+                    .build());
+
+            addStates(asList(idle, working));
+            activeState(idle);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class BulkEngineTest {
+    private static final List<Event> EVENTS = asList(new TurnedOn(), new TestedOk(), new TurnedOff(),
+            new CardInserted(), new Canceled(), new Authenticated(), new TransactionSelected());
+
+    private final MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+
+    @Test
+    public void steps_instances_as_machine_instances() {
+        int count = 10_000;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BulkEngine engine = BulkEngine.bulkEngine(definition).instances(count).batchSize(256).pool(pool).build();
+            List<MachineInstance> instances = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                MachineInstance instance = new MachineInstance(definition, definition.maxDepth());
+                definition.activeStateConfiguration(instance, asList(OFF));
+                instances.add(instance);
+            }
+
+            Random random = new Random(42);
+            for (int step = 0; step < 50; step++) {
+                Event[] events = new Event[count];
+                for (int i = 0; i < count; i++) {
+                    int choice = random.nextInt(EVENTS.size() + 1);
+                    events[i] = choice == EVENTS.size() ? null : EVENTS.get(choice);
+                }
+                long expected = 0;
+                for (int i = 0; i < count; i++) {
+                    if (events[i] != null) {
+                        expected += instances.get(i).executeAll(asList(events[i])).getTransitions();
+                    }
+                }
+
+                assertThat(engine.step(events)).isEqualTo(expected);
+            }
+
+            for (int i = 0; i < count; i++) {
+                assertThat(engine.getActiveStateConfiguration(i))
+                        .isEqualTo(instances.get(i).getActiveStateConfiguration());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void actions_batched_by_state_and_transition() {
+        List<String> calls = new ArrayList<>();
+        BulkActions actions = new BulkActions() {
+            @Override public void transitionTaken(State source, Transition transition, int[] instances, int count) {
+                calls.add("transition " + source.getName() + " " + transition.getName() + " " + count);
+            }
+
+            @Override public void stateExited(State state, int[] instances, int count) {
+                calls.add("exited " + state.getName() + " " + count);
+            }
+
+            @Override public void stateEntered(State state, int[] instances, int count) {
+                calls.add("entered " + state.getName() + " " + count);
+            }
+        };
+        // Each callback once for all the batches
+        BulkEngine engine = BulkEngine.bulkEngine(definition).instances(1000).batchSize(64).actions(actions).build();
+
+        engine.step(new TurnedOn());
+        engine.step(new TestedOk());
+        calls.clear();
+
+        Event[] events = new Event[1000];
+        for (int i = 0; i < 1000; i += 2) {
+            events[i] = new CardInserted();
+        }
+        assertThat(engine.step(events)).isEqualTo(500);
+
+        // Serving Customer and its initial inner state are entered
+        assertThat(calls).containsExactly("transition Idle CardInsert 500", "exited Idle 500",
+                "entered ServingCustomer 500", "entered Authentication 500");
+        assertThat(engine.getActiveStateConfiguration(0)).containsExactly(SERVING_CUSTOMER, AUTHENTICATION);
+        assertThat(engine.getActiveStateConfiguration(1)).containsExactly(IDLE);
+        assertThat(engine.countIn(definition.state(definition.initialState()))).isEqualTo(0);
+        calls.clear();
+
+        engine.step(new Canceled());
+        // Its active inner state is exited with Serving Customer
+        assertThat(calls).containsExactly("transition ServingCustomer Cancel 500", "exited ServingCustomer 500",
+                "exited Authentication 500", "entered Idle 500");
+    }
+
+    @Test
+    public void instances_given_as_indexes() {
+        List<Integer> selfTested = new ArrayList<>();
+        BulkActions actions = new BulkActions() {
+            @Override public void stateEntered(State state, int[] instances, int count) {
+                for (int i = 0; i < count; i++) {
+                    selfTested.add(instances[i]);
+                }
+            }
+        };
+        BulkEngine engine = BulkEngine.bulkEngine(definition).instances(10).batchSize(3).actions(actions).build();
+        Event[] events = new Event[10];
+        events[2] = new TurnedOn();
+        events[7] = new TurnedOn();
+        events[9] = new TurnedOn();
+
+        engine.step(events);
+
+        assertThat(selfTested).containsExactly(2, 7, 9);
+        assertThat(engine.toInstance(7).getActiveStateConfiguration()).containsExactly(SELF_TEST);
+        engine.reset();
+        assertThat(engine.getActiveStateConfiguration(7)).containsExactly(OFF);
+    }
+
+    @Test
+    public void actions_delivered_before_guard_exception_thrown() {
+        for (ForkJoinPool pool : asList(null, ForkJoinPool.commonPool())) {
+            List<Integer> selfTested = new ArrayList<>();
+            BulkActions actions = new BulkActions() {
+                @Override public void stateEntered(State state, int[] instances, int count) {
+                    for (int i = 0; i < count; i++) {
+                        selfTested.add(instances[i]);
+                    }
+                }
+            };
+            BulkEngine engine = BulkEngine.bulkEngine(definition).instances(10).batchSize(4).pool(pool)
+                    .actions(actions).build();
+            Event[] events = new Event[10];
+            Arrays.fill(events, new TurnedOn());
+            events[5] = failing("Guard failed 5");
+            events[9] = failing("Guard failed 9");
+
+            try {
+                engine.step(events);
+                failBecauseExceptionWasNotThrown(IllegalStateException.class);
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage()).isEqualTo("Guard failed 5");
+                assertThat(e.getSuppressed()).hasSize(1);
+            }
+
+            assertThat(selfTested).containsExactly(0, 1, 2, 3, 4, 6, 7, 8);
+            assertThat(engine.getActiveStateConfiguration(5)).containsExactly(OFF);
+            assertThat(engine.countIn(definition.state(definition.initialState()))).isEqualTo(2);
+        }
+    }
+
+    private static Event failing(String message) {
+        return new Event(TURNED_ON) {
+            @Override public String getName() {
+                throw new IllegalStateException(message);
+            }
+        };
+    }
+
+    @Test
+    public void fail_on_invalid_events_or_builder() {
+        BulkEngine engine = BulkEngine.bulkEngine(definition).instances(10).build();
+        try {
+            engine.step(new Event[9]);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Expected 10 events, one per instance, but got 9");
+        }
+        try {
+            engine.getActiveStateConfiguration(10);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("No instance 10 in 10 instances");
+        }
+        try {
+            BulkEngine.bulkEngine(definition).build();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Number of instances must be positive");
+        }
+    }
+}
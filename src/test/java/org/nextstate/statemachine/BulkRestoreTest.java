@@ -0,0 +1,90 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+import static org.nextstate.statemachine.BulkRestore.bulkRestore;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BulkRestoreTest {
+
+    @Test
+    public void restore_in_parallel() {
+        List<List<String>> stored = new ArrayList<>();
+        List<List<String>> configurations = asList(asList(OFF), asList(IDLE), asList(SERVING_CUSTOMER, TRANSACTION),
+                asList(SERVING_CUSTOMER, SELECTING_TRANSACTION));
+        for (int i = 0; i < 10_000; i++) {
+            stored.add(configurations.get(i % configurations.size()));
+        }
+
+        BulkRestore.Result result = bulkRestore(new ATMStateMachine()).parallelism(4).batchSize(100).build()
+                .restore(stored);
+
+        assertThat(result.getCount()).isEqualTo(10_000);
+        assertThat(result.getElapsed().isNegative()).isFalse();
+        for (int i = 0; i < stored.size(); i++) {
+            assertThat(result.getInstances().get(i).getActiveStateConfiguration()).isEqualTo(stored.get(i));
+        }
+    }
+
+    @Test
+    public void restore_without_or_with_entry_actions() {
+        AtomicInteger entries = new AtomicInteger();
+        MachineDefinition definition = MachineDefinition.of(new NestedStateMachine(entries));
+        entries.set(0);
+        List<List<String>> stored = asList(asList("Outer"), asList("Outer", "Middle", "Inner"), asList("Other"));
+
+        BulkRestore.Result restored = bulkRestore(definition).build().restore(stored);
+
+        assertThat(entries.get()).isEqualTo(0);
+        for (MachineInstance instance : restored.getInstances().subList(0, 2)) {
+            assertThat(instance.getActiveStateConfiguration()).containsExactly("Outer", "Middle", "Inner");
+        }
+        assertThat(restored.getInstances().get(2).getActiveStateConfiguration()).containsExactly("Other");
+
+        BulkRestore.Result entered = bulkRestore(definition).entryActions(true).build().restore(stored);
+
+        // Inner and Other entered as by a transition, Composite States enter their initial state without actions
+        assertThat(entries.get()).isEqualTo(2);
+        assertThat(entered.getInstances().get(2).getActiveStateConfiguration()).containsExactly("Other");
+    }
+
+    @Test
+    public void unknown_state() {
+        try {
+            bulkRestore(new ATMStateMachine()).build().restore(asList(asList(IDLE), asList(SERVING_CUSTOMER, OFF)));
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Configuration 1 [ServingCustomer, Off]: No state named Off exists. "
+                    + "Add all states to the StateMachine before setting active state configuration.");
+        }
+    }
+
+    // Outer { Middle { Inner } } and Other, counting the entries of Inner and Other
+    private static class NestedStateMachine extends StateMachine {
+        NestedStateMachine(AtomicInteger entries) {
+            State inner = state("Inner").onEntry(entries::incrementAndGet).build();
+            State middle = compositeState("Middle")
+                    .initialTransition(singleTransition("Initial").to(inner))
+                    .internalStates(asList(inner))
+                    .build();
+            State outer = compositeState("Outer")
+                    .initialTransition(singleTransition("Initial").to(middle))
+                    .internalStates(asList(middle))
+                    .build();
+
+            addStates(asList(outer, state("Other").onEntry(entries::incrementAndGet).build()));
+            activeState(outer);
+        }
+    }
+}
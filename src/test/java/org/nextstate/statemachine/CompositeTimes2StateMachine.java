@@ -0,0 +1,118 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.FinalState.FINAL_EVENT;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.function.Consumer;
+
+/**
+ * StateMachine with a Composite State nested in a Composite State.
+ * <pre>
+ * ASimpleState -> CompositeState1 { CompositeState2 { InnerState2_1 -> InnerState2_2 -> InnerFinalState }
+ *     -> InnerState1 -> FinalState } -> ASimpleState2 -> ASimpleState or Done
+ * </pre>
+ * The entry and exit actions report "entry X" and "exit X", for the states where the tests look for them.
+ */
+class CompositeTimes2StateMachine extends StateMachine {
+    // State name
+    public static final String A_SIMPLE_STATE = "ASimpleState";
+    public static final String A_SIMPLE_STATE_2 = "ASimpleState2";
+    public static final String COMPOSITE_STATE_1 = "CompositeState1";
+    public static final String COMPOSITE_STATE_2 = "CompositeState2";
+    public static final String INNER_STATE_1 = "InnerState1";
+    public static final String INNER_STATE_2_1 = "InnerState2_1";
+    public static final String INNER_STATE_2_2 = "InnerState2_2";
+    public static final String INNER_FINAL_STATE = "InnerFinalState";
+    public static final String FINAL_STATE = "FinalState";
+    public static final String DONE = "Done";
+
+    // Event name
+    public static final String A_SIMPLE_EVENT = "ASimpleEvent";
+    public static final String TO_INNER_STATE_2_2_EVENT = "ToInnerState2_2Event";
+    public static final String BACK_EVENT = "BackEvent";
+
+    // Actions (Command) - name of transitions
+    private static final String FINAL_ACTION = "FinalAction";
+    private static final String INITIALIZE = "Initialize";
+
+    CompositeTimes2StateMachine() {
+        this(action -> { });
+    }
+
+    /**
+     * @param actions told the entry and exit actions run
+     */
+    CompositeTimes2StateMachine(Consumer<String> actions) {
+        SimpleState aSimpleState = state(A_SIMPLE_STATE)
+                .onExit(() -> actions.accept("exit " + A_SIMPLE_STATE))
+                .build();
+        State aSimpleState2 = state(A_SIMPLE_STATE_2)
+                .onEntry(() -> actions.accept("entry " + A_SIMPLE_STATE_2))
+                .transition(A_SIMPLE_EVENT).guardedBy(e -> e.getName().equals(A_SIMPLE_EVENT))
+                .to(new FinalState(DONE))
+                .transition(BACK_EVENT).guardedBy(e -> e.getName().equals(BACK_EVENT))
+                .to(aSimpleState)
+                .build();
+        State finalState = new FinalState(FINAL_STATE);
+        State innerState1 = state(INNER_STATE_1)
+                .onEntry(() -> actions.accept("entry " + INNER_STATE_1))
+                .transition(FINAL_ACTION).guardedBy(e -> e.getName().equals(FINAL_EVENT))
+                .to(finalState)
+                .build();
+        State innerFinalState = new FinalState(INNER_FINAL_STATE);
+        State innerState2_2 = state(INNER_STATE_2_2)
+                .onEntry(() -> actions.accept("entry " + INNER_STATE_2_2))
+                .transition(FINAL_ACTION).guardedBy(e -> e.getName().equals(FINAL_EVENT))
+                .to(innerFinalState)
+                .build();
+        State innerState2_1 = state(INNER_STATE_2_1)
+                .onExit(() -> actions.accept("exit " + INNER_STATE_2_1))
+                .transition(TO_INNER_STATE_2_2_EVENT).guardedBy(e -> e.getName().equals(TO_INNER_STATE_2_2_EVENT))
+                .to(innerState2_2)
+                .build();
+        State compositeState2 = compositeState(COMPOSITE_STATE_2)
+                .onExit(() -> actions.accept("exit " + COMPOSITE_STATE_2))
+                .transition(FINAL_ACTION).guardedBy(e -> e.getName().equals(FINAL_EVENT))
+                .to(innerState1)
+                .initialTransition(singleTransition(INITIALIZE).to(innerState2_1))
+                .internalStates(asList(innerState2_1, innerState2_2, innerFinalState))
+                .build();
+        State compositeState1 = compositeState(COMPOSITE_STATE_1)
+                .onExit(() -> actions.accept("exit " + COMPOSITE_STATE_1))
+                .transition(FINAL_ACTION).guardedBy(e -> e.getName().equals(FINAL_EVENT))
+                .to(aSimpleState2)
+                .initialTransition(singleTransition(INITIALIZE).to(compositeState2))
+                .internalStates(asList(innerState1, compositeState2))
+                .build();
+        aSimpleState.addTransitions(transitions()
+                .transition(A_SIMPLE_EVENT).guardedBy(e -> e.getName().equals(A_SIMPLE_EVENT))
+                .to(compositeState1)
+                .build());
+
+        addStates(asList(aSimpleState, compositeState1, aSimpleState2));
+        activeState(aSimpleState);
+        validate();
+    }
+
+    public static class ASimpleEvent extends Event {
+        public ASimpleEvent() {
+            super(A_SIMPLE_EVENT);
+        }
+    }
+
+    public static class ToInnerState22 extends Event {
+        public ToInnerState22() {
+            super(TO_INNER_STATE_2_2_EVENT);
+        }
+    }
+
+    public static class BackEvent extends Event {
+        public BackEvent() {
+            super(BACK_EVENT);
+        }
+    }
+}
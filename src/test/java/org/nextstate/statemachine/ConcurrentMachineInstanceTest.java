@@ -0,0 +1,157 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Stress tests in the style of jcstress: writer and reader threads race on one instance for many rounds, and every
+ * observed outcome is checked against the outcomes allowed by the memory model.
+ */
+public class ConcurrentMachineInstanceTest {
+    private static final String TOGGLE = "Toggle";
+    private static final List<String> EVEN = asList("Left", "LeftInner");
+    private static final List<String> ODD = asList("Right", "RightInner");
+
+    @Test
+    public void writers_and_readers_race() throws Exception {
+        int writers = 4;
+        int readers = 2;
+        int toggles = 5_000;
+        AtomicInteger actions = new AtomicInteger();
+        ConcurrentMachineInstance instance = MachineDefinition.of(new ToggleStateMachine(actions))
+                .newConcurrentInstance();
+        AtomicReference<String> failure = new AtomicReference<>();
+        CyclicBarrier start = new CyclicBarrier(writers + readers);
+        CountDownLatch writersDone = new CountDownLatch(writers);
+        CountDownLatch readersDone = new CountDownLatch(readers);
+
+        for (int w = 0; w < writers; w++) {
+            new Thread(() -> {
+                await(start);
+                Event toggle = new Event(TOGGLE);
+                for (int i = 0; i < toggles; i++) {
+                    instance.execute(toggle);
+                }
+                writersDone.countDown();
+            }).start();
+        }
+        for (int r = 0; r < readers; r++) {
+            new Thread(() -> {
+                await(start);
+                long lastVersion = -1;
+                while (writersDone.getCount() > 0) {
+                    ConcurrentMachineInstance.Snapshot snapshot = instance.getSnapshot();
+                    List<String> configuration = snapshot.getActiveStateConfiguration();
+                    // A torn read would mix the outer state of one version with the inner state of another
+                    List<String> expected = snapshot.getVersion() % 2 == 0 ? EVEN : ODD;
+                    if (!configuration.equals(expected)) {
+                        failure.compareAndSet(null, "Version " + snapshot.getVersion() + ": " + configuration);
+                    }
+                    if (snapshot.getVersion() < lastVersion) {
+                        failure.compareAndSet(null, "Version " + snapshot.getVersion() + " after " + lastVersion);
+                    }
+                    lastVersion = snapshot.getVersion();
+                }
+                readersDone.countDown();
+            }).start();
+        }
+
+        assertThat(writersDone.await(60, TimeUnit.SECONDS)).isTrue();
+        assertThat(readersDone.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(failure.get()).isNull();
+
+        // No event lost, every action performed by one thread at the time
+        assertThat(instance.getSnapshot().getVersion()).isEqualTo((long) writers * toggles);
+        assertThat(actions.get()).isEqualTo(writers * toggles);
+        assertThat(instance.getActiveStateConfiguration()).isEqualTo(EVEN);
+    }
+
+    @Test
+    public void actions_never_run_concurrently() throws Exception {
+        int writers = 8;
+        int toggles = 2_000;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger actions = new AtomicInteger();
+        ConcurrentMachineInstance instance = MachineDefinition.of(new ToggleStateMachine(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            actions.incrementAndGet();
+            running.decrementAndGet();
+        })).newConcurrentInstance();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < toggles; i++) {
+                    instance.execute(new Event(TOGGLE));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60_000);
+        }
+
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(actions.get()).isEqualTo(writers * toggles);
+    }
+
+    @Test
+    public void restore_in_order_with_events() {
+        ConcurrentMachineInstance instance = MachineDefinition.of(new ToggleStateMachine(new AtomicInteger()))
+                .newConcurrentInstance();
+
+        instance.execute(new Event(TOGGLE));
+        instance.activeStateConfiguration(asList("Left"));
+
+        assertThat(instance.getActiveStateConfiguration()).isEqualTo(EVEN);
+        assertThat(instance.getSnapshot().getVersion()).isEqualTo(2);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Left { LeftInner } <-> Right { RightInner }
+    private static class ToggleStateMachine extends StateMachine {
+        ToggleStateMachine(AtomicInteger actions) {
+            this(actions::incrementAndGet);
+        }
+
+        ToggleStateMachine(Action onToggle) {
+            State leftInner = state("LeftInner").build();
+            State rightInner = state("RightInner").build();
+            CompositeState left = (CompositeState) compositeState("Left")
+                    .initialTransition(singleTransition("Initial").to(leftInner))
+                    .internalStates(asList(leftInner))
+                    .build();
+            CompositeState right = (CompositeState) compositeState("Right")
+                    .initialTransition(singleTransition("Initial").to(rightInner))
+                    .internalStates(asList(rightInner))
+                    .build();
+            left.addTransition(new Transition(TOGGLE, null, right, TOGGLE, onToggle));
+            right.addTransition(new Transition(TOGGLE, null, left, TOGGLE, onToggle));
+
+            addStates(asList(left, right));
+            activeState(left);
+        }
+    }
+}
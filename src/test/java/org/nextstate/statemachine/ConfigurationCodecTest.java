@@ -0,0 +1,137 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class ConfigurationCodecTest {
+
+    @Test
+    public void round_trip_instance_configurations() {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        ConfigurationCodec codec = ConfigurationCodec.of(definition);
+        MachineInstance atm = definition.newInstance();
+        short[] encoded = new short[codec.getMaxDepth()];
+
+        assertThat(codec.isShallow()).isTrue();
+        for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted(), new Authenticated(),
+                new TransactionSelected())) {
+            atm.execute(event);
+
+            MachineInstance fromLong = definition.newInstance();
+            codec.decodeLong(codec.encodeLong(atm), fromLong);
+            MachineInstance fromShorts = definition.newInstance();
+            codec.decode(encoded, 0, codec.encode(atm, encoded, 0), fromShorts);
+
+            assertThat(fromLong.getActiveStateConfiguration()).isEqualTo(atm.getActiveStateConfiguration());
+            assertThat(fromShorts.getActiveStateConfiguration()).isEqualTo(atm.getActiveStateConfiguration());
+        }
+    }
+
+    @Test
+    public void state_machine_and_instance_encodings_are_interchangeable() {
+        StateMachine stateMachine = new ATMStateMachine();
+        ConfigurationCodec codec = ConfigurationCodec.of(new ATMStateMachine());
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted(), new Authenticated())) {
+            stateMachine.execute(event);
+        }
+
+        MachineInstance instance = definition.newInstance();
+        codec.decodeLong(codec.encodeLong(stateMachine), instance);
+        StateMachine restored = new ATMStateMachine();
+        short[] encoded = new short[codec.getMaxDepth()];
+        codec.decode(encoded, 0, codec.encode(instance, encoded, 0), restored);
+
+        assertThat(instance.getActiveStateConfiguration()).containsExactly(SERVING_CUSTOMER, SELECTING_TRANSACTION);
+        assertThat(restored.getActiveStateConfiguration()).containsExactly(SERVING_CUSTOMER, SELECTING_TRANSACTION);
+    }
+
+    @Test
+    public void composite_state_at_last_level_enters_initial_state() {
+        ConfigurationCodec codec = ConfigurationCodec.of(new ATMStateMachine());
+        StateMachine atm = new ATMStateMachine();
+        MachineInstance instance = MachineDefinition.of(new ATMStateMachine()).newInstance();
+
+        // ServingCustomer is the fourth top level state
+        codec.decode(new short[]{3}, 0, 1, atm);
+        codec.decode(new short[]{3}, 0, 1, instance);
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly(SERVING_CUSTOMER, AUTHENTICATION);
+        assertThat(instance.getActiveStateConfiguration()).containsExactly(SERVING_CUSTOMER, AUTHENTICATION);
+    }
+
+    @Test
+    public void fingerprint_identifies_structure() {
+        long atm = ConfigurationCodec.of(new ATMStateMachine()).getFingerprint();
+
+        assertThat(ConfigurationCodec.of(MachineDefinition.of(new ATMStateMachine())).getFingerprint())
+                .isEqualTo(atm);
+        assertThat(ConfigurationCodec.of(new PhoneStateMachine()).getFingerprint()).isNotEqualTo(atm);
+    }
+
+    @Test
+    public void deep_machine_encoded_in_shorts_only() {
+        MachineDefinition definition = MachineDefinition.of(new DeepStateMachine(12, 40));
+        ConfigurationCodec codec = ConfigurationCodec.of(definition);
+        MachineInstance instance = definition.newInstance();
+        short[] encoded = new short[codec.getMaxDepth()];
+
+        assertThat(codec.isShallow()).isFalse();
+        int depth = codec.encode(instance, encoded, 0);
+        MachineInstance decoded = definition.newInstance();
+        decoded.activeStateConfiguration("Leaf");
+        codec.decode(encoded, 0, depth, decoded);
+        assertThat(decoded.getActiveStateConfiguration()).isEqualTo(instance.getActiveStateConfiguration());
+        try {
+            codec.encodeLong(instance);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).startsWith("DeepStateMachine is too deep");
+        }
+    }
+
+    @Test
+    public void decode_unknown_index() {
+        ConfigurationCodec codec = ConfigurationCodec.of(new ATMStateMachine());
+
+        try {
+            codec.decode(new short[]{42}, 0, 1, new ATMStateMachine());
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("No state with index 42 at level 0.");
+        }
+    }
+
+    // Composite states nested to the depth, each with many simple siblings, and a top level Leaf state
+    private static class DeepStateMachine extends StateMachine {
+        DeepStateMachine(int depth, int siblings) {
+            State inner = state("Innermost").build();
+            for (int level = depth - 1; level > 0; level--) {
+                List<State> states = new ArrayList<>();
+                states.add(inner);
+                for (int i = 0; i < siblings; i++) {
+                    states.add(state("Sibling" + level + "_" + i).build());
+                }
+                inner = compositeState("Level" + level)
+                        .initialTransition(singleTransition("Initial").to(inner))
+                        .internalStates(states)
+                        .build();
+            }
+            addStates(asList(inner, state("Leaf").build()));
+            activeState(inner);
+        }
+    }
+}
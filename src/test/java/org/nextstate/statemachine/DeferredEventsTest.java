@@ -0,0 +1,160 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DeferredEventsTest {
+    private final MachineDefinition definition = MachineDefinition.of(new DeferringATMStateMachine());
+
+    @Test
+    public void card_inserted_during_self_test_is_handled_in_idle() {
+        MachineInstance atm = definition.newInstance();
+        atm.execute(new Event("TurnedOn"));
+        atm.execute(new Event("CardInserted"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("SelfTest");
+        assertThat(atm.getDeferredCount()).isEqualTo(1);
+
+        atm.execute(new Event("TestedOk"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("ServingCustomer", "Authentication");
+        assertThat(atm.getDeferredCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void event_not_deferred_is_discarded() {
+        MachineInstance atm = definition.newInstance();
+        atm.execute(new Event("TurnedOn"));
+        atm.execute(new Event("Authenticated"));
+
+        assertThat(atm.getDeferredCount()).isEqualTo(0);
+        atm.execute(new Event("TestedOk"));
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Idle");
+    }
+
+    @Test
+    public void deferred_events_recalled_in_arrival_order() {
+        MachineInstance first = definition.newInstance();
+        first.execute(new Event("TurnedOn"));
+        first.execute(new Event("TurnedOff"));
+        first.execute(new Event("CardInserted"));
+        first.execute(new Event("TestedOk"));
+
+        // Turned off first, then the card inserted is not handled in Off and discarded
+        assertThat(first.getActiveStateConfiguration()).containsExactly("Off");
+        assertThat(first.getDeferredCount()).isEqualTo(0);
+
+        MachineInstance second = definition.newInstance();
+        second.execute(new Event("TurnedOn"));
+        second.execute(new Event("CardInserted"));
+        second.execute(new Event("TurnedOff"));
+        second.execute(new Event("TestedOk"));
+
+        // Serving the customer, turning off is deferred again until the customer is served
+        assertThat(second.getActiveStateConfiguration()).containsExactly("ServingCustomer", "Authentication");
+        assertThat(second.getDeferredCount()).isEqualTo(1);
+
+        second.execute(new Event("Canceled"));
+        assertThat(second.getActiveStateConfiguration()).containsExactly("Off");
+        assertThat(second.getDeferredCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void event_deferred_by_inner_state() {
+        MachineInstance atm = definition.newInstance();
+        for (String event : asList("TurnedOn", "TestedOk", "CardInserted", "TransactionSelected")) {
+            atm.execute(new Event(event));
+        }
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("ServingCustomer", "Authentication");
+        assertThat(atm.getDeferredCount()).isEqualTo(1);
+
+        atm.execute(new Event("Authenticated"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("ServingCustomer", "Transaction");
+        assertThat(atm.getDeferredCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void many_deferred_events_recalled_in_order() {
+        List<String> received = new ArrayList<>();
+        SimpleState busy = state("Busy").defer("A", "B", "C").build();
+        SimpleState ready = state("Ready").build();
+        busy.addTransitions(transitions()
+                .transition("Done").on("Done").to(ready)
+                .build());
+        for (String name : asList("A", "B", "C")) {
+            ready.addTransition(new Transition(name, e -> {
+                received.add(e.getName());
+                return true;
+            }, ready, name, null));
+        }
+        MachineInstance instance = MachineDefinition.of("Worker", asList(busy, ready), busy).newInstance();
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String name = asList("A", "B", "C").get((i * 7 + i / 3) % 3);
+            sent.add(name);
+            instance.execute(new Event(name));
+        }
+        assertThat(instance.getDeferredCount()).isEqualTo(10_000);
+
+        instance.execute(new Event("Done"));
+
+        assertThat(received).isEqualTo(sent);
+        assertThat(instance.getDeferredCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void definition_without_deferred_events() {
+        MachineInstance atm = MachineDefinition.of(new ATMStateMachine()).newInstance();
+        atm.execute(new ATMStateMachine.TurnedOn());
+        atm.execute(new ATMStateMachine.CardInserted());
+
+        assertThat(MachineDefinition.of(new ATMStateMachine()).hasDeferredEvents()).isFalse();
+        assertThat(atm.getDeferredCount()).isEqualTo(0);
+    }
+
+    private static class DeferringATMStateMachine extends StateMachine {
+        DeferringATMStateMachine() {
+            SimpleState off = state("Off").build();
+            SimpleState idle = state("Idle").build();
+            SimpleState transaction = state("Transaction").build();
+            SimpleState selecting = state("SelectingTransaction")
+                    .transition("TransactionSelect").on("TransactionSelected").to(transaction)
+                    .build();
+            SimpleState authentication = state("Authentication")
+                    .transition("Authenticate").on("Authenticated").to(selecting)
+                    .defer("TransactionSelected")
+                    .build();
+            State servingCustomer = compositeState("ServingCustomer")
+                    .transition("Cancel").on("Canceled").to(idle)
+                    .initialTransition(singleTransition("Initial").to(authentication))
+                    .internalStates(asList(authentication, selecting, transaction))
+                    .defer("TurnedOff")
+                    .build();
+            SimpleState selfTest = state("SelfTest")
+                    .transition("TestOk").on("TestedOk").to(idle)
+                    .defer("CardInserted", "TurnedOff")
+                    .build();
+            idle.addTransitions(transitions()
+                    .transition("TurnOff").on("TurnedOff").to(off)
+                    .transition("CardInsert").on("CardInserted").to(servingCustomer)
+                    .build());
+            off.addTransitions(transitions()
+                    .transition("TurnOn").on("TurnedOn").to(selfTest)
+                    .build());
+
+            addStates(asList(off, selfTest, idle, servingCustomer));
+            activeState(off);
+        }
+    }
+}
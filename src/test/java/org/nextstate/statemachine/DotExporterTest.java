@@ -0,0 +1,126 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class DotExporterTest {
+
+    @Test
+    public void composite_state_drawn_as_cluster() {
+        StateMachine atm = new ATMStateMachine();
+        atm.execute(new TurnedOn());
+        atm.execute(new TestedOk());
+        atm.execute(new CardInserted());
+
+        String dot = DotExporter.dotExporter().showActiveState(true).build().toDot(atm);
+
+        assertThat(dot).startsWith("digraph ATMStateMachine {").contains(
+                "  compound=true;",
+                "  subgraph cluster_ServingCustomer {",
+                "  label=\"ServingCustomer\";",
+                "  fillcolor=lightblue;",
+                "  Authentication [label=\"Authentication\", style=filled, fillcolor=lightblue];",
+                "  Idle -> Authentication [label=\"CardInsert\", lhead=cluster_ServingCustomer];",
+                "  Authentication -> Idle [label=\"Cancel\", ltail=cluster_ServingCustomer];",
+                "  Authentication -> SelectingTransaction [label=\"Authenticate\"];");
+        assertThat(dot.indexOf("SelectingTransaction [label")).isLessThan(dot.indexOf("  }"));
+    }
+
+    @Test
+    public void composite_states_deeper_than_max_depth_drawn_as_node() {
+        String dot = DotExporter.dotExporter().maxDepth(0).build().toDot(new ATMStateMachine());
+
+        assertThat(dot).doesNotContain("subgraph").doesNotContain("Authentication").contains(
+                "  ServingCustomer [label=\"ServingCustomer\", style=filled, fillcolor=lightgrey];",
+                "  Idle -> ServingCustomer [label=\"CardInsert\"];");
+    }
+
+    @Test
+    public void channel_given_the_same_graph() throws Exception {
+        StateMachine atm = new ATMStateMachine();
+        DotExporter exporter = DotExporter.dotExporter().build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        exporter.export(atm, Channels.newChannel(bytes));
+
+        assertThat(new String(bytes.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(exporter.toDot(atm));
+    }
+
+    @Test
+    public void identifiers_unique_and_sanitized() {
+        StateMachine stateMachine = new StateMachine() {
+            {
+                SimpleState second = state("On hold").build();
+                SimpleState third = state("On-hold").build();
+                SimpleState first = state("On hold")
+                        .transition("Hold \"now\"").on("Hold").to(second)
+                        .transition("Other").on("Other").to(third)
+                        .build();
+                addStates(asList(first, second, third));
+                activeState(first);
+            }
+        };
+
+        String dot = DotExporter.dotExporter().build().toDot(stateMachine);
+
+        assertThat(dot).contains(
+                "  On_hold [label=\"On hold\"];",
+                "  On_hold_2 [label=\"On hold\"];",
+                "  On_hold_3 [label=\"On-hold\"];",
+                "  On_hold -> On_hold_2 [label=\"Hold \\\"now\\\"\"];",
+                "  On_hold -> On_hold_3 [label=\"Other\"];");
+    }
+
+    @Test
+    public void large_model_exported() {
+        List<State> composites = new ArrayList<>();
+        for (int c = 0; c < 200; c++) {
+            List<State> inner = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                inner.add(state("S" + c + "_" + i).build());
+            }
+            for (int i = 0; i < 99; i++) {
+                ((AbstractState) inner.get(i)).addTransition(
+                        new Transition("Next", null, inner.get(i + 1), "Next", null));
+            }
+            composites.add(compositeState("C" + c)
+                    .initialTransition(singleTransition("Initialize").to(inner.get(0)))
+                    .internalStates(inner)
+                    .build());
+        }
+        StateMachine stateMachine = new StateMachine() {
+            {
+                addStates(composites);
+                activeState(composites.get(0));
+            }
+        };
+
+        String dot = DotExporter.dotExporter().build().toDot(stateMachine);
+
+        assertThat(dot).contains("  subgraph cluster_C199 {", "  S199_98 -> S199_99 [label=\"Next\"];");
+        assertThat(dot.split(System.lineSeparator())).hasSize(3 + 200 * 5 + 200 * 100 + 200 * 99);
+    }
+
+    @Test
+    public void fail_on_negative_max_depth() {
+        try {
+            DotExporter.dotExporter().maxDepth(-1).build();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Maximum depth must not be negative");
+        }
+    }
+}
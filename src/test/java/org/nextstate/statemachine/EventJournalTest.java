@@ -0,0 +1,278 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+import static org.nextstate.statemachine.EventJournal.eventJournal;
+import static org.nextstate.statemachine.SimpleState.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recover_instances_from_journal() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted(), new Authenticated())) {
+                journal.execute("atm-1", event);
+            }
+            journal.execute("atm-2", new TurnedOn());
+        }
+
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            assertThat(journal.getRecoveredRecords()).isEqualTo(5);
+            assertThat(journal.getSequence()).isEqualTo(5);
+            assertThat(journal.getActiveStateConfiguration("atm-1"))
+                    .containsExactly(SERVING_CUSTOMER, SELECTING_TRANSACTION);
+            assertThat(journal.getActiveStateConfiguration("atm-2")).containsExactly(SELF_TEST);
+
+            journal.execute("atm-2", new TestedOk());
+
+            assertThat(journal.getActiveStateConfiguration("atm-2")).containsExactly(IDLE);
+            assertThat(journal.getSequence()).isEqualTo(6);
+        }
+    }
+
+    @Test
+    public void recovery_runs_no_actions() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        AtomicInteger actions = new AtomicInteger();
+        MachineDefinition lamp = MachineDefinition.of(new LampStateMachine(actions));
+        // The template entered its initial state
+        actions.set(0);
+        try (EventJournal journal = eventJournal(directory, lamp).build()) {
+            journal.execute("lamp", new Event("Switch"));
+            journal.execute("lamp", new Event("Switch"));
+            journal.execute("lamp", new Event("Switch"));
+        }
+        // Entry of Off on creation, then On, Off and On
+        assertThat(actions.get()).isEqualTo(4);
+
+        try (EventJournal journal = eventJournal(directory, lamp).build()) {
+            assertThat(journal.getActiveStateConfiguration("lamp")).containsExactly("On");
+            assertThat(actions.get()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void concurrent_executes_share_commits() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        int threads = 8;
+        int events = 200;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        try (EventJournal journal = eventJournal(directory, new LampStateMachine(new AtomicInteger())).build()) {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String id = "lamp-" + t;
+                Thread worker = new Thread(() -> {
+                    await(start);
+                    for (int i = 0; i < events; i++) {
+                        journal.execute(id, new Event("Switch"));
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join(60_000);
+            }
+
+            assertThat(journal.getSequence()).isEqualTo(threads * events);
+            assertThat(journal.getCommits()).isLessThan(threads * events);
+        }
+
+        try (EventJournal journal = eventJournal(directory, new LampStateMachine(new AtomicInteger())).build()) {
+            assertThat(journal.getInstanceCount()).isEqualTo(threads);
+            for (int t = 0; t < threads; t++) {
+                assertThat(journal.getActiveStateConfiguration("lamp-" + t)).containsExactly("Off");
+            }
+        }
+    }
+
+    @Test
+    public void snapshot_compacts_journal() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).snapshotEvery(3).build()) {
+            for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted(), new Authenticated())) {
+                journal.execute("atm", event);
+            }
+            journal.snapshot();
+            journal.execute("atm", new TransactionSelected());
+        }
+
+        assertThat(directory.toFile().list()).containsOnly("snapshot-00000000000000000004.bin",
+                "journal-00000000000000000005.log");
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            assertThat(journal.getRecoveredRecords()).isEqualTo(1);
+            assertThat(journal.getActiveStateConfiguration("atm")).containsExactly(IDLE);
+        }
+    }
+
+    @Test
+    public void torn_record_is_truncated() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            journal.execute("atm", new TurnedOn());
+            journal.execute("atm", new TestedOk());
+        }
+        // A crash while writing the second record
+        File segment = directory.resolve("journal-00000000000000000001.log").toFile();
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(segment.length() - 3);
+        }
+
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            assertThat(journal.getRecoveredRecords()).isEqualTo(1);
+            assertThat(journal.getActiveStateConfiguration("atm")).containsExactly(SELF_TEST);
+        }
+    }
+
+    @Test
+    public void journal_of_other_definition() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            journal.execute("atm", new TurnedOn());
+            journal.snapshot();
+        }
+
+        try {
+            eventJournal(directory, new PhoneStateMachine()).build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Journal was written for another definition than PhoneStateMachine");
+        }
+    }
+
+    @Test
+    public void segment_of_other_definition() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (EventJournal journal = eventJournal(directory, new ATMStateMachine()).build()) {
+            journal.execute("atm", new TurnedOn());
+        }
+
+        try {
+            eventJournal(directory, new PhoneStateMachine()).build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Journal was written for another definition than PhoneStateMachine");
+        }
+    }
+
+    @Test
+    public void executes_racing_close_journaled() throws Exception {
+        for (int round = 0; round < 10; round++) {
+            Path directory = folder.newFolder().toPath();
+            int threads = 4;
+            CyclicBarrier start = new CyclicBarrier(threads + 1);
+            EventJournal journal = eventJournal(directory, new LampStateMachine(new AtomicInteger())).build();
+            List<Thread> workers = new ArrayList<>();
+            List<Throwable> errors = new CopyOnWriteArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String id = "lamp-" + t;
+                Thread worker = new Thread(() -> {
+                    await(start);
+                    try {
+                        while (true) {
+                            journal.execute(id, new Event("Switch"));
+                        }
+                    } catch (IllegalStateException e) {
+                        assertThat(e.getMessage()).isEqualTo("Journal is closed");
+                    }
+                });
+                worker.setUncaughtExceptionHandler((thread, e) -> errors.add(e));
+                workers.add(worker);
+                worker.start();
+            }
+            await(start);
+            Thread.sleep(5);
+            journal.close();
+            for (Thread worker : workers) {
+                worker.join(60_000);
+            }
+
+            assertThat(errors).isEmpty();
+            try (EventJournal recovered = eventJournal(directory, new LampStateMachine(new AtomicInteger())).build()) {
+                assertThat(recovered.getSequence()).isEqualTo(journal.getSequence());
+                for (int t = 0; t < threads; t++) {
+                    assertThat(recovered.getActiveStateConfiguration("lamp-" + t))
+                            .isEqualTo(journal.getActiveStateConfiguration("lamp-" + t));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void action_exception_rethrown_after_journaled() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        StateMachine fuse = new StateMachine() {
+            {
+                SimpleState off = state("Off").build();
+                SimpleState on = state("On").onEntry(() -> {
+                    throw new IllegalStateException("Blown");
+                }).build();
+                off.addTransition(new Transition("Switch", null, on, "Switch", null));
+
+                addStates(asList(off, on));
+                activeState(off);
+            }
+        };
+        List<String> configuration;
+        try (EventJournal journal = eventJournal(directory, fuse).build()) {
+            try {
+                journal.execute("fuse", new Event("Switch"));
+
+                failBecauseExceptionWasNotThrown(IllegalStateException.class);
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage()).isEqualTo("Blown");
+            }
+            configuration = journal.getActiveStateConfiguration("fuse");
+            assertThat(journal.getSequence()).isEqualTo(1);
+        }
+
+        try (EventJournal journal = eventJournal(directory, fuse).build()) {
+            assertThat(journal.getActiveStateConfiguration("fuse")).isEqualTo(configuration);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Off <-> On, counting the entry actions
+    private static class LampStateMachine extends StateMachine {
+        LampStateMachine(AtomicInteger actions) {
+            SimpleState off = state("Off").onEntry(actions::incrementAndGet).build();
+            SimpleState on = state("On").onEntry(actions::incrementAndGet).build();
+            off.addTransition(new Transition("Switch", null, on, "Switch", null));
+            on.addTransition(new Transition("Switch", null, off, "Switch", null));
+
+            addStates(asList(off, on));
+            activeState(off);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import org.junit.Test;
+
+public class EventTypeTest {
+
+    @Test
+    public void same_name_same_type() {
+        EventType first = EventType.of("EventTypeTest.Same");
+        EventType second = EventType.of("EventTypeTest.Same");
+
+        assertThat(second).isSameAs(first);
+        assertThat(EventType.of("EventTypeTest.Other").getId()).isNotEqualTo(first.getId());
+    }
+
+    @Test
+    public void named_event_resolved_through_registry() {
+        Event event = new Event("EventTypeTest.Late");
+        assertThat(event.getId()).isEqualTo(EventType.NO_ID);
+
+        EventType type = EventType.of("EventTypeTest.Late");
+
+        assertThat(event.getId()).isEqualTo(type.getId());
+        assertThat(type.event().getName()).isEqualTo("EventTypeTest.Late");
+    }
+
+    @Test
+    public void transition_registers_event_type() {
+        Transition transition = transitions()
+                .transition("Go").on("EventTypeTest.Registered")
+                .to(new SimpleState("To")).build().get(0);
+
+        assertThat(transition.getEventType()).isSameAs(EventType.of("EventTypeTest.Registered"));
+    }
+
+    @Test
+    public void dispatch_by_type_and_by_name() {
+        SimpleState from = new SimpleState("From");
+        from.addTransitions(transitions()
+                .transition("First").on("EventTypeTest.First")
+                .to(new SimpleState("First"))
+                .transition("Second").on("EventTypeTest.Second")
+                .to(new SimpleState("Second")).build());
+
+        assertThat(from.execute(EventType.of("EventTypeTest.Second").event()).get().getName()).isEqualTo("Second");
+        assertThat(from.execute(new Event("EventTypeTest.First")).get().getName()).isEqualTo("First");
+        assertThat(from.execute(EventType.of("EventTypeTest.Unused").event()).isPresent()).isFalse();
+    }
+}
@@ -0,0 +1,70 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class ExecuteAllTest {
+    private static final List<Event> SERVE_CUSTOMER = asList(new TurnedOn(), new TestedOk(), new CardInserted(),
+            new Authenticated(), new TransactionSelected(), new CardInserted());
+
+    @Test
+    public void state_machine_executes_sequence() {
+        StateMachine atm = new ATMStateMachine();
+
+        BatchResult result = atm.executeAll(SERVE_CUSTOMER);
+
+        // The transaction completes Serving Customer, back to Idle: two transitions for one event
+        assertThat(result.getProcessed()).isEqualTo(6);
+        assertThat(result.getTransitions()).isEqualTo(7);
+        assertThat(result.getUnhandled()).isEqualTo(0);
+        assertThat(result.isStopped()).isFalse();
+        assertThat(result.getActiveStateConfiguration()).containsExactly(SERVING_CUSTOMER, AUTHENTICATION);
+        assertThat(result.getActiveStateConfiguration()).isEqualTo(atm.getActiveStateConfiguration());
+    }
+
+    @Test
+    public void instance_executes_sequence_as_state_machine() {
+        MachineInstance atm = MachineDefinition.of(new ATMStateMachine()).newInstance();
+        StateMachine stateMachine = new ATMStateMachine();
+        Event[] events = {new Canceled(), new TurnedOn(), new CardInserted(), new TestedOk(), new CardInserted(),
+                new Canceled(), new TurnedOff()};
+
+        BatchResult result = atm.executeAll(events, 1, 6);
+        BatchResult expected = stateMachine.executeAll(events, 1, 6);
+
+        assertThat(result.toString()).isEqualTo(expected.toString())
+                .isEqualTo("processed 6 events, 5 transitions, 1 unhandled - [Off]");
+    }
+
+    @Test
+    public void stop_on_first_unhandled_event() {
+        MachineInstance atm = MachineDefinition.of(new ATMStateMachine()).newInstance();
+        StateMachine stateMachine = new ATMStateMachine();
+        List<Event> events = asList(new TurnedOn(), new CardInserted(), new TestedOk());
+
+        for (BatchResult result : asList(atm.executeAll(events, true), stateMachine.executeAll(events, true))) {
+            assertThat(result.getProcessed()).isEqualTo(2);
+            assertThat(result.getUnhandled()).isEqualTo(1);
+            assertThat(result.isStopped()).isTrue();
+            assertThat(result.getActiveStateConfiguration()).containsExactly(SELF_TEST);
+        }
+    }
+
+    @Test
+    public void range_out_of_bounds() {
+        try {
+            new ATMStateMachine().executeAll(new Event[]{new TurnedOn()}, 1, 1);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("No events from 1 to 2 in 1 events");
+        }
+    }
+}
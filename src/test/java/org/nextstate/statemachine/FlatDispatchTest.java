@@ -0,0 +1,127 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FlatDispatchTest {
+    private static final List<String> EVENTS = asList("Next", "Up", "Back", "Finish", "Unknown");
+
+    @Test
+    public void sealed_performs_the_same_actions_as_unsealed() {
+        List<String> sealedActions = new ArrayList<>();
+        List<String> unsealedActions = new ArrayList<>();
+        StateMachine sealed = new DeepStateMachine(12, sealedActions);
+        sealed.seal();
+        StateMachine unsealed = new DeepStateMachine(12, unsealedActions);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            Event event = new Event(EVENTS.get(random.nextInt(EVENTS.size())));
+            BatchResult sealedResult = sealed.executeAll(asList(event));
+            BatchResult unsealedResult = unsealed.executeAll(asList(event));
+
+            assertThat(sealedResult.getTransitions()).isEqualTo(unsealedResult.getTransitions());
+            assertThat(sealed.getActiveStateConfiguration()).isEqualTo(unsealed.getActiveStateConfiguration());
+        }
+        assertThat(sealedActions).isEqualTo(unsealedActions);
+        assertThat(sealedActions).contains("entry L11_2", "entry Side1", "exit C0", "entry Outside");
+    }
+
+    @Test
+    public void completion_propagates_through_every_level() {
+        List<String> actions = new ArrayList<>();
+        StateMachine stateMachine = new DeepStateMachine(2, actions);
+        stateMachine.seal();
+
+        assertThat(stateMachine.getActiveStateConfiguration()).containsExactly("C0", "C1", "L1_0");
+        stateMachine.execute(new Event("Next"));
+        assertThat(stateMachine.executeAll(asList(new Event("Next"))).getTransitions()).isEqualTo(3);
+
+        // L1_2 completes C1 and Side1 completes C0
+        assertThat(stateMachine.getActiveStateConfiguration()).containsExactly("Outside");
+        assertThat(actions).containsExactly("exit L1_0", "entry L1_1", "exit L1_1", "entry L1_2", "exit C1",
+                "entry Side1", "exit C0", "entry Outside");
+    }
+
+    @Test
+    public void deep_hierarchy_dispatched_without_nested_calls() {
+        StateMachine stateMachine = new DeepStateMachine(2000, new ArrayList<>());
+        stateMachine.seal();
+
+        stateMachine.execute(new Event("Next"));
+
+        assertThat(stateMachine.getActiveStateConfiguration()).hasSize(2001).endsWith("L1999_1");
+    }
+
+    /**
+     * Composite States C0 to C(depth - 1), each the initial state of the previous one. Every level but the innermost
+     * also has a simple state Side reached on Up, and back on Back. The innermost level is a ring of leaves on Next.
+     * Entering the last leaf or the Side of an odd level completes the Composite State holding it.
+     */
+    private static class DeepStateMachine extends StateMachine {
+        DeepStateMachine(int depth, List<String> actions) {
+            SimpleState outside = logged("Outside", actions).build();
+            State top = composite(0, depth, actions);
+            ((AbstractState) top).addTransitions(Transition.transitions()
+                    .transition("Final").on(FinalState.FINAL_EVENT).to(outside)
+                    .transition("Up").on("Up").to(outside)
+                    .build());
+            outside.addTransition(new Transition("Back", null, top, "Back", null));
+
+            addStates(asList(top, outside));
+            activeState(top);
+        }
+
+        private static State composite(int level, int depth, List<String> actions) {
+            List<State> inner = new ArrayList<>();
+            if (level == depth - 1) {
+                FinalState done = new FinalState("Done" + (level + 1));
+                List<SimpleState> ring = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    ring.add(logged("L" + level + "_" + i, actions).build());
+                }
+                for (int i = 0; i < 3; i++) {
+                    ring.get(i).addTransition(new Transition("Next", null, ring.get((i + 1) % 3), "Next", null));
+                }
+                ring.get(2).addTransition(new Transition(FinalState.FINAL_EVENT, null, done, "Done", null));
+                inner.addAll(ring);
+                inner.add(done);
+            } else {
+                State next = composite(level + 1, depth, actions);
+                FinalState done = new FinalState("Done" + (level + 1));
+                SimpleState.StateBuilder side = logged("Side" + (level + 1), actions);
+                if (level % 2 == 0) {
+                    side.transition("Done").on(FinalState.FINAL_EVENT).to(done);
+                } else {
+                    side.transition("Finish").on("Finish").to(done);
+                }
+                SimpleState sideState = side.transition("Back").on("Back").to(next).build();
+                ((AbstractState) next).addTransitions(Transition.transitions()
+                        .transition("Final").on(FinalState.FINAL_EVENT).to(sideState)
+                        .transition("Up").on("Up").to(sideState)
+                        .build());
+                inner.addAll(asList(next, sideState, done));
+            }
+            return compositeState("C" + level)
+                    .onExit(() -> actions.add("exit C" + level))
+                    .initialTransition(singleTransition("Initialize").to(inner.get(0)))
+                    .internalStates(inner)
+                    .build();
+        }
+
+        private static SimpleState.StateBuilder logged(String name, List<String> actions) {
+            return state(name)
+                    .onEntry(() -> actions.add("entry " + name))
+                    .onExit(() -> actions.add("exit " + name));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.FinalState.FINAL_EVENT;
+import static org.nextstate.statemachine.PhoneStateMachine.*;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+import org.nextstate.statemachine.PhoneStateMachine.*;
+
+/**
+ * Verifies that compiled definitions take the same transitions and perform the same actions as the State Machine.
+ */
+public class MachineCompilerTest {
+    private static final String[] EVENTS = {"E0", "E1", "E2", "E3", "Other"};
+
+    @Test
+    public void compiled_phone() {
+        MachineDefinition definition = MachineCompiler.compile(new PhoneStateMachine());
+        MachineInstance phone = definition.newInstance();
+
+        phone.execute(new CallDialed());
+        phone.execute(new CallConnected());
+        phone.execute(new PlacedOnHold());
+        phone.execute(new PhoneHurledAgainstWall());
+
+        assertThat(definition.isCompiled()).isTrue();
+        assertThat(phone.getActiveStateName()).isEqualTo(PHONE_DESTROYED);
+    }
+
+    @Test
+    public void compiled_atm_same_as_state_machine() {
+        StateMachine stateMachine = new ATMStateMachine();
+        MachineInstance instance = MachineCompiler.compile(new ATMStateMachine()).newInstance();
+
+        for (Event event : asList(new ATMStateMachine.TurnedOn(), new ATMStateMachine.TestedOk(),
+                new ATMStateMachine.CardInserted(), new ATMStateMachine.Authenticated(),
+                new ATMStateMachine.TransactionSelected(), new ATMStateMachine.Canceled(),
+                new ATMStateMachine.TurnedOff())) {
+            stateMachine.execute(event);
+            instance.execute(event);
+
+            assertThat(instance.getActiveStateConfiguration()).isEqualTo(stateMachine.getActiveStateConfiguration());
+        }
+    }
+
+    @Test
+    public void compiled_class_is_hidden() throws Exception {
+        MachineDefinition definition = MachineCompiler.compile(new PhoneStateMachine());
+        Class<?> dispatcherClass = definition.dispatcher().getClass();
+
+        assertThat(dispatcherClass.getSuperclass()).isEqualTo(Dispatcher.class);
+        try {
+            assertThat(Class.class.getMethod("isHidden").invoke(dispatcherClass)).isEqualTo(true);
+        } catch (NoSuchMethodException e) {
+            // Before Java 15, defined by its own class loader
+            assertThat(dispatcherClass.getClassLoader()).isNotSameAs(MachineCompiler.class.getClassLoader());
+        }
+    }
+
+    @Test
+    public void random_machines_same_as_state_machine() {
+        for (long seed = 0; seed < 200; seed++) {
+            List<String> stateMachineActions = new ArrayList<>();
+            StateMachine stateMachine = new RandomStateMachine(seed, stateMachineActions);
+            List<String> interpretedActions = new ArrayList<>();
+            MachineDefinition interpretedDefinition = MachineDefinition.of(new RandomStateMachine(seed,
+                    interpretedActions));
+            List<String> compiledActions = new ArrayList<>();
+            MachineDefinition compiledDefinition = MachineCompiler.compile(new RandomStateMachine(seed,
+                    compiledActions));
+            // Only the instances enter the initial state, not the templates
+            interpretedActions.clear();
+            compiledActions.clear();
+            MachineInstance interpreted = interpretedDefinition.newInstance();
+            MachineInstance compiled = compiledDefinition.newInstance();
+
+            Random events = new Random(seed);
+            for (int i = 0; i < 50; i++) {
+                String name = EVENTS[events.nextInt(EVENTS.length)];
+                stateMachine.execute(new Event(name));
+                interpreted.execute(new Event(name));
+                compiled.execute(new Event(name));
+
+                assertThat(compiled.getActiveStateConfiguration())
+                        .as("seed %s event %s", seed, i)
+                        .isEqualTo(stateMachine.getActiveStateConfiguration())
+                        .isEqualTo(interpreted.getActiveStateConfiguration());
+            }
+            assertThat(compiledActions).as("seed %s", seed)
+                    .isEqualTo(stateMachineActions)
+                    .isEqualTo(interpretedActions);
+        }
+    }
+
+    @Test
+    public void large_machine_split_in_chunks() {
+        List<State> states = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            states.add(state("S" + i).build());
+        }
+        int[] entered = new int[1];
+        for (int i = 0; i < states.size(); i++) {
+            ((AbstractState) states.get(i)).addTransition(new Transition("Next", null,
+                    states.get((i + 1) % states.size()), "Next", null));
+        }
+        ((AbstractState) states.get(2500)).entry = Optional.of(() -> entered[0]++);
+
+        MachineInstance instance = MachineCompiler.compile(MachineDefinition.of("Large", states, states.get(0)))
+                .newInstance();
+        for (int i = 0; i < 2999; i++) {
+            instance.execute(new Event("Next"));
+        }
+
+        assertThat(instance.getActiveStateName()).isEqualTo("S2999");
+        assertThat(entered[0]).isEqualTo(1);
+    }
+
+    /**
+     * Top level simple and Composite States, with transitions keyed on events, guarded by predicates or both, and
+     * actions recorded in order.
+     */
+    private static class RandomStateMachine extends StateMachine {
+        private final Random random;
+        private final List<String> actions;
+
+        RandomStateMachine(long seed, List<String> actions) {
+            this.random = new Random(seed);
+            this.actions = actions;
+
+            List<State> states = siblings("T", 2 + random.nextInt(4), 2);
+            addStates(states);
+            activeState(states.get(0));
+            validate();
+        }
+
+        private List<State> siblings(String prefix, int count, int depth) {
+            List<State> states = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String name = prefix + i;
+                if (depth > 0 && random.nextInt(3) == 0) {
+                    List<State> inner = siblings(name + ".", 2 + random.nextInt(3), depth - 1);
+                    FinalState finalState = new FinalState(name + ".Final");
+                    // Some inner states complete the Composite State
+                    for (State state : inner.subList(1, inner.size())) {
+                        if (random.nextInt(3) == 0) {
+                            ((AbstractState) state).addTransition(new Transition(e -> e.getName().equals(FINAL_EVENT),
+                                    finalState, "Complete", null));
+                        }
+                    }
+                    inner.add(finalState);
+                    CompositeState.CompositeStateBuilder composite = CompositeState.compositeState(name)
+                            .onEntry(action("entry " + name))
+                            .onExit(action("exit " + name))
+                            .initialTransition(singleTransition("Initial").to(inner.get(0)))
+                            .internalStates(inner);
+                    states.add(composite.build());
+                } else {
+                    states.add(state(name)
+                            .onEntry(random.nextBoolean() ? action("entry " + name) : null)
+                            .onExit(random.nextBoolean() ? action("exit " + name) : null)
+                            .build());
+                }
+            }
+            for (State state : states) {
+                int transitions = random.nextInt(4);
+                for (int i = 0; i < transitions; i++) {
+                    ((AbstractState) state).addTransition(transition(state.getName() + ">" + i,
+                            states.get(random.nextInt(states.size()))));
+                }
+                if (state instanceof CompositeState && random.nextBoolean()) {
+                    ((AbstractState) state).addTransition(new Transition(e -> e.getName().equals(FINAL_EVENT),
+                            states.get(random.nextInt(states.size())), "Completed",
+                            action("completed " + state.getName())));
+                }
+            }
+            return states;
+        }
+
+        private Transition transition(String name, State target) {
+            String event = EVENTS[random.nextInt(EVENTS.length - 1)];
+            String other = EVENTS[random.nextInt(EVENTS.length - 1)];
+            Action onTransition = random.nextBoolean() ? action(name) : null;
+            switch (random.nextInt(3)) {
+            case 0:
+                return new Transition(event, null, target, name, onTransition);
+            case 1:
+                return new Transition(e -> e.getName().equals(event) || e.getName().equals(other), target, name,
+                        onTransition);
+            default:
+                return new Transition(event, e -> !e.getName().equals(other), target, name, onTransition);
+            }
+        }
+
+        private Action action(String name) {
+            return () -> actions.add(name);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.CompositeTimes2StateMachine.*;
+import static org.nextstate.statemachine.PhoneStateMachine.*;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nextstate.statemachine.PhoneStateMachine.*;
+
+public class MachineDefinitionTest {
+
+    private static final String INITIALIZE = "Initialize";
+
+    @Test
+    public void instances_share_definition_but_not_active_state() {
+        MachineDefinition definition = MachineDefinition.of(new PhoneStateMachine());
+
+        MachineInstance first = definition.newInstance();
+        MachineInstance second = definition.newInstance();
+        first.execute(new CallDialed());
+        first.execute(new CallConnected());
+
+        assertThat(first.getActiveStateName()).isEqualTo(CONNECTED);
+        assertThat(second.getActiveStateName()).isEqualTo(OFF_HOOK);
+    }
+
+    @Test
+    public void same_transitions_as_state_machine() {
+        MachineInstance phone = MachineDefinition.of(new PhoneStateMachine()).newInstance();
+
+        phone.execute(new CallDialed());
+        phone.execute(new CallConnected());
+        phone.execute(new PlacedOnHold());
+        phone.execute(new PhoneHurledAgainstWall());
+
+        assertThat(phone.getActiveStateName()).isEqualTo(PHONE_DESTROYED);
+    }
+
+    @Test
+    public void nested_composite_states_complete_to_final_state() {
+        List<String> actions = new ArrayList<>();
+        MachineDefinition definition = MachineDefinition.of(new CompositeTimes2StateMachine(actions::add));
+        MachineInstance instance = definition.newInstance();
+
+        instance.execute(new Event(A_SIMPLE_EVENT));
+        assertThat(instance.getActiveStateConfiguration())
+                .containsExactly(COMPOSITE_STATE_1, COMPOSITE_STATE_2, INNER_STATE_2_1);
+
+        instance.execute(new Event(TO_INNER_STATE_2_2_EVENT));
+        assertThat(instance.getActiveStateConfiguration()).containsExactly(A_SIMPLE_STATE_2);
+        assertThat(actions).containsExactly("exit " + A_SIMPLE_STATE, "exit " + INNER_STATE_2_1,
+                "entry " + INNER_STATE_2_2, "exit " + COMPOSITE_STATE_2, "entry " + INNER_STATE_1,
+                "exit " + COMPOSITE_STATE_1, "entry " + A_SIMPLE_STATE_2);
+    }
+
+    @Test
+    public void same_actions_as_state_machine() {
+        List<String> stateMachineActions = new ArrayList<>();
+        StateMachine stateMachine = new CompositeTimes2StateMachine(stateMachineActions::add);
+        List<String> instanceActions = new ArrayList<>();
+        MachineInstance instance = MachineDefinition.of(new CompositeTimes2StateMachine(instanceActions::add))
+                .newInstance();
+
+        for (String event : asList(A_SIMPLE_EVENT, TO_INNER_STATE_2_2_EVENT, A_SIMPLE_EVENT)) {
+            stateMachine.execute(new Event(event));
+            instance.execute(new Event(event));
+        }
+
+        assertThat(instanceActions).isEqualTo(stateMachineActions);
+        assertThat(instance.getActiveStateConfiguration()).isEqualTo(stateMachine.getActiveStateConfiguration());
+    }
+
+    @Test
+    public void executing_instances_leave_template_untouched() {
+        StateMachine template = new CompositeTimes2StateMachine();
+        MachineDefinition definition = MachineDefinition.of(template);
+
+        definition.newInstance().execute(new Event(A_SIMPLE_EVENT));
+
+        assertThat(template.getActiveStateConfiguration()).containsExactly(A_SIMPLE_STATE);
+    }
+
+    @Test
+    public void load_composite_state_and_inner_state() {
+        MachineInstance instance = MachineDefinition.of(new CompositeTimes2StateMachine())
+                .newInstance();
+        instance.activeStateConfiguration(asList(COMPOSITE_STATE_1, COMPOSITE_STATE_2));
+
+        assertThat(instance.getActiveStateConfiguration())
+                .containsExactly(COMPOSITE_STATE_1, COMPOSITE_STATE_2, INNER_STATE_2_1);
+
+        instance.execute(new Event(TO_INNER_STATE_2_2_EVENT));
+
+        assertThat(instance.getActiveStateConfiguration()).containsExactly(A_SIMPLE_STATE_2);
+    }
+
+    @Test
+    public void load_unknown_state() {
+        MachineInstance phone = MachineDefinition.of(new PhoneStateMachine()).newInstance();
+
+        try {
+            phone.activeStateConfiguration("Unknown");
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).startsWith("No state named Unknown exists.");
+        }
+    }
+
+    @Test
+    public void definition_is_not_changed_by_later_transitions() {
+        SimpleState from = state("From").build();
+        State to = state("To").build();
+        MachineDefinition definition = MachineDefinition.of("Late", asList(from, to), from);
+
+        from.addTransitions(transitions()
+                .transition("Go").guardedBy(e -> true)
+                .to(to).build());
+        MachineInstance instance = definition.newInstance();
+        instance.execute(new Event("Go"));
+
+        assertThat(instance.getActiveStateName()).isEqualTo("From");
+    }
+
+    @Test
+    public void depth_of_large_nested_definition() {
+        // 100 nested Composite States of 200 states each
+        State inner = null;
+        for (int level = 99; level >= 0; level--) {
+            List<State> states = new ArrayList<>();
+            if (inner != null) {
+                states.add(inner);
+            }
+            for (int i = states.size(); i < 200; i++) {
+                states.add(state("S" + level + "_" + i).build());
+            }
+            inner = compositeState("C" + level)
+                    .initialTransition(singleTransition(INITIALIZE).to(states.get(0)))
+                    .internalStates(states)
+                    .build();
+        }
+        MachineDefinition definition = MachineDefinition.of("Large", asList(inner), inner);
+
+        assertThat(definition.stateCount()).isEqualTo(100 * 200 + 1);
+        assertThat(definition.maxDepth()).isEqualTo(101);
+        assertThat(definition.newInstance().getActiveStateConfiguration()).hasSize(101).endsWith("S99_0");
+    }
+}
@@ -0,0 +1,173 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class MachineLoaderTest {
+    private static final String ATM = String.join("\n",
+            "# The ATM State Machine of the unit tests",
+            "machine ATMStateMachine",
+            "initial Off",
+            "",
+            "state Off",
+            "  transition TurnOn on TurnedOn to SelfTest",
+            "state SelfTest",
+            "  transition TestOk on TestedOk to Idle",
+            "state Idle",
+            "  transition TurnOff on TurnedOff to Off",
+            "  transition CardInsert on CardInserted to ServingCustomer",
+            "composite ServingCustomer",
+            "  initial Authentication",
+            "  states Authentication SelectingTransaction Transaction Final",
+            "  transition Cancel on Canceled to Idle",
+            "  transition Final on FinalEvent to Idle",
+            "state Authentication",
+            "  transition Authenticate on Authenticated to SelectingTransaction",
+            "state SelectingTransaction",
+            "  transition TransactionSelect on TransactionSelected to Transaction",
+            "state Transaction",
+            "  transition Final guardedBy always to Final",
+            "final Final");
+    private static final List<Event> EVENTS = asList(new TurnedOn(), new TestedOk(), new TurnedOff(),
+            new CardInserted(), new Canceled(), new Authenticated(), new TransactionSelected());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> actions = new ArrayList<>();
+    private final MachineLoader loader = MachineLoader.machineLoader()
+            .guard("always", event -> true)
+            .guard("vip", event -> event.getName().endsWith("Vip"))
+            .action("greet", () -> actions.add("greet"))
+            .action("eject", () -> actions.add("eject"))
+            .action("count", () -> actions.add("count"))
+            .build();
+
+    @Test
+    public void loaded_as_built_in_code() {
+        StateMachine loaded = loader.parse(ATM);
+        StateMachine built = new ATMStateMachine();
+
+        DotExporter exporter = DotExporter.dotExporter().build();
+        assertThat(exporter.toDot(loaded)).isEqualTo(exporter.toDot(built));
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            Event event = EVENTS.get(random.nextInt(EVENTS.size()));
+            loaded.execute(event);
+            built.execute(event);
+            assertThat(loaded.getActiveStateConfiguration()).isEqualTo(built.getActiveStateConfiguration());
+        }
+    }
+
+    @Test
+    public void actions_and_guards_resolved_by_name() {
+        StateMachine stateMachine = loader.parse(String.join("\n",
+                "machine Door",
+                "initial Closed",
+                "state Closed",
+                "  onExit eject",
+                "  transition Open on Push guardedBy vip to Open onTransition count",
+                "  transition VipOpen guardedBy vip to Open",
+                "  defer Knock",
+                "state Open",
+                "  onEntry greet",
+                "  transition Close on Pull to Closed"));
+
+        stateMachine.execute(new Event("Push"));
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("Closed");
+        stateMachine.execute(new Event("PushVip"));
+
+        assertThat(stateMachine.getName()).isEqualTo("Door");
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("Open");
+        assertThat(actions).containsExactly("eject", "greet");
+        assertThat(((AbstractState) stateMachine.getState("Closed")).getDeferredEvents()).containsExactly("Knock");
+    }
+
+    @Test
+    public void cache_used_while_source_unchanged() throws IOException {
+        Path source = folder.getRoot().toPath().resolve("atm.machine");
+        Path cache = folder.getRoot().toPath().resolve("atm.machine.bin");
+        Files.write(source, ATM.getBytes(StandardCharsets.UTF_8));
+
+        StateMachine parsed = loader.load(source, cache);
+        byte[] written = Files.readAllBytes(cache);
+        assertThat(MachineLoader.readCache(cache, Files.size(source), checksum(source))).isNotNull();
+        StateMachine cached = loader.load(source, cache);
+
+        DotExporter exporter = DotExporter.dotExporter().build();
+        assertThat(exporter.toDot(cached)).isEqualTo(exporter.toDot(parsed));
+        assertThat(Files.readAllBytes(cache)).isEqualTo(written);
+
+        Files.write(source, ATM.replace("TurnOff on TurnedOff", "TurnOff on Unplugged")
+                .getBytes(StandardCharsets.UTF_8));
+        StateMachine changed = loader.load(source, cache);
+        assertThat(Files.readAllBytes(cache)).isNotEqualTo(written);
+        changed.activeStateConfiguration("Idle");
+        changed.execute(new Event("Unplugged"));
+        assertThat(changed.getActiveStateName()).isEqualTo("Off");
+    }
+
+    @Test
+    public void damaged_cache_rewritten() throws IOException {
+        Path source = folder.getRoot().toPath().resolve("atm.machine");
+        Path cache = folder.getRoot().toPath().resolve("atm.machine.bin");
+        Files.write(source, ATM.getBytes(StandardCharsets.UTF_8));
+        loader.load(source, cache);
+        byte[] written = Files.readAllBytes(cache);
+        byte[] damaged = written.clone();
+        damaged[damaged.length - 3] ^= 1;
+        Files.write(cache, damaged);
+
+        assertThat(MachineLoader.readCache(cache, Files.size(source), checksum(source))).isNull();
+        loader.load(source, cache);
+
+        assertThat(Files.readAllBytes(cache)).isEqualTo(written);
+    }
+
+    @Test
+    public void fail_on_invalid_definition() {
+        assertFailure("initial Off", "Line 1: Expected machine first");
+        assertFailure("machine M\ninitial A\nstate A\n  transition Go on Go to B", "Line 4: Unknown state B");
+        assertFailure("machine M\ninitial A\nstate A\nstate A", "Line 4: Duplicate state A");
+        assertFailure("machine M\ninitial A\nstate A\n  onEntry launch", "Line 4: Unknown action launch");
+        assertFailure("machine M\ninitial A\nstate A\n  transition Go to A", "Line 4: Transition Go must have an "
+                + "event or a guard");
+        assertFailure("machine M\ninitial A\nstate A\ncomposite C\n  states A", "Line 4: Missing initial state of "
+                + "composite C");
+        assertFailure("machine M\ninitial A\ncomposite C\n  initial A\n  states A\nstate A",
+                "Line 2: Initial state A is not a top level state");
+        assertFailure("machine M\ninitial X\ncomposite C\n  initial D\n  states D\ncomposite D\n  initial C\n"
+                + "  states C\nstate X", "Line 3: State C is nested in itself");
+        assertFailure("machine M\nstate A", "Missing initial state of M");
+    }
+
+    private void assertFailure(String definition, String message) {
+        try {
+            loader.parse(definition);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo(message);
+        }
+    }
+
+    private static int checksum(Path source) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(source));
+        return (int) crc.getValue();
+    }
+}
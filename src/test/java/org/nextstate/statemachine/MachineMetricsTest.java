@@ -0,0 +1,142 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class MachineMetricsTest {
+    private static final List<Event> SERVE_CUSTOMER = asList(new TurnedOn(), new TestedOk(), new CardInserted(),
+            new Authenticated(), new TransactionSelected(), new TurnedOff());
+
+    @Test
+    public void counts_transitions_states_and_unhandled_events() {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        MachineMetrics metrics = MachineMetrics.of(definition);
+        MachineInstance atm = definition.withListener(metrics).newInstance();
+
+        SERVE_CUSTOMER.forEach(atm::execute);
+        atm.execute(new Canceled());
+
+        MachineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getReceived()).isEqualTo(7);
+        assertThat(snapshot.getUnhandled()).isEqualTo(1);
+        assertThat(snapshot.getProcessed().getCount()).isEqualTo(7);
+        assertThat(snapshot.getTransition(IDLE, "CardInsert").getAction().getCount()).isEqualTo(1);
+        assertThat(snapshot.getTransition(SERVING_CUSTOMER, "Final").getAction().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(IDLE).getEntry().getCount()).isEqualTo(2);
+        assertThat(snapshot.getState(IDLE).getExit().getCount()).isEqualTo(2);
+        assertThat(snapshot.getState(OFF).getUnhandled()).isEqualTo(1);
+        assertThat(snapshot.toString()).contains("transition Idle -CardInsert-> ServingCustomer count=1");
+    }
+
+    @Test
+    public void composite_state_entries_and_exits_balanced() {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        MachineMetrics metrics = MachineMetrics.of(definition);
+        MachineInstance atm = definition.withListener(metrics).newInstance();
+
+        for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted(), new Authenticated(),
+                new Canceled())) {
+            atm.execute(event);
+        }
+
+        // Serving Customer and its initial state Authentication are entered, its active inner state exited with it
+        MachineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getState(SERVING_CUSTOMER).getEntry().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(SERVING_CUSTOMER).getExit().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(AUTHENTICATION).getEntry().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(AUTHENTICATION).getExit().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(SELECTING_TRANSACTION).getEntry().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(SELECTING_TRANSACTION).getExit().getCount()).isEqualTo(1);
+        assertThat(snapshot.getState(IDLE).getEntry().getCount()).isEqualTo(2);
+        assertThat(snapshot.getState(IDLE).getExit().getCount()).isEqualTo(1);
+        // Without entry or exit action
+        assertThat(snapshot.getState(SERVING_CUSTOMER).getEntry().getMax()).isEqualTo(Duration.ZERO);
+        assertThat(snapshot.getState(SELECTING_TRANSACTION).getExit().getMax()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void listener_notified_in_order() {
+        List<String> notifications = new ArrayList<>();
+        MachineListener listener = new MachineListener() {
+            @Override public void eventReceived(Event event) {
+                notifications.add("received " + event.getName());
+            }
+
+            @Override public void eventUnhandled(State state, Event event) {
+                notifications.add("unhandled " + event.getName() + " in " + state.getName());
+            }
+
+            @Override public void transitionTaken(State source, Transition transition, long nanos) {
+                notifications.add("transition " + source.getName() + " " + transition.getName());
+            }
+
+            @Override public void stateEntered(State state, long nanos) {
+                notifications.add("entered " + state.getName());
+            }
+
+            @Override public void stateExited(State state, long nanos) {
+                notifications.add("exited " + state.getName());
+            }
+        };
+        MachineDefinition definition = MachineCompiler.compile(new ATMStateMachine()).withListener(listener);
+        MachineInstance atm = definition.newInstance();
+        atm.execute(new TurnedOn());
+        atm.execute(new CardInserted());
+
+        assertThat(definition.isCompiled()).isTrue();
+        assertThat(notifications).containsExactly("entered Off", "received TurnedOn", "transition Off TurnOn",
+                "exited Off", "entered SelfTest", "received CardInserted", "unhandled CardInserted in SelfTest");
+    }
+
+    @Test
+    public void listener_removed() {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        MachineMetrics metrics = MachineMetrics.of(definition);
+        MachineDefinition removed = definition.withListener(metrics).withListener(null);
+
+        removed.newInstance().execute(new TurnedOn());
+
+        assertThat(removed.getListener()).isNull();
+        assertThat(metrics.snapshot().getReceived()).isEqualTo(0);
+    }
+
+    @Test
+    public void counts_from_many_threads() throws Exception {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        MachineMetrics metrics = MachineMetrics.of(definition);
+        MachineDefinition listened = definition.withListener(metrics);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    MachineInstance atm = listened.newInstance();
+                    for (int i = 0; i < 1000; i++) {
+                        SERVE_CUSTOMER.forEach(atm::execute);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        MachineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getReceived()).isEqualTo(4 * 1000 * SERVE_CUSTOMER.size());
+        assertThat(snapshot.getTransition(IDLE, "CardInsert").getAction().getCount()).isEqualTo(4000);
+        assertThat(snapshot.getProcessed().getPercentile(1.0)).isEqualTo(snapshot.getProcessed().getMax());
+    }
+}
@@ -0,0 +1,142 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class MappedInstanceStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void execute_against_slots() throws IOException {
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+
+        try (MappedInstanceStore store = MappedInstanceStore.open(store(), definition, 1000)) {
+            store.create(1);
+            store.create(999);
+            for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted())) {
+                store.execute(1, event);
+            }
+            store.execute(999, new TurnedOn());
+            store.execute(999, new CardInserted());
+
+            assertThat(store.getActiveStateConfiguration(1)).containsExactly(SERVING_CUSTOMER, AUTHENTICATION);
+            assertThat(store.getVersion(1)).isEqualTo(4);
+            assertThat(store.getActiveStateConfiguration(999)).containsExactly(SELF_TEST);
+            assertThat(store.getVersion(999)).isEqualTo(2);
+            assertThat(store.exists(500)).isFalse();
+        }
+    }
+
+    @Test
+    public void reopened_store_continues() throws IOException {
+        Path file = store();
+        try (MappedInstanceStore store = MappedInstanceStore.open(file, MachineDefinition.of(new ATMStateMachine()),
+                10)) {
+            store.create(3);
+            for (Event event : asList(new TurnedOn(), new TestedOk(), new CardInserted(), new Authenticated())) {
+                store.execute(3, event);
+            }
+        }
+
+        MachineDefinition compiled = MachineCompiler.compile(new ATMStateMachine());
+        try (MappedInstanceStore store = MappedInstanceStore.open(file, compiled, 20)) {
+            assertThat(store.getCapacity()).isEqualTo(20);
+            assertThat(store.getActiveStateConfiguration(3)).containsExactly(SERVING_CUSTOMER, SELECTING_TRANSACTION);
+
+            store.execute(3, new TransactionSelected());
+            // Unhandled in Idle, the slot is not written
+            store.execute(3, new Canceled());
+
+            assertThat(store.getActiveStateConfiguration(3)).containsExactly(IDLE);
+            assertThat(store.getVersion(3)).isEqualTo(6);
+        }
+    }
+
+    @Test
+    public void restore_configuration_in_slot() throws IOException {
+        try (MappedInstanceStore store = MappedInstanceStore.open(store(),
+                MachineDefinition.of(new ATMStateMachine()), 10)) {
+            store.create(0);
+            store.activeStateConfiguration(0, asList(SERVING_CUSTOMER));
+
+            assertThat(store.getActiveStateConfiguration(0)).containsExactly(SERVING_CUSTOMER, AUTHENTICATION);
+        }
+    }
+
+    @Test
+    public void store_of_other_definition() throws IOException {
+        Path file = store();
+        MappedInstanceStore.open(file, MachineDefinition.of(new ATMStateMachine()), 10).close();
+
+        try {
+            MappedInstanceStore.open(file, MachineDefinition.of(new PhoneStateMachine()), 10);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Store was written for another definition than PhoneStateMachine");
+        }
+    }
+
+    @Test
+    public void empty_slot() throws IOException {
+        try (MappedInstanceStore store = MappedInstanceStore.open(store(),
+                MachineDefinition.of(new ATMStateMachine()), 10)) {
+            store.execute(5, new TurnedOn());
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("No instance in slot 5");
+        }
+    }
+
+    @Test
+    public void torn_slot_emptied_on_open() throws IOException {
+        Path file = store();
+        MachineDefinition definition = MachineDefinition.of(new ATMStateMachine());
+        byte[] torn;
+        try (MappedInstanceStore store = MappedInstanceStore.open(file, definition, 10)) {
+            store.create(2);
+            store.create(3);
+            store.execute(3, new TurnedOn());
+            byte[] before = Files.readAllBytes(file);
+            store.execute(2, new TurnedOn());
+            torn = Files.readAllBytes(file);
+            // Died after writing all but the first changed byte of the slot
+            int changed = 0;
+            while (torn[changed] == before[changed]) {
+                changed++;
+            }
+            torn[changed] = before[changed];
+        }
+        Files.write(file, torn);
+
+        try (MappedInstanceStore store = MappedInstanceStore.open(file, definition, 10)) {
+            assertThat(store.getTornSlots()).containsExactly(2);
+            assertThat(store.exists(2)).isFalse();
+            assertThat(store.getActiveStateConfiguration(3)).containsExactly(SELF_TEST);
+
+            store.create(2);
+            assertThat(store.getActiveStateConfiguration(2)).containsExactly(OFF);
+        }
+        try (MappedInstanceStore store = MappedInstanceStore.open(file, definition, 10)) {
+            assertThat(store.getTornSlots()).isEmpty();
+        }
+    }
+
+    private Path store() throws IOException {
+        return folder.newFile().toPath();
+    }
+}
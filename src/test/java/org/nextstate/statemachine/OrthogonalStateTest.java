@@ -0,0 +1,185 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.OrthogonalState.orthogonalState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class OrthogonalStateTest {
+
+    @Test
+    public void every_region_is_given_each_event() {
+        ServingStateMachine atm = new ServingStateMachine(null);
+        atm.execute(new Event("CardInserted"));
+        atm.execute(new Event("Authenticated"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Operating");
+        assertThat(atm.operating.getActiveStateConfigurations()).containsExactly(
+                asList("Serving", "Dispensing"), asList("CardReader", "Reading"));
+    }
+
+    @Test
+    public void join_when_every_region_is_completed() {
+        ServingStateMachine atm = new ServingStateMachine(null);
+        atm.execute(new Event("CardInserted"));
+        atm.execute(new Event("Authenticated"));
+        atm.execute(new Event("CashTaken"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Operating");
+
+        atm.execute(new Event("CardRemoved"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Idle");
+        assertThat(atm.actions).containsExactly("Dispense", "Eject", "Done");
+    }
+
+    @Test
+    public void transition_from_orthogonal_state_leaves_every_region() {
+        ServingStateMachine atm = new ServingStateMachine(null);
+        atm.execute(new Event("CardInserted"));
+        atm.execute(new Event("Canceled"));
+
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Idle");
+
+        atm.execute(new Event("CardInserted"));
+        assertThat(atm.operating.getActiveStateConfigurations()).containsExactly(
+                asList("Serving", "Authentication"), asList("CardReader", "Reading"));
+    }
+
+    @Test
+    public void parallel_regions_merged_in_region_order() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ServingStateMachine atm = new ServingStateMachine(pool);
+            atm.execute(new Event("CardInserted"));
+            atm.execute(new Event("Authenticated"));
+            atm.execute(new Event("CashTaken"));
+            atm.execute(new Event("CardRemoved"));
+
+            assertThat(atm.getActiveStateConfiguration()).containsExactly("Idle");
+            assertThat(atm.actions).containsExactly("Dispense", "Eject", "Done");
+
+            atm.execute(new Event("CardInserted"));
+            try {
+                atm.execute(new Event("Fault"));
+
+                failBecauseExceptionWasNotThrown(IllegalStateException.class);
+            } catch (IllegalStateException e) {
+                // Both regions fail, the first region's exception is thrown
+                assertThat(e).hasMessage("Serving fault");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void not_supported_by_machine_definition() {
+        try {
+            MachineDefinition.of(new ServingStateMachine(null));
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("State Operating is not supported by MachineDefinition.");
+        }
+    }
+
+    @Test
+    public void region_must_be_composite_state() {
+        try {
+            orthogonalState("Operating").regions(asList(state("Simple").build())).build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("Region Simple of Orthogonal State Operating is not a Composite State");
+        }
+    }
+
+    @Test
+    public void region_must_not_have_transitions() {
+        SimpleState reading = state("Reading").build();
+        State cardReader = compositeState("CardReader")
+                .transition("Done").on(FinalState.FINAL_EVENT).to(reading)
+                .initialTransition(singleTransition("Initial").to(reading))
+                .internalStates(asList(reading))
+                .build();
+        try {
+            orthogonalState("Operating").regions(asList(cardReader)).build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("Region CardReader of Orthogonal State Operating has transitions");
+        }
+    }
+
+    // Serving the customer while monitoring the card reader, done when the cash and the card are taken
+    private static class ServingStateMachine extends StateMachine {
+        final List<String> actions = new CopyOnWriteArrayList<>();
+        final OrthogonalState operating;
+
+        ServingStateMachine(ForkJoinPool pool) {
+            State servingFinal = new FinalState("ServingFinal");
+            State done = state("Done")
+                    .transition(FinalState.FINAL_EVENT).guardedBy(e -> true).to(servingFinal)
+                    .build();
+            State dispensing = state("Dispensing")
+                    .transition("TakeCash").on("CashTaken").to(done)
+                    .build();
+            SimpleState authentication = state("Authentication")
+                    .transition("Authenticate").on("Authenticated").onTransition(() -> actions.add("Dispense"))
+                    .to(dispensing)
+                    .build();
+            State serving = compositeState("Serving")
+                    .initialTransition(singleTransition("Initial").to(authentication))
+                    .internalStates(asList(authentication, dispensing, done, servingFinal))
+                    .build();
+
+            State readerFinal = new FinalState("ReaderFinal");
+            State removed = state("Removed")
+                    .transition(FinalState.FINAL_EVENT).guardedBy(e -> true).to(readerFinal)
+                    .build();
+            SimpleState reading = state("Reading")
+                    .transition("Remove").on("CardRemoved").onTransition(() -> actions.add("Eject"))
+                    .to(removed)
+                    .build();
+            State cardReader = compositeState("CardReader")
+                    .initialTransition(singleTransition("Initial").to(reading))
+                    .internalStates(asList(reading, removed, readerFinal))
+                    .build();
+
+            authentication.addTransition(new Transition("Fault", e -> {
+                throw new IllegalStateException("Serving fault");
+            }, authentication, "Fault", null));
+            reading.addTransition(new Transition("Fault", e -> {
+                throw new IllegalStateException("Reader fault");
+            }, reading, "Fault", null));
+
+            SimpleState idle = state("Idle").build();
+            OrthogonalState.OrthogonalStateBuilder builder = orthogonalState("Operating")
+                    .regions(asList(serving, cardReader))
+                    .transition("Done").on(FinalState.FINAL_EVENT).onTransition(() -> actions.add("Done"))
+                    .to(idle)
+                    .transition("Cancel").on("Canceled").to(idle);
+            if (pool != null) {
+                builder.parallel(pool);
+            }
+            operating = builder.build();
+            idle.addTransitions(transitions()
+                    .transition("CardInsert").on("CardInserted").to(operating)
+                    .build());
+
+            addStates(asList(idle, operating));
+            activeState(idle);
+        }
+    }
+}
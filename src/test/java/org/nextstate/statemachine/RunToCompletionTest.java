@@ -0,0 +1,153 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class RunToCompletionTest {
+    private static final String PING = "Ping";
+    private static final String PONG = "Pong";
+    private static final String FAIL = "Fail";
+
+    @Test
+    public void event_raised_by_action_is_processed_after_transition() {
+        List<String> trace = new ArrayList<>();
+        PingPongStateMachine stateMachine = new PingPongStateMachine(trace, 1);
+        trace.clear();
+
+        stateMachine.execute(new Event(PING));
+
+        assertThat(trace).containsExactly("exit Ping", "entry Pong", "exit Pong", "entry Ping");
+        assertThat(stateMachine.getActiveStateName()).isEqualTo(PING);
+    }
+
+    @Test
+    public void instance_processes_raised_events_in_order() {
+        List<String> trace = new ArrayList<>();
+        PingPongStateMachine template = new PingPongStateMachine(trace, 3);
+        MachineInstance instance = MachineDefinition.of(template).newInstance();
+        template.raise = instance::execute;
+        trace.clear();
+
+        instance.execute(new Event(PING));
+
+        assertThat(trace).containsExactly("exit Ping", "entry Pong", "exit Pong", "entry Ping", "exit Ping",
+                "entry Pong", "exit Pong", "entry Ping");
+        assertThat(instance.getActiveStateName()).isEqualTo(PING);
+    }
+
+    @Test
+    public void long_chain_of_raised_events_without_recursion() {
+        PingPongStateMachine stateMachine = new PingPongStateMachine(null, 100_000);
+        PingPongStateMachine template = new PingPongStateMachine(null, 100_000);
+        MachineInstance instance = MachineCompiler.compile(template).newInstance();
+        template.raise = instance::execute;
+
+        stateMachine.execute(new Event(PING));
+        instance.execute(new Event(PING));
+
+        assertThat(stateMachine.remaining).isNegative();
+        assertThat(stateMachine.getActiveStateName()).isEqualTo(PONG);
+        assertThat(template.remaining).isNegative();
+        assertThat(instance.getActiveStateName()).isEqualTo(PONG);
+    }
+
+    @Test
+    public void queued_events_discarded_on_failure() {
+        PingPongStateMachine stateMachine = new PingPongStateMachine(null, 2);
+        stateMachine.failOnPong = true;
+
+        try {
+            stateMachine.execute(new Event(PING));
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo(FAIL);
+        }
+        stateMachine.failOnPong = false;
+        stateMachine.remaining = 0;
+        stateMachine.execute(new Event(PONG));
+
+        assertThat(stateMachine.getActiveStateName()).isEqualTo(PING);
+    }
+
+    @Test
+    public void ring_buffer_grows_and_keeps_order() {
+        EventQueue queue = new EventQueue();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queue.add(new Event("Before" + i));
+            queue.poll();
+        }
+        for (int i = 0; i < 20; i++) {
+            Event event = new Event("Event" + i);
+            events.add(event);
+            queue.add(event);
+        }
+
+        List<Event> polled = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            polled.add(queue.poll());
+        }
+
+        assertThat(polled).isEqualTo(events);
+        assertThat(queue.poll()).isNull();
+    }
+
+    // Ping <-> Pong, entering a state raises the event back until the count is reached
+    private static class PingPongStateMachine extends StateMachine {
+        Consumer<Event> raise = this::execute;
+        int remaining;
+        boolean failOnPong;
+
+        PingPongStateMachine(List<String> trace, int count) {
+            this.remaining = count;
+            SimpleState ping = state(PING)
+                    .onEntry(() -> record(trace, "entry " + PING))
+                    .onExit(() -> record(trace, "exit " + PING))
+                    .build();
+            SimpleState pong = state(PONG)
+                    .onEntry(() -> {
+                        record(trace, "entry " + PONG);
+                        if (failOnPong) {
+                            raise.accept(new Event(PING));
+                            throw new IllegalStateException(FAIL);
+                        }
+                        if (remaining-- > 0) {
+                            raise.accept(new Event(PONG));
+                        }
+                    })
+                    .onExit(() -> record(trace, "exit " + PONG))
+                    .build();
+            ping.addTransitions(transitions()
+                    .transition(PING).on(PING)
+                    .to(pong)
+                    .build());
+            pong.addTransitions(transitions()
+                    .transition(PONG).on(PONG).onTransition(() -> {
+                        if (remaining-- > 0) {
+                            raise.accept(new Event(PING));
+                        }
+                    })
+                    .to(ping)
+                    .build());
+
+            addStates(asList(ping, pong));
+            activeState(ping);
+        }
+
+        private static void record(List<String> trace, String action) {
+            if (trace != null) {
+                trace.add(action);
+            }
+        }
+    }
+}
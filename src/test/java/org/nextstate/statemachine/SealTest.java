@@ -0,0 +1,175 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+public class SealTest {
+    private static final List<Event> SERVE_CUSTOMER = asList(new TurnedOn(), new TestedOk(), new CardInserted(),
+            new Authenticated(), new TransactionSelected(), new CardInserted(), new Canceled());
+
+    @Test
+    public void sealed_state_machine_executes_as_unsealed() {
+        StateMachine sealed = new ATMStateMachine();
+        sealed.seal();
+        StateMachine unsealed = new ATMStateMachine();
+
+        assertThat(sealed.isSealed()).isTrue();
+        assertThat(unsealed.isSealed()).isFalse();
+        for (Event event : SERVE_CUSTOMER) {
+            sealed.execute(event);
+            unsealed.execute(event);
+            assertThat(sealed.getActiveStateConfiguration()).isEqualTo(unsealed.getActiveStateConfiguration());
+        }
+        assertThat(sealed.toDot(true)).isEqualTo(unsealed.toDot(true));
+
+        sealed.activeStateConfiguration(asList(SERVING_CUSTOMER, SELECTING_TRANSACTION));
+        assertThat(sealed.getActiveStateConfiguration()).containsExactly(SERVING_CUSTOMER, SELECTING_TRANSACTION);
+        sealed.seal();
+        new PhoneStateMachine().seal();
+    }
+
+    @Test
+    public void completion_checked_once_when_sealed() {
+        AtomicInteger tested = new AtomicInteger();
+        StateMachine stateMachine = new ServiceStateMachine(tested);
+        stateMachine.seal();
+        int testedWhenSealed = tested.get();
+
+        stateMachine.execute(new Event("Start"));
+
+        assertThat(tested.get()).isEqualTo(testedWhenSealed);
+        assertThat(stateMachine.getActiveStateConfiguration()).containsExactly("Service", "Working");
+    }
+
+    @Test
+    public void graph_immutable_when_sealed() {
+        StateMachine atm = new ATMStateMachine();
+        atm.seal();
+        AbstractState idle = (AbstractState) atm.getState(IDLE);
+        try {
+            idle.addTransition(singleTransition("Again").to(idle));
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("State Idle is sealed");
+        }
+        try {
+            atm.getStates().add(state("Broken").build());
+            failBecauseExceptionWasNotThrown(UnsupportedOperationException.class);
+        } catch (UnsupportedOperationException e) {
+            assertThat(atm.getStates()).hasSize(4);
+        }
+    }
+
+    @Test
+    public void fail_on_duplicate_name() {
+        SimpleState second = state("Idle").build();
+        SimpleState first = state("Idle").transition("Next").on("Next").to(second).build();
+        try {
+            new TestStateMachine(asList(first, second), first).seal();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Duplicate state name Idle in TestStateMachine");
+        }
+    }
+
+    @Test
+    public void fail_on_missing_initial_transition() {
+        SimpleState inner = state("Inner").build();
+        State composite = compositeState("Composite").internalStates(asList(inner)).build();
+        SimpleState start = state("Start").transition("Enter").on("Enter").to(composite).build();
+        try {
+            new TestStateMachine(asList(start, composite), start).seal();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("No initial transition in Composite State: Composite");
+        }
+    }
+
+    @Test
+    public void fail_on_unreachable_or_unknown_state() {
+        SimpleState idle = state("Idle").build();
+        SimpleState lost = state("Lost").build();
+        try {
+            new TestStateMachine(asList(idle, lost), idle).seal();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Unreachable state Lost in TestStateMachine");
+        }
+
+        SimpleState hidden = state("Hidden").build();
+        SimpleState start = state("Start").transition("Hide").on("Hide").to(hidden).build();
+        try {
+            new TestStateMachine(asList(start), start).seal();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("State Hidden is not a state of the State Machine or of a Composite State");
+        }
+    }
+
+    @Test
+    public void fail_on_transition_leaving_its_parent() {
+        SimpleState outside = state("Outside").build();
+        SimpleState inner = state("Inner").transition("Escape").on("Escape").to(outside).build();
+        State composite = compositeState("Composite")
+                .initialTransition(singleTransition("Initial").to(inner))
+                .internalStates(asList(inner))
+                .build();
+        outside.addTransition(new Transition("Enter", null, composite, "Enter", null));
+        try {
+            new TestStateMachine(asList(outside, composite), outside).seal();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Transition Escape from Inner in Composite to Outside in "
+                    + "TestStateMachine leaves its parent");
+        }
+
+        SimpleState shared = state("Shared").build();
+        SimpleState start = state("Start").transition("Share").on("Share").to(shared).build();
+        State other = compositeState("Other")
+                .initialTransition(singleTransition("Initial").to(shared))
+                .internalStates(asList(shared))
+                .build();
+        start.addTransition(new Transition("Other", null, other, "Other", null));
+        try {
+            new TestStateMachine(asList(start, shared, other), start).seal();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("State Shared of Other is also a state of TestStateMachine");
+        }
+    }
+
+    private static class TestStateMachine extends StateMachine {
+        TestStateMachine(List<State> states, State initial) {
+            addStates(states);
+            activeState(initial);
+        }
+    }
+
+    private static class ServiceStateMachine extends StateMachine {
+        ServiceStateMachine(AtomicInteger tested) {
+            SimpleState working = state("Working").build();
+            SimpleState waiting = state("Waiting")
+                    .transition("Start").on("Start").to(working)
+                    .build();
+            working.addTransition(new Transition(e -> tested.incrementAndGet() < 0, waiting, "Never", null));
+            State service = compositeState("Service")
+                    .initialTransition(singleTransition("Initial").to(waiting))
+                    .internalStates(asList(waiting, working))
+                    .build();
+            addStates(asList(service));
+            activeState(service);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ShardedRuntimeTest {
+    private static final String AB = "AB";
+    private static final String BC = "BC";
+    private static final String CA = "CA";
+
+    @Test
+    public void events_for_an_instance_processed_in_order() throws Exception {
+        int producers = 4;
+        int idsPerProducer = 50;
+        int cycles = 200;
+        MachineDefinition definition = MachineDefinition.of(new CycleStateMachine());
+
+        try (ShardedRuntime<String> runtime = ShardedRuntime.<String>shardedRuntime(definition)
+                .shards(3).queueCapacity(64).batchSize(16).build()) {
+            CountDownLatch done = new CountDownLatch(producers);
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                new Thread(() -> {
+                    Event[] events = {new Event(AB), new Event(BC), new Event(CA)};
+                    for (int cycle = 0; cycle < cycles; cycle++) {
+                        for (Event event : events) {
+                            for (int id = 0; id < idsPerProducer; id++) {
+                                runtime.submit(producer + "-" + id, event);
+                            }
+                        }
+                    }
+                    for (int id = 0; id < idsPerProducer; id++) {
+                        runtime.submit(producer + "-" + id, events[0]);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+
+            // Any event out of order is not handled and the cycle ends in another state
+            for (int p = 0; p < producers; p++) {
+                for (int id = 0; id < idsPerProducer; id++) {
+                    assertThat(runtime.getActiveStateConfiguration(p + "-" + id).get(10, TimeUnit.SECONDS))
+                            .containsExactly("B");
+                }
+            }
+
+            List<ShardStats> stats = runtime.getStats();
+            assertThat(stats).hasSize(3);
+            assertThat(stats.stream().mapToLong(ShardStats::getProcessed).sum())
+                    .isEqualTo((long) producers * idsPerProducer * (cycles * 3 + 1));
+            assertThat(stats.stream().mapToInt(ShardStats::getInstances).sum()).isEqualTo(producers * idsPerProducer);
+            assertThat(stats.stream().mapToLong(ShardStats::getFailed).sum()).isEqualTo(0);
+            for (ShardStats shard : stats) {
+                assertThat(shard.getBatches()).isGreaterThan(0);
+                assertThat(shard.getMaxLatencyNanos()).isGreaterThanOrEqualTo(shard.getMeanLatencyNanos());
+            }
+        }
+    }
+
+    @Test
+    public void unknown_instance_has_empty_configuration() throws Exception {
+        try (ShardedRuntime<Integer> runtime = ShardedRuntime.<Integer>shardedRuntime(new CycleStateMachine())
+                .shards(2).build()) {
+            assertThat(runtime.getActiveStateConfiguration(42).get(10, TimeUnit.SECONDS)).isEmpty();
+        }
+    }
+
+    @Test
+    public void failing_event_does_not_stop_shard() throws Exception {
+        try (ShardedRuntime<Integer> runtime = ShardedRuntime.<Integer>shardedRuntime(new CycleStateMachine())
+                .shards(1).build()) {
+            runtime.submit(1, new Event("Fail"));
+            runtime.submit(1, new Event(AB));
+
+            assertThat(runtime.getActiveStateConfiguration(1).get(10, TimeUnit.SECONDS)).containsExactly("B");
+            assertThat(runtime.getStats().get(0).getFailed()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void null_event_rejected_without_blocking_shard() throws Exception {
+        try (ShardedRuntime<Integer> runtime = ShardedRuntime.<Integer>shardedRuntime(new CycleStateMachine())
+                .shards(1).build()) {
+            try {
+                runtime.submit(1, null);
+                failBecauseExceptionWasNotThrown(IllegalStateException.class);
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage()).isEqualTo("Missing event for instance 1");
+            }
+            try {
+                runtime.offer(2, null);
+                failBecauseExceptionWasNotThrown(IllegalStateException.class);
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage()).isEqualTo("Missing event for instance 2");
+            }
+            runtime.submit(1, new Event(AB));
+
+            assertThat(runtime.getActiveStateConfiguration(1).get(10, TimeUnit.SECONDS)).containsExactly("B");
+        }
+    }
+
+    @Test
+    public void closed_runtime_rejects_events() {
+        ShardedRuntime<Integer> runtime = ShardedRuntime.<Integer>shardedRuntime(new CycleStateMachine())
+                .shards(1).build();
+        runtime.close();
+
+        try {
+            runtime.submit(1, new Event(AB));
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Runtime is closed");
+        }
+    }
+
+    @Test
+    public void queries_accepted_while_closing_completed() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            ShardedRuntime<Integer> runtime = ShardedRuntime.<Integer>shardedRuntime(new CycleStateMachine())
+                    .shards(2).build();
+            List<List<CompletableFuture<List<String>>>> accepted = new ArrayList<>();
+            List<Thread> producers = new ArrayList<>();
+            CountDownLatch started = new CountDownLatch(4);
+            for (int p = 0; p < 4; p++) {
+                List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+                accepted.add(futures);
+                Thread producer = new Thread(() -> {
+                    started.countDown();
+                    try {
+                        for (int id = 0; ; id++) {
+                            runtime.submit(id, new Event(AB));
+                            futures.add(runtime.getActiveStateConfiguration(id));
+                        }
+                    } catch (IllegalStateException e) {
+                        assertThat(e.getMessage()).isEqualTo("Runtime is closed");
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            started.await();
+            runtime.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            for (List<CompletableFuture<List<String>>> futures : accepted) {
+                for (CompletableFuture<List<String>> future : futures) {
+                    assertThat(future.get(10, TimeUnit.SECONDS)).isNotNull();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void jump_consistent_hash_moves_few_keys() {
+        int keys = 10_000;
+        List<Integer> eight = new ArrayList<>();
+        int[] counts = new int[8];
+        for (int key = 0; key < keys; key++) {
+            int bucket = ShardedRuntime.jumpConsistentHash(key, 8);
+            eight.add(bucket);
+            counts[bucket]++;
+        }
+        int moved = 0;
+        for (int key = 0; key < keys; key++) {
+            int bucket = ShardedRuntime.jumpConsistentHash(key, 9);
+            if (bucket != eight.get(key)) {
+                assertThat(bucket).isEqualTo(8);
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(keys / 9 - 300, keys / 9 + 300);
+        for (int count : counts) {
+            assertThat(count).isBetween(keys / 8 - 300, keys / 8 + 300);
+        }
+    }
+
+    @Test
+    public void bounded_queue_rejects_when_full() {
+        MpscEventQueue<String, Event> queue = new MpscEventQueue<>(3);
+        Event event = new Event(AB);
+
+        assertThat(queue.capacity()).isEqualTo(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(queue.offer("id" + i, event, i)).isTrue();
+        }
+        assertThat(queue.offer("id4", event, 4)).isFalse();
+        assertThat(queue.poll()).isSameAs(event);
+        assertThat(queue.polledId()).isEqualTo("id0");
+        assertThat(queue.offer("id4", event, 4)).isTrue();
+        assertThat(queue.size()).isEqualTo(4);
+    }
+
+    // A -> B -> C -> A, a Fail event fails in A
+    @Test
+    public void timers_fire_on_shard_threads() throws Exception {
+        SimpleState closed = state("Closed").build();
+        SimpleState open = state("Open").transition("Close").after(Duration.ofMillis(50)).to(closed).build();
+        MachineDefinition door = MachineDefinition.of("Door", asList(open, closed), open);
+
+        try (ShardedRuntime<Integer> runtime = ShardedRuntime.<Integer>shardedRuntime(door)
+                .shards(2).timerTick(Duration.ofMillis(5)).build()) {
+            for (int id = 0; id < 100; id++) {
+                runtime.submit(id, new Event("Unhandled"));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            for (int id = 0; id < 100; id++) {
+                while (!runtime.getActiveStateConfiguration(id).get(10, TimeUnit.SECONDS).equals(asList("Closed"))) {
+                    assertThat(System.nanoTime()).isLessThan(deadline);
+                    Thread.sleep(10);
+                }
+            }
+        }
+    }
+
+    private static class CycleStateMachine extends StateMachine {
+        {
+            SimpleState a = state("A").build();
+            SimpleState b = state("B").build();
+            SimpleState c = state("C").build();
+            a.addTransitions(transitions()
+                    .transition(AB).on(AB)
+                    .to(b)
+                    .transition("Fail").on("Fail").onTransition(() -> {
+                        throw new IllegalStateException("Failed");
+                    })
+                    .to(b)
+                    .build());
+            b.addTransitions(transitions()
+                    .transition(BC).on(BC)
+                    .to(c)
+                    .build());
+            c.addTransitions(transitions()
+                    .transition(CA).on(CA)
+                    .to(a)
+                    .build());
+
+            addStates(asList(a, b, c));
+            activeState(a);
+        }
+    }
+}
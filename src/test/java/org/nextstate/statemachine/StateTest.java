@@ -11,6 +11,9 @@ public class StateTest {
     private static final String CALL_DIAL = "CallDial";
     private static final String CALL_DIALED = "CallDialed";
     private static final String FINAL = "Final";
+    private static final String HANG_UP = "HangUp";
+    private static final String HUNG_UP = "HungUp";
+    private static final String ANY = "Any";
 
     @Test
     public void transition_match() {
@@ -39,6 +42,45 @@ public class StateTest {
         assertThat(from.transitionToFinalState()).isTrue();
     }
 
+    @Test
+    public void transition_on_event_name() {
+        SimpleState from = new SimpleState("From");
+        from.addTransitions(transitions()
+                .transition(HANG_UP).on(HUNG_UP)
+                .to(new SimpleState("OffHook"))
+                .transition(CALL_DIAL).on(CALL_DIALED)
+                .to(new SimpleState("To")).build());
+
+        assertThat(from.execute(new CallDialed()).get().getName()).isEqualTo("To");
+        assertThat(from.execute(new Event("Unknown")).isPresent()).isFalse();
+    }
+
+    @Test
+    public void first_declared_transition_match_with_event_names_and_guards() {
+        SimpleState from = new SimpleState("From");
+        from.addTransitions(transitions()
+                .transition(CALL_DIAL).on(CALL_DIALED).guardedBy(event -> false)
+                .to(new SimpleState("Never"))
+                .transition(ANY).guardedBy(event -> event.getName().startsWith("Call"))
+                .to(new SimpleState("Any"))
+                .transition(CALL_DIAL).on(CALL_DIALED)
+                .to(new SimpleState("To")).build());
+
+        assertThat(from.execute(new CallDialed()).get().getName()).isEqualTo("Any");
+        assertThat(from.execute(new Event("CallConnected")).get().getName()).isEqualTo("Any");
+        assertThat(from.execute(new Event(HUNG_UP)).isPresent()).isFalse();
+    }
+
+    @Test
+    public void transition_added_after_first_event() {
+        SimpleState from = new SimpleState("From");
+        assertThat(from.execute(new CallDialed()).isPresent()).isFalse();
+
+        from.addTransition(transitions().transition(CALL_DIAL).on(CALL_DIALED).to(new SimpleState("To")).build().get(0));
+
+        assertThat(from.execute(new CallDialed()).get().getName()).isEqualTo("To");
+    }
+
     public static class CallDialed extends Event {
         public CallDialed() {
             super(CALL_DIALED);
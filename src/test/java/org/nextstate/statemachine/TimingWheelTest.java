@@ -0,0 +1,222 @@
+package org.nextstate.statemachine;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.CompositeState.compositeState;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.singleTransition;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * The wheels are driven by a virtual clock, advanced by the tests.
+ */
+public class TimingWheelTest {
+    private static final long MILLIS = 1_000_000;
+    private static final long SECONDS = 1000 * MILLIS;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final TimingWheel wheel = TimingWheel.timingWheel().tick(Duration.ofMillis(10)).clock(clock::get).build();
+    // Last advance of the clock
+    private long step;
+
+    @Test
+    public void timed_transition_fires_after_delay() {
+        MachineInstance atm = MachineDefinition.of(new TimedATMStateMachine()).newInstance(wheel);
+        atm.execute(new Event("CardInserted"));
+
+        clock.addAndGet(29 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(0);
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("ServingCustomer", "Authentication");
+
+        clock.addAndGet(1 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(1);
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Idle");
+        assertThat(wheel.getPending()).isEqualTo(0);
+    }
+
+    @Test
+    public void exit_cancels_timer() {
+        MachineInstance atm = MachineDefinition.of(new TimedATMStateMachine()).newInstance(wheel);
+        atm.execute(new Event("CardInserted"));
+        assertThat(wheel.getPending()).isEqualTo(1);
+
+        clock.addAndGet(10 * SECONDS);
+        wheel.advance();
+        atm.execute(new Event("Authenticated"));
+        assertThat(wheel.getPending()).isEqualTo(0);
+
+        clock.addAndGet(60 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(0);
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("ServingCustomer", "SelectingTransaction");
+    }
+
+    @Test
+    public void reentered_state_restarts_timer() {
+        MachineInstance atm = MachineDefinition.of(new TimedATMStateMachine()).newInstance(wheel);
+        atm.execute(new Event("CardInserted"));
+
+        clock.addAndGet(20 * SECONDS);
+        wheel.advance();
+        atm.execute(new Event("Retry"));
+        clock.addAndGet(20 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(0);
+
+        clock.addAndGet(10 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(1);
+        assertThat(atm.getActiveStateConfiguration()).containsExactly("Idle");
+    }
+
+    @Test
+    public void timeout_events_apart_from_timers() {
+        SimpleState expired = state("Expired").build();
+        SimpleState canceled = state("Canceled").build();
+        SimpleState waiting = state("Waiting")
+                .transition("Cancel").on(Transition.TIMEOUT_EVENT).to(canceled)
+                .transition("Expire").after(Duration.ofSeconds(1)).to(expired)
+                .build();
+        MachineDefinition definition = MachineDefinition.of("Waiter", asList(waiting, expired, canceled), waiting);
+
+        MachineInstance byEvent = definition.newInstance(wheel);
+        byEvent.execute(new Event(Transition.TIMEOUT_EVENT));
+        assertThat(byEvent.getActiveStateName()).isEqualTo("Canceled");
+
+        MachineInstance byTimer = definition.newInstance(wheel);
+        clock.addAndGet(1 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(1);
+        assertThat(byTimer.getActiveStateName()).isEqualTo("Expired");
+    }
+
+    @Test
+    public void timed_transitions_tested_in_order_of_delay() {
+        List<String> fired = new ArrayList<>();
+        SimpleState warned = state("Warned").build();
+        SimpleState closed = state("Closed").build();
+        SimpleState open = state("Open")
+                .transition("Close").after(Duration.ofMinutes(5)).onTransition(() -> fired.add("Close")).to(closed)
+                .transition("Warn").after(Duration.ofMinutes(1)).guardedBy(e -> false).to(warned)
+                .build();
+        MachineInstance door = MachineDefinition.of("Door", asList(open, warned, closed), open).newInstance(wheel);
+
+        clock.addAndGet(2 * 60 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(1);
+        assertThat(door.getActiveStateName()).isEqualTo("Open");
+
+        clock.addAndGet(3 * 60 * SECONDS);
+        assertThat(wheel.advance()).isEqualTo(1);
+        assertThat(door.getActiveStateName()).isEqualTo("Closed");
+        assertThat(fired).containsExactly("Close");
+    }
+
+    @Test
+    public void expiries_fire_in_batches() {
+        MachineDefinition definition = MachineDefinition.of(new TimedATMStateMachine());
+        List<MachineInstance> atms = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            MachineInstance atm = definition.newInstance(wheel);
+            atm.execute(new Event("CardInserted"));
+            atms.add(atm);
+            clock.addAndGet(MILLIS);
+        }
+        assertThat(wheel.getPending()).isEqualTo(10_000);
+
+        // The first 5 seconds of cards inserted
+        clock.set(35 * SECONDS);
+        assertThat(wheel.advance()).isBetween(4_990, 5_010);
+        clock.set(41 * SECONDS);
+        wheel.advance();
+
+        assertThat(wheel.getPending()).isEqualTo(0);
+        for (MachineInstance atm : atms) {
+            assertThat(atm.getActiveStateName()).isEqualTo("Idle");
+        }
+    }
+
+    @Test
+    public void timers_never_fire_early_at_any_level() {
+        Random random = new Random(42);
+        long tick = 10 * MILLIS;
+        List<RecordingTimer> timers = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            RecordingTimer timer = new RecordingTimer();
+            // Up to about 3 years, beyond the range of the wheel
+            long delay = (long) Math.pow(10, random.nextDouble() * 10) * tick / 10;
+            timer.deadline = clock.get() + delay;
+            wheel.schedule(timer, delay);
+            timers.add(timer);
+            step = random.nextInt(1000) * MILLIS;
+            clock.addAndGet(step);
+            wheel.advance();
+        }
+        while (wheel.getPending() > 0) {
+            step = (long) Math.pow(10, random.nextDouble() * 6) * tick;
+            clock.addAndGet(step);
+            wheel.advance();
+        }
+
+        for (RecordingTimer timer : timers) {
+            assertThat(timer.firedAt).isGreaterThanOrEqualTo(timer.deadline);
+            // Fired on the first advance after the deadline
+            assertThat(timer.firedAt - timer.deadline).isLessThan(timer.step + 2 * tick);
+        }
+    }
+
+    @Test
+    public void timed_transition_triggered_by_event() {
+        try {
+            state("Open").transition("Close").on("Close").after(Duration.ofSeconds(1)).to(state("Closed").build())
+                    .build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Timed transitions are not triggered by events!");
+        }
+    }
+
+    private final class RecordingTimer extends TimingWheel.Timer {
+        private long deadline;
+        private long firedAt = -1;
+        private long step;
+
+        @Override void expire() {
+            firedAt = clock.get();
+            step = TimingWheelTest.this.step;
+        }
+    }
+
+    // Idle -> ServingCustomer { Authentication, after 30 s to TimedOut -> Final } -> Idle
+    private static class TimedATMStateMachine extends StateMachine {
+        TimedATMStateMachine() {
+            State finalState = new FinalState("Final");
+            SimpleState idle = state("Idle").build();
+            SimpleState selecting = state("SelectingTransaction").build();
+            SimpleState timedOut = state("TimedOut")
+                    .transition(FinalState.FINAL_EVENT).guardedBy(e -> true).to(finalState)
+                    .build();
+            SimpleState authentication = state("Authentication")
+                    .transition("Authenticate").on("Authenticated").to(selecting)
+                    .transition("Timeout").after(Duration.ofSeconds(30)).to(timedOut)
+                    .build();
+            authentication.addTransition(new Transition("Retry", null, authentication, "Retry", null));
+            State servingCustomer = compositeState("ServingCustomer")
+                    .transition("Final").on(FinalState.FINAL_EVENT).to(idle)
+                    .initialTransition(singleTransition("Initial").to(authentication))
+                    .internalStates(asList(authentication, selecting, timedOut, finalState))
+                    .build();
+            idle.addTransitions(transitions()
+                    .transition("CardInsert").on("CardInserted").to(servingCustomer)
+                    .build());
+
+            addStates(asList(idle, servingCustomer));
+            activeState(idle);
+        }
+    }
+}
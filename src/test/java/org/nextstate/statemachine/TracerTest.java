@@ -0,0 +1,82 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.ATMStateMachine.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.nextstate.statemachine.ATMStateMachine.*;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+public class TracerTest {
+
+    @Test
+    public void records_the_events_given_to_each_state() {
+        List<TraceRecord> records = new ArrayList<>();
+        StateMachine atm = new ATMStateMachine();
+        atm.trace(records::add);
+
+        atm.execute(new TurnedOn());
+        atm.execute(new TestedOk());
+        atm.execute(new CardInserted());
+        atm.execute(new Authenticated());
+
+        assertThat(records).extracting(r -> r.getState().getName() + " " + r.getEvent().getName() + " "
+                + r.getTransition() + " " + (r.isTransition() ? r.getTarget().getName() : null))
+                .containsExactly(
+                        "Off TurnedOn TurnOn SelfTest",
+                        "SelfTest TestedOk TestOk Idle",
+                        "Idle CardInserted CardInsert ServingCustomer",
+                        "Authentication Authenticated Authenticate SelectingTransaction",
+                        "ServingCustomer Authenticated null null");
+        assertThat(records.get(0).getStateMachine()).isSameAs(atm);
+        assertThat(records.get(4).toString())
+                .isEqualTo("ATMStateMachine ServingCustomer event: Authenticated no transition match");
+    }
+
+    @Test
+    public void stop_tracing() {
+        List<TraceRecord> records = new ArrayList<>();
+        StateMachine atm = new ATMStateMachine();
+        atm.trace(records::add);
+        atm.execute(new TurnedOn());
+
+        atm.trace(null);
+        atm.execute(new TestedOk());
+
+        assertThat(records).hasSize(1);
+        assertThat(atm.getActiveStateConfiguration()).containsExactly(IDLE);
+    }
+
+    @Test
+    public void logging_tracer() {
+        Logger logger = (Logger) LoggerFactory.getLogger(ATMStateMachine.class);
+        Level level = logger.getLevel();
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        logger.setLevel(Level.DEBUG);
+        try {
+            StateMachine atm = new ATMStateMachine();
+            atm.trace(Tracer.logging());
+
+            atm.execute(new TurnedOn());
+            atm.execute(new TurnedOff());
+
+            assertThat(atm.getActiveStateConfiguration()).containsExactly(SELF_TEST);
+            assertThat(appender.list).extracting(ILoggingEvent::getFormattedMessage).containsExactly(
+                    "execute - ATMStateMachine Off event: TurnedOn transition TurnOn to state: SelfTest",
+                    "execute - ATMStateMachine SelfTest event: TurnedOff no transition match");
+        } finally {
+            logger.detachAppender(appender);
+            logger.setLevel(level);
+        }
+    }
+}